@@ -0,0 +1,271 @@
+// Checkpoint.java
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Checkpoints of a simulation in progress, and restoring from them
+ *  A checkpoint holds everything a simulation changes as it runs: the
+ *  pending events, each kept just as the event queue keeps it, the clock,
+ *  each neuron's voltage, time and fire count, and the strength of each
+ *  synapse, which secondary synapses change.  The pending output events
+ *  and fire counts are the output cursor.  A simulation of the same
+ *  network, read from the same file with the same options and then
+ *  restored from a checkpoint, goes on exactly as the one checkpointed
+ *  did, to the bit.  What does not change, the network itself, is not
+ *  saved; neither is a record of spikes, see {@link SpikeRaster}.
+ *  Of each stimulus file, only how far it has been read is saved; the
+ *  file must be unchanged when the checkpoint is restored.
+ *  Events scheduled by other code than the simulator, the neurons and
+ *  the output cannot be saved.  Checkpoints of the parallel engine,
+ *  {@link ParallelSimulator}, are not supported.
+ *  Taking a checkpoint only encodes the state into memory; writing it
+ *  to its file is done by another thread while the simulation goes on.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see Simulation
+ *  @see Simulator
+ *
+ *  Layout, all big-endian:
+ *  <pre>
+ *  int magic, int version,
+ *  int mode (0 objects, 1 packed, 2 batched, 3 mapped),
+ *  int neurons, int synapses, int hash of the neuron names
+ *  byte queue (0 event objects, 1 heap, 2 wheel, 3 ticks),
+ *  float clock, long clock in ticks, long events handled, boolean stopped
+ *  for the queue of event objects: int events, then each event;
+ *  for a primitive queue: its arrays, see {@link EventQueue#write},
+ *      int slots, per slot boolean used, then if used the event,
+ *      int free slots, int[free slots]
+ *  each event: float time, byte type, then for type 0 (common) int kind,
+ *      int target, 1 (neuron firing) int neuron, 2 (delivery) int synapse
+ *  for objects: per neuron float voltage, float time, int fire count;
+ *      per synapse float strength
+ *  for packed networks: see {@link PackedNetwork#write}
+ *  for mapped networks: see {@link MappedNetwork#write}
+ *  int stimuli; per stimulus file: see {@link Stimulus#write}
+ *  </pre>
+ */
+class Checkpoint {
+    private static final int MAGIC = 0x4e4e4b31; // "NNK1"
+    private static final int VERSION = 5;
+
+    private final Simulation sim;
+    private final Neuron[] neurons;
+    private final Synapse[] synapses;
+    private final IdentityHashMap <Synapse,Integer> synapseNumber
+        = new IdentityHashMap <Synapse,Integer> ();
+
+    /** Prepare to checkpoint or restore a simulation
+     *  @param sim  the simulation, with its network read, and packed
+     *  if it is to be simulated that way
+     */
+    Checkpoint( Simulation sim ) {
+        this.sim = sim;
+        neurons = sim.network.neurons.toArray( new Neuron[0] );
+        synapses = sim.network.synapses.toArray( new Synapse[0] );
+        for (int i = 0; i < synapses.length; i++) {
+            synapseNumber.put( synapses[i], i );
+        }
+    }
+
+    /* really private, what kind of simulation this is */
+    private int mode() {
+        PackedNetwork packed = sim.network.packed;
+        if (sim.network.mapped != null) return 3;
+        if (packed == null) return 0;
+        return packed.batched ? 2 : 1;
+    }
+
+    /* really private, tells networks apart */
+    private int hash() {
+        int h = neurons.length;
+        for (Neuron n: neurons) h = 31 * h + n.name.hashCode();
+        return h;
+    }
+
+    /** Save an event object, called by {@link Simulator#write}
+     */
+    void writeEvent( DataOutputStream out, Simulator.Event e )
+    throws IOException {
+        if (e instanceof Neuron.Firing) {
+            out.writeByte( 1 );
+            out.writeInt( ((Neuron.Firing)e).neuron.number );
+        } else if (e instanceof Neuron.Delivery) {
+            out.writeByte( 2 );
+            out.writeInt( synapseNumber.get( ((Neuron.Delivery)e).synapse ) );
+        } else {
+            throw new IOException(
+                "cannot save an event of " + e.getClass().getName()
+            );
+        }
+    }
+
+    /** Make an event object saved by {@code writeEvent}
+     */
+    Simulator.Event readEvent( DataInputStream in, int type, float time )
+    throws IOException {
+        int i = in.readInt();
+        if (type == 1) return new Neuron.Firing( time, neurons[i] );
+        if (type == 2) return new Neuron.Delivery( time, synapses[i] );
+        throw new IOException( "damaged checkpoint" );
+    }
+
+    /** Take a checkpoint of the simulation as it is now
+     *  Call this between events, as when {@link Simulation#runUntil}
+     *  returns, never from an event.
+     *  @return the checkpoint, to be written by {@link write}
+     */
+    byte[] take() throws IOException {
+        PackedNetwork packed = sim.network.packed;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            1024 + 12 * neurons.length +
+            4 * ((packed != null) ? packed.strength.length : synapses.length)
+        );
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        out.writeInt( mode() );
+        out.writeInt( neurons.length );
+        out.writeInt( synapses.length );
+        out.writeInt( hash() );
+        sim.simulator.write( out, this );
+        if (sim.network.mapped != null) {
+            sim.network.mapped.write( out );
+        } else if (packed != null) {
+            packed.write( out );
+        } else {
+            for (Neuron n: neurons) n.write( out );
+            for (Synapse s: synapses) out.writeFloat( s.strength );
+        }
+        out.writeInt( sim.stimuli.size() );
+        for (Stimulus s: sim.stimuli) s.write( out );
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Write a checkpoint to a file, replacing it only once it is whole
+     */
+    static void write( byte[] checkpoint, File f ) throws IOException {
+        File dir = f.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile( "checkpoint", ".tmp", dir );
+        try {
+            try (FileOutputStream out = new FileOutputStream( temp )) {
+                out.write( checkpoint );
+                out.getFD().sync();
+            }
+            Files.move(
+                temp.toPath(), f.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+        } finally {
+            temp.delete(); // if it was not moved
+        }
+    }
+
+    /** Restore the simulation from a checkpoint file
+     *  The simulation must be of the network checkpointed, read and
+     *  packed the same way, with the same kind of event queue, and not
+     *  yet run.
+     *  @throws IOException if the file cannot be read, or is not a
+     *  checkpoint of such a simulation
+     */
+    void restore( File f ) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream( new FileInputStream( f ), 1 << 16 )
+        )) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                throw new IOException( f + " is not a checkpoint" );
+            }
+            if ((in.readInt() != mode())
+            ||  (in.readInt() != neurons.length)
+            ||  (in.readInt() != synapses.length)
+            ||  (in.readInt() != hash())) {
+                throw new IOException( f + " is of another network or mode" );
+            }
+            sim.simulator.read( in, this );
+            PackedNetwork packed = sim.network.packed;
+            if (sim.network.mapped != null) {
+                sim.network.mapped.read( in );
+            } else if (packed != null) {
+                packed.read( in );
+            } else {
+                for (Neuron n: neurons) n.read( in );
+                for (Synapse s: synapses) s.strength = in.readFloat();
+            }
+            if (in.readInt() != sim.stimuli.size()) {
+                throw new IOException( f + " has other stimulus files" );
+            }
+            for (Stimulus s: sim.stimuli) s.read( in );
+        }
+    }
+
+    /** Run the simulation to its end, taking a checkpoint now and then
+     *  Each checkpoint replaces the last in the file.  While one is
+     *  being written the simulation goes on; if the next is due before
+     *  that is done, the simulation waits for it.  Checkpoints are due
+     *  at the start plus whole multiples of {@code every}.
+     *  @param every  the simulated time between checkpoints
+     *  @param f  the file to keep the latest checkpoint in
+     */
+    void run( float every, File f ) throws IOException {
+        ExecutorService writer = Executors.newSingleThreadExecutor( r -> {
+            Thread t = new Thread( r, "checkpoint writer" );
+            t.setDaemon( true );
+            return t;
+        } );
+        Future <?> writing = null;
+        try {
+            // each due time from the start, so that rounding does not
+            // add up; once one rounds to the last, time has run out
+            double start = sim.simulator.now();
+            float last = (float)start;
+            for (long k = 1; ; k++) {
+                float due = (float)(start + k * (double)every);
+                if (!(due > last)) {
+                    throw new IOException(
+                        "checkpoints every " + every + " do not pass time " + last
+                    );
+                }
+                if (!sim.runUntil( due )) break;
+                last = due;
+                byte[] checkpoint = take();
+                finish( writing );
+                writing = writer.submit( () -> {
+                    write( checkpoint, f );
+                    return null;
+                } );
+            }
+            finish( writing );
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    /* really private, wait for a checkpoint being written */
+    private static void finish( Future <?> writing ) throws IOException {
+        if (writing == null) return;
+        try {
+            writing.get();
+        } catch (InterruptedException e) {
+            throw new IOException( "interrupted writing a checkpoint" );
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException)cause;
+            throw new IOException( cause );
+        }
+    }
+}
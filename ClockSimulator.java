@@ -0,0 +1,334 @@
+// ClockSimulator.java
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Clock-driven simulation of a packed network, in fixed time steps
+ *  Instead of handling each firing and delivery as an event in time
+ *  order, time advances in steps of {@code dt}, and at each step every
+ *  neuron is updated at once: its voltage decays by e<sup>-dt</sup>, as
+ *  in {@link Neuron#kick}, and the input delivered to it in that step is
+ *  added; then each neuron over its threshold fires.  A synapse's delay
+ *  is rounded to a whole number of steps, at least one, and deliveries
+ *  wait in a ring of per-step lists, one for each step up to the
+ *  longest delay, so scheduling one costs an append, not a heap
+ *  operation.  Secondary synapses change strengths as they deliver,
+ *  in the order their spikes were sent.
+ *  The bulk update runs over plain primitive arrays in a loop without
+ *  branches that the JIT compiler turns into vector instructions; the
+ *  threshold compare is a separate scan.  For dense networks in which
+ *  most neurons are kicked in most steps, this does less work than the
+ *  event-driven engine; for sparse activity it does more.
+ *  Results are not those of the event-driven engine: spikes fall on
+ *  whole steps and inputs in one step are summed before the threshold
+ *  is checked.  The main program measures how far apart the two are.
+ *  Output events are kept by the simulator, as in
+ *  {@link ParallelSimulator}, and run after each step once fire counts
+ *  are up to date; so the simulator must keep a primitive queue.
+ *  Usage of the main program: {@code java ClockSimulator [-dt=}<i>t</i>{@code ]
+ *  [-tolerance=}<i>t</i>{@code ] file ...}, comparing the two engines
+ *  on each network, by default the files {@code f} and {@code g}.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see PackedNetwork
+ *  @see Simulation#runClocked
+ */
+class ClockSimulator {
+    private final Simulation sim;
+    private final PackedNetwork net;
+    private final float dt;
+    private final float leak;           // e^(-dt), the decay in one step
+    private final int[] steps;          // delay of each synapse, in steps
+
+    // deliveries due in each step of the ring, by synapse number
+    private final int[][] due;
+    private final int[] dueCount;
+    private long pending = 0;           // deliveries in the ring
+
+    private final float[] input;        // to each neuron in this step
+    private int[] firing = new int[64]; // neurons firing in this step
+    private long step = 0;
+    private final SimulationMetrics.Probe probe; // counts, if enabled
+
+    /** Prepare the clock-driven simulation of a packed network
+     *  A network with plasticity or stimulus files is a fatal error.
+     *  @param sim  the simulation, with its network packed, batched or
+     *  not, and its simulator keeping a primitive event queue
+     *  @param dt  the time step
+     */
+    ClockSimulator( Simulation sim, float dt ) {
+        this.sim = sim;
+        this.net = sim.network.packed;
+        if (net.plasticity != null) {
+            sim.errors.fatal( "plasticity cannot be simulated in time steps" );
+        }
+        if (!sim.stimuli.isEmpty()) {
+            sim.errors.fatal( "stimulus files cannot be simulated in time steps" );
+        }
+        this.dt = dt;
+        leak = (float)Math.exp( -dt );
+        int neurons = net.voltage.length;
+        input = new float[neurons];
+        probe = (sim.metrics != null) ? sim.metrics.probe() : null;
+        if (probe != null) probe.depth = () -> (int)pending;
+
+        steps = new int[net.delay.length];
+        int longest = 1;
+        for (int e = 0; e < steps.length; e++) {
+            steps[e] = Math.max( 1, Math.round( net.delay[e] / dt ) );
+            longest = Math.max( longest, steps[e] );
+        }
+        due = new int[longest + 1][];
+        dueCount = new int[longest + 1];
+        for (int i = 0; i < due.length; i++) due[i] = new int[16];
+
+        // initial firings are handled here, output by the simulator
+        Simulator simulator = sim.simulator;
+        simulator.clear();
+        sim.output.startAll();
+    }
+
+    /** Neuron n fires at this step
+     */
+    private void fire( int n ) {
+        net.fireCount[n]++;
+        if (net.fireCount[n] == 1) sim.output.fired( n );
+        net.voltage[n] = 0.0f;
+        if (sim.raster != null) sim.raster.record( n, step * dt );
+        if (SimulationMetrics.ENABLED) probe.spike( n );
+        FlightEvents.fire( n, step * dt );
+        for (int e = net.first[n]; e < net.first[n + 1]; e++) {
+            if (net.target[e] < 0) continue; // no effect
+            int slot = (int)((step + steps[e]) % due.length);
+            int c = dueCount[slot];
+            if (c == due[slot].length) due[slot] = Arrays.copyOf( due[slot], c * 2 );
+            due[slot][c] = e;
+            dueCount[slot] = c + 1;
+            pending++;
+        }
+    }
+
+    /** Deliver what is due at this step, into the input or strengths
+     */
+    private void deliver() {
+        int slot = (int)(step % due.length);
+        int[] list = due[slot];
+        int count = dueCount[slot];
+        for (int i = 0; i < count; i++) {
+            int e = list[i];
+            int t = net.target[e];
+            if (net.kind[e] == PackedNetwork.PRIMARY) {
+                FlightEvents.delivery( t, false, net.strength[e], step * dt );
+                input[t] += net.strength[e];
+            } else {
+                FlightEvents.delivery(
+                    net.target[t], true, net.strength[e], step * dt
+                );
+                net.strength[t] += net.strength[e];
+            }
+        }
+        dueCount[slot] = 0;
+        pending = pending - count;
+        if (SimulationMetrics.ENABLED) {
+            probe.events = probe.events + count;
+            probe.now = step * dt;
+        }
+    }
+
+    /** Decay every voltage by one step and add its input
+     *  Kept free of branches so that it is compiled to vector code.
+     */
+    private void update() {
+        float[] v = net.voltage;
+        float[] in = input;
+        float k = leak;
+        for (int n = 0; n < v.length; n++) {
+            v[n] = v[n] * k + in[n];
+            in[n] = 0.0f;
+        }
+    }
+
+    /** Fire every neuron over its threshold, in order of number
+     */
+    private void threshold() {
+        float[] v = net.voltage;
+        float[] th = net.threshold;
+        int count = 0;
+        for (int n = 0; n < v.length; n++) {
+            //  if voltage exceeds threshold (non-inclusive) the neuron fires
+            if (v[n] > th[n]) {
+                if (count == firing.length) firing = Arrays.copyOf( firing, count * 2 );
+                firing[count++] = n;
+            }
+        }
+        for (int i = 0; i < count; i++) fire( firing[i] );
+    }
+
+    /** Run the output events due by the end of this step
+     */
+    private void output() {
+        Simulator simulator = sim.simulator;
+        float now = step * dt;
+        while (!simulator.isStopped() && (simulator.nextTime() <= now)) {
+            simulator.runNext();
+        }
+    }
+
+    /** Run the simulation to its end
+     *  It ends when nothing is pending or when output ends the simulation.
+     */
+    void run() {
+        Simulator simulator = sim.simulator;
+        threshold(); // the initial firings, at time zero
+        output();
+        while (!simulator.isStopped()) {
+            if ((pending == 0)
+            &&  (simulator.nextTime() == Float.POSITIVE_INFINITY)) break;
+            step++;
+            deliver();
+            update();
+            threshold();
+            output();
+        }
+    }
+
+    /** The spike times of each neuron in a record of spikes
+     */
+    private static float[][] trains( File raster ) throws IOException {
+        try (SpikeRaster.Reader r = new SpikeRaster.Reader( raster )) {
+            float[][] times = new float[r.neurons()][];
+            int[] count = new int[r.neurons()];
+            for (int n = 0; n < times.length; n++) times[n] = new float[4];
+            while (r.next()) {
+                int n = r.neuron();
+                if (count[n] == times[n].length) {
+                    times[n] = Arrays.copyOf( times[n], count[n] * 2 );
+                }
+                times[n][count[n]++] = r.time();
+            }
+            for (int n = 0; n < times.length; n++) {
+                times[n] = Arrays.copyOf( times[n], count[n] );
+            }
+            return times;
+        }
+    }
+
+    /** Simulate a network with one engine, recording its spikes
+     *  @param dt  the time step, or 0 for the event-driven engine
+     *  @return the time taken, in seconds
+     */
+    private static double simulate( File f, float dt, File raster )
+    throws IOException {
+        Simulation sim = new Simulation(
+            new PrintStream( OutputStream.nullOutputStream() ), System.err
+        );
+        sim.simulator.useOrderedHeap( 4 );
+        sim.read( f, false );
+        if (sim.errors.errCount > 0) throw new IOException( f + " has errors" );
+        sim.pack( false );
+        sim.record( raster );
+        long t0 = System.nanoTime();
+        if (dt > 0.0f) {
+            sim.runClocked( dt );
+        } else {
+            sim.run();
+        }
+        return (System.nanoTime() - t0) / 1e9;
+    }
+
+    /** Compare the clock-driven engine with the event-driven one
+     *  Spikes of each neuron are matched in order; a spike matches if
+     *  it is within the tolerance of the event-driven one.
+     */
+    private static void compare( File f, float dt, float tolerance )
+    throws IOException {
+        File eventRaster = File.createTempFile( "events", ".spikes" );
+        File clockRaster = File.createTempFile( "clock", ".spikes" );
+        eventRaster.deleteOnExit();
+        clockRaster.deleteOnExit();
+        double eventTime = simulate( f, 0.0f, eventRaster );
+        double clockTime = simulate( f, dt, clockRaster );
+        float[][] a = trains( eventRaster );
+        float[][] b = trains( clockRaster );
+        eventRaster.delete();
+        clockRaster.delete();
+
+        long eventSpikes = 0;
+        long clockSpikes = 0;
+        long matched = 0;
+        int neuronsDiffering = 0;           // in their number of spikes
+        float diverged = Float.POSITIVE_INFINITY; // first spike unmatched
+        double drift = 0.0;                 // largest matched difference
+        for (int n = 0; n < a.length; n++) {
+            eventSpikes = eventSpikes + a[n].length;
+            clockSpikes = clockSpikes + b[n].length;
+            if (a[n].length != b[n].length) neuronsDiffering++;
+            int i = 0;
+            for (; (i < a[n].length) && (i < b[n].length); i++) {
+                float d = Math.abs( a[n][i] - b[n][i] );
+                if (d > tolerance) break;
+                drift = Math.max( drift, d );
+                matched++;
+            }
+            if (i < a[n].length) diverged = Math.min( diverged, a[n][i] );
+            if (i < b[n].length) diverged = Math.min( diverged, b[n][i] );
+        }
+        System.out.printf(
+            "%s, dt %s: events %.3f s, clock %.3f s, %s faster%n",
+            f.getName(), dt, eventTime, clockTime,
+            (clockTime < eventTime) ? "clock" : "events"
+        );
+        System.out.printf(
+            "  spikes %d events, %d clock, %d matched within %s" +
+            " (largest difference %.4g); %d neurons fire a different number" +
+            " of times; %s%n",
+            eventSpikes, clockSpikes, matched, tolerance, drift,
+            neuronsDiffering,
+            (diverged == Float.POSITIVE_INFINITY)
+                ? "no divergence"
+                : ("first diverges at " + diverged)
+        );
+    }
+
+    /** Main program, see the class comment for the arguments
+     */
+    public static void main( String[] args ) throws IOException {
+        Errors errors = new Errors( System.err );
+        float dt = 0.001f;
+        float tolerance = Float.NaN;
+        List <File> files = new ArrayList <File> ();
+        try {
+            for (String arg: args) {
+                String value = arg.substring( arg.indexOf( '=' ) + 1 );
+                try {
+                    if (arg.startsWith( "-dt=" )) {
+                        dt = Float.parseFloat( value );
+                    } else if (arg.startsWith( "-tolerance=" )) {
+                        tolerance = Float.parseFloat( value );
+                    } else if (arg.startsWith( "-" )) {
+                        errors.fatal( arg + " -- unknown option" );
+                    } else {
+                        files.add( new File( arg ) );
+                    }
+                } catch (NumberFormatException e) {
+                    errors.fatal( arg + " -- expected a number" );
+                }
+            }
+            if (!(dt > 0.0f)) errors.fatal( "-dt must be positive" );
+        } catch (Errors.Fatal e) {
+            System.exit( 1 );
+        }
+        if (Float.isNaN( tolerance )) tolerance = dt;
+        if (files.isEmpty()) {
+            for (String name: new String[] { "f", "g" }) {
+                if (new File( name ).isFile()) files.add( new File( name ) );
+            }
+        }
+        for (File f: files) compare( f, dt, tolerance );
+    }
+}
@@ -0,0 +1,475 @@
+// CompiledNetwork.java
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Compiled binary form of a network description, and a cache of them
+ *  A network read from text, once it has been checked without errors,
+ *  can be saved in a compact binary form holding the string pool of
+ *  names, the neuron table, the synapses and which neuron each comes
+ *  from, the output settings, the plasticity rules and the stimulus
+ *  files named.  Compiled networks are kept in a cache
+ *  directory under the SHA-256 hash of the text they came from, so an
+ *  unchanged text file is loaded from its compiled form with one mapped
+ *  read, with no scanning and no checking.
+ *  A network to be packed is loaded straight into the arrays of a
+ *  {@link PackedNetwork}, with no synapse objects made.
+ *  The cache directory is {@code nn.cache} if that system property is
+ *  set, otherwise {@code .cache/neuron-network} in the user's home
+ *  directory, which only that user may write; a shared temporary
+ *  directory would let anyone plant a network there for others to load.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see NeuronNetwork
+ *
+ *  Layout, all big-endian:
+ *  <pre>
+ *  int magic, int version, 32 bytes source hash
+ *  int strings;  per string: short length, that many UTF-8 bytes
+ *  int neurons;  per neuron: int name, float threshold, float voltage
+ *  int synapses; per synapse: int name (-1 if none), int source neuron,
+ *                byte kind (0 primary, 1 secondary), int destination
+ *                (neuron for primary, synapse for secondary),
+ *                float delay, float strength
+ *  int[neurons + 1] first outgoing synapse of each neuron, then
+ *  int[synapses] the outgoing synapses of each neuron, in order
+ *  int outputs; float interval, float termination,
+ *                int[outputs] neurons declared before each output line
+ *  int rules;    per rule: int source neuron, int destination neuron
+ *                (-1 for any), float a+, tau+, a-, tau-, min, max
+ *  int stimuli;  per stimulus file: int name
+ *  </pre>
+ */
+class CompiledNetwork {
+    private static final int MAGIC = 0x4e4e4331; // "NNC1"
+    private static final int VERSION = 3;
+
+    private final byte[] hash;  // hash of the source text
+    private final File compiled; // where the compiled form is cached
+
+    /** Find where the compiled form of a source file would be cached
+     *  @param source  the network description text
+     *  @throws FileNotFoundException if the source cannot be read
+     */
+    CompiledNetwork( File source ) throws FileNotFoundException {
+        hash = hashOf( source );
+        String dir = System.getProperty( "nn.cache" );
+        File cache = (dir != null)
+            ? new File( dir )
+            : new File( System.getProperty( "user.home" ),
+                        ".cache" + File.separator + "neuron-network" );
+        StringBuilder name = new StringBuilder();
+        for (byte b: hash) name.append( String.format( "%02x", b ) );
+        compiled = new File( cache, name + ".nnc" );
+    }
+
+    /** SHA-256 of the contents of a file
+     *  Also what a {@link MappedTopology} is checked against.
+     */
+    static byte[] hashOf( File f ) throws FileNotFoundException {
+        try (FileChannel ch = new FileInputStream( f ).getChannel()) {
+            MessageDigest md = MessageDigest.getInstance( "SHA-256" );
+            ByteBuffer b = ByteBuffer.allocateDirect( 1 << 20 );
+            while (ch.read( b ) >= 0) {
+                b.flip();
+                md.update( b );
+                b.clear();
+            }
+            return md.digest();
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return new byte[32]; // matches no cached network
+        }
+    }
+
+    /** The tables of a compiled network, decoded and checked
+     */
+    private static class Tables {
+        String[] strings;
+        String[] neuronName;
+        float[] threshold;
+        float[] voltage;
+        int[] synapseName;      // string, or -1
+        int[] source;           // neuron, or -1
+        byte[] kind;
+        int[] target;           // neuron or synapse, or -1
+        float[] delay;
+        float[] strength;
+        int[] first;
+        int[] outgoing;
+        int[] outputs;
+        float interval;
+        float termination;
+        int[] ruleNeurons;
+        float[] ruleValues;
+        String[] stimuli;
+    }
+
+    /* really private, a count of things of the given size that fit in
+     * what is left of b, else the file is damaged */
+    private static int count( ByteBuffer b, int size ) {
+        int n = b.getInt();
+        if ((n < 0) || ((long)n * size > b.remaining())) {
+            throw new IndexOutOfBoundsException( "count " + n );
+        }
+        return n;
+    }
+
+    /* really private, i if it numbers one of n things, or is -1 where
+     * that is allowed, else the file is damaged */
+    private static int index( int i, int n, boolean none ) {
+        if ((i < n) && ((i >= 0) || (none && (i == -1)))) return i;
+        throw new IndexOutOfBoundsException( "index " + i );
+    }
+
+    /* really private, read and check the compiled form, if there is one
+     * for this text; null if there is not, or it is damaged */
+    private Tables decode() {
+        if (!compiled.isFile()) return null;
+        MappedByteBuffer b;
+        try (FileChannel ch = new FileInputStream( compiled ).getChannel()) {
+            b = ch.map( FileChannel.MapMode.READ_ONLY, 0, ch.size() );
+        } catch (IOException e) {
+            return null;
+        }
+        Tables t = new Tables();
+        try {
+            if ((b.getInt() != MAGIC) || (b.getInt() != VERSION)) return null;
+            for (int i = 0; i < hash.length; i++) {
+                if (b.get() != hash[i]) return null;
+            }
+
+            t.strings = new String[count( b, 2 )];
+            for (int i = 0; i < t.strings.length; i++) {
+                byte[] bytes = new byte[b.getShort() & 0xffff];
+                b.get( bytes );
+                t.strings[i] = new String( bytes, StandardCharsets.UTF_8 );
+            }
+
+            int neurons = count( b, 12 );
+            t.neuronName = new String[neurons];
+            t.threshold = new float[neurons];
+            t.voltage = new float[neurons];
+            for (int i = 0; i < neurons; i++) {
+                t.neuronName[i] = t.strings[b.getInt()];
+                t.threshold[i] = b.getFloat();
+                t.voltage[i] = b.getFloat();
+            }
+
+            int synapses = count( b, 21 );
+            t.synapseName = new int[synapses];
+            t.source = new int[synapses];
+            t.kind = new byte[synapses];
+            t.target = new int[synapses];
+            t.delay = new float[synapses];
+            t.strength = new float[synapses];
+            for (int i = 0; i < synapses; i++) {
+                t.synapseName[i] = index( b.getInt(), t.strings.length, true );
+                t.source[i] = index( b.getInt(), neurons, true );
+                t.kind[i] = b.get();
+                t.target[i] = b.getInt();
+                t.delay[i] = b.getFloat();
+                t.strength[i] = b.getFloat();
+            }
+            for (int i = 0; i < synapses; i++) {
+                if (t.kind[i] == 0) {
+                    index( t.target[i], neurons, true );
+                } else if ((t.kind[i] != 1)
+                       ||  ((index( t.target[i], synapses, true ) >= 0)
+                            && (t.kind[t.target[i]] != 0))) {
+                    throw new IndexOutOfBoundsException( "synapse " + i );
+                }
+            }
+
+            t.first = new int[neurons + 1];
+            for (int i = 0; i <= neurons; i++) {
+                t.first[i] = index( b.getInt(), synapses + 1, false );
+                if ((i > 0) && (t.first[i] < t.first[i - 1])) {
+                    throw new IndexOutOfBoundsException( "row " + i );
+                }
+            }
+            if ((t.first[0] != 0) || (t.first[neurons] != synapses)) {
+                throw new IndexOutOfBoundsException( "rows" );
+            }
+            t.outgoing = new int[synapses];
+            for (int i = 0; i < synapses; i++) {
+                t.outgoing[i] = index( b.getInt(), synapses, false );
+            }
+
+            t.outputs = new int[count( b, 4 )];
+            t.interval = b.getFloat();
+            t.termination = b.getFloat();
+            for (int i = 0; i < t.outputs.length; i++) {
+                t.outputs[i] = index( b.getInt(), neurons + 1, false );
+            }
+
+            t.ruleNeurons = new int[count( b, 32 ) * 2];
+            t.ruleValues = new float[t.ruleNeurons.length * 3];
+            for (int i = 0; i < t.ruleNeurons.length; i += 2) {
+                t.ruleNeurons[i] = index( b.getInt(), neurons, true );
+                t.ruleNeurons[i + 1] = index( b.getInt(), neurons, true );
+                for (int j = 0; j < 6; j++) t.ruleValues[i * 3 + j] = b.getFloat();
+            }
+
+            t.stimuli = new String[count( b, 4 )];
+            for (int i = 0; i < t.stimuli.length; i++) {
+                t.stimuli[i] = t.strings[b.getInt()];
+            }
+        } catch (RuntimeException e) {
+            // a truncated or damaged file, it will be replaced
+            return null;
+        }
+        return t;
+    }
+
+    /* really private, declare the neurons, outputs, rules and stimulus
+     * files, as they were declared in the text */
+    private static Neuron[] declare( Simulation sim, Tables t ) {
+        Neuron[] neurons = new Neuron[t.neuronName.length];
+        int o = 0;
+        for (int i = 0; i < neurons.length; i++) {
+            while ((o < t.outputs.length) && (t.outputs[o] == i)) {
+                sim.output.setOutput( t.interval, t.termination );
+                o++;
+            }
+            neurons[i] = new Neuron(
+                sim, t.neuronName[i], t.threshold[i], t.voltage[i]
+            );
+            sim.network.neurons.add( neurons[i] );
+        }
+        for (; o < t.outputs.length; o++) {
+            sim.output.setOutput( t.interval, t.termination );
+        }
+        for (int i = 0; i < t.ruleNeurons.length; i += 2) {
+            int s = t.ruleNeurons[i];
+            int d = t.ruleNeurons[i + 1];
+            float[] v = t.ruleValues;
+            int j = i * 3;
+            sim.network.rules.add( new Plasticity.Rule(
+                (s < 0) ? null : neurons[s].name,
+                (d < 0) ? null : neurons[d].name,
+                v[j], v[j + 1], v[j + 2], v[j + 3], v[j + 4], v[j + 5]
+            ) );
+        }
+        for (String f: t.stimuli) sim.network.stimulusFiles.add( f );
+        return neurons;
+    }
+
+    /** Build the network from its cached compiled form, if there is one
+     *  @param sim  the simulation to build the network in, still empty
+     *  @return true if the network was loaded, false if it must be
+     *  read from its text; a damaged cache entry is just ignored.
+     */
+    boolean load( Simulation sim ) {
+        Tables t = decode();
+        if (t == null) return false;
+        Neuron[] neurons = declare( sim, t );
+
+        // make all synapses, then connect secondaries to their targets
+        Synapse[] synapses = new Synapse[t.kind.length];
+        for (int i = 0; i < synapses.length; i++) {
+            Synapse s;
+            if (t.kind[i] == 0) {
+                s = new PrimarySynapse(
+                    (t.target[i] < 0) ? null : neurons[t.target[i]]
+                );
+            } else {
+                s = new SecondarySynapse( sim.errors, null );
+            }
+            s.name = (t.synapseName[i] < 0) ? null : t.strings[t.synapseName[i]];
+            s.source = (t.source[i] < 0) ? null : neurons[t.source[i]];
+            s.delay = t.delay[i];
+            s.strength = t.strength[i];
+            if (s.name != null) sim.network.declare( s.name, s );
+            synapses[i] = s;
+            sim.network.synapses.add( s );
+        }
+        for (int i = 0; i < synapses.length; i++) {
+            if ((synapses[i] instanceof SecondarySynapse) && (t.target[i] >= 0)) {
+                ((SecondarySynapse)synapses[i]).destination =
+                    (PrimarySynapse)synapses[t.target[i]];
+            }
+        }
+        for (int i = 0; i < neurons.length; i++) {
+            for (int j = t.first[i]; j < t.first[i + 1]; j++) {
+                neurons[i].synapses.add( synapses[t.outgoing[j]] );
+            }
+        }
+        return true;
+    }
+
+    /** Build the network from its cached compiled form, packed, if
+     *  there is one
+     *  The rows of the packed network are taken straight from the
+     *  compiled form; neurons are declared, for their names, but no
+     *  synapse objects are made.  The network is not started.
+     *  @param sim  the simulation to build the network in, still empty
+     *  @param batched  if true, fan-out is batched by delay
+     *  @return true if the network was loaded, false if it must be
+     *  read from its text; a damaged cache entry is just ignored.
+     *  @see PackedNetwork
+     */
+    boolean loadPacked( Simulation sim, boolean batched ) {
+        Tables t = decode();
+        if (t == null) return false;
+        declare( sim, t );
+
+        // number synapses as they are in the rows, as PackedNetwork does
+        int synapses = t.kind.length;
+        int[] number = new int[synapses];
+        Arrays.fill( number, -1 ); // in no row
+        for (int j = 0; j < synapses; j++) number[t.outgoing[j]] = j;
+        byte[] kind = new byte[synapses];
+        int[] target = new int[synapses];
+        float[] delay = new float[synapses];
+        float[] strength = new float[synapses];
+        for (int j = 0; j < synapses; j++) {
+            int i = t.outgoing[j];
+            if (t.kind[i] == 0) {
+                kind[j] = PackedNetwork.PRIMARY;
+                target[j] = t.target[i];
+            } else {
+                kind[j] = PackedNetwork.SECONDARY;
+                target[j] = (t.target[i] < 0) ? -1 : number[t.target[i]];
+            }
+            delay[j] = t.delay[i];
+            strength[j] = t.strength[i];
+        }
+        sim.network.packed = new PackedNetwork(
+            sim, batched, t.first, kind, target, delay, strength
+        );
+        return true;
+    }
+
+    /** Save the network just read from text in compiled form
+     *  Only call this if the network was read without errors.
+     *  Failure to save is not an error, the cache is just not used.
+     *  @param sim  the simulation the network was read into
+     */
+    void save( Simulation sim ) {
+        NeuronNetwork network = sim.network;
+        SimulationOutput output = sim.output;
+        // number the names, neurons and synapses
+        HashMap <String,Integer> strings = new HashMap <String,Integer> ();
+        HashMap <Object,Integer> index = new HashMap <Object,Integer> ();
+        for (Neuron n: network.neurons) {
+            index.put( n, index.size() );
+            strings.putIfAbsent( n.name, strings.size() );
+        }
+        int i = 0;
+        for (Synapse s: network.synapses) {
+            index.put( s, i++ );
+            if (s.name != null) strings.putIfAbsent( s.name, strings.size() );
+        }
+        for (String f: network.stimulusFiles) {
+            strings.putIfAbsent( f, strings.size() );
+        }
+        String[] pool = new String[strings.size()];
+        for (String s: strings.keySet()) pool[strings.get( s )] = s;
+
+        File dir = compiled.getParentFile();
+        File temp = null;
+        try {
+            dir.mkdirs();
+            temp = File.createTempFile( "network", ".tmp", dir );
+            try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( temp ), 1 << 16 )
+            )) {
+                out.writeInt( MAGIC );
+                out.writeInt( VERSION );
+                out.write( hash );
+
+                out.writeInt( pool.length );
+                for (String s: pool) {
+                    byte[] bytes = s.getBytes( StandardCharsets.UTF_8 );
+                    if (bytes.length > 0xffff) { // its length is a short
+                        throw new IOException(
+                            "a name of " + bytes.length + " bytes is too long"
+                        );
+                    }
+                    out.writeShort( bytes.length );
+                    out.write( bytes );
+                }
+
+                out.writeInt( network.neurons.size() );
+                for (Neuron n: network.neurons) {
+                    out.writeInt( strings.get( n.name ) );
+                    out.writeFloat( n.getThreshold() );
+                    out.writeFloat( n.getVoltage() );
+                }
+
+                out.writeInt( network.synapses.size() );
+                for (Synapse s: network.synapses) {
+                    out.writeInt( (s.name == null) ? -1 : strings.get( s.name ) );
+                    out.writeInt( (s.source == null) ? -1 : index.get( s.source ) );
+                    Object dst = (s instanceof PrimarySynapse)
+                        ? ((PrimarySynapse)s).destination
+                        : ((SecondarySynapse)s).destination;
+                    out.writeByte( (s instanceof PrimarySynapse) ? 0 : 1 );
+                    out.writeInt( (dst == null) ? -1 : index.get( dst ) );
+                    out.writeFloat( s.delay );
+                    out.writeFloat( s.strength );
+                }
+
+                int first = 0;
+                for (Neuron n: network.neurons) {
+                    out.writeInt( first );
+                    first = first + n.synapses.size();
+                }
+                out.writeInt( first );
+                for (Neuron n: network.neurons) {
+                    for (Synapse s: n.synapses) out.writeInt( index.get( s ) );
+                }
+
+                out.writeInt( output.declaredAfter.size() );
+                out.writeFloat( output.getInterval() );
+                out.writeFloat( output.getTermination() );
+                for (int after: output.declaredAfter) {
+                    out.writeInt( after );
+                }
+
+                out.writeInt( network.rules.size() );
+                for (Plasticity.Rule r: network.rules) {
+                    out.writeInt( (r.sourceName == null)
+                        ? -1 : network.findNeuron( r.sourceName ).number );
+                    out.writeInt( (r.dstName == null)
+                        ? -1 : network.findNeuron( r.dstName ).number );
+                    out.writeFloat( r.aPlus );
+                    out.writeFloat( r.tauPlus );
+                    out.writeFloat( r.aMinus );
+                    out.writeFloat( r.tauMinus );
+                    out.writeFloat( r.min );
+                    out.writeFloat( r.max );
+                }
+
+                out.writeInt( network.stimulusFiles.size() );
+                for (String f: network.stimulusFiles) {
+                    out.writeInt( strings.get( f ) );
+                }
+            }
+            Files.move(
+                temp.toPath(), compiled.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+        } catch (IOException e) {
+            if (temp != null) temp.delete();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+// Decay.java
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Fast evaluation of the leak of a neuron's voltage
+ *  Between kicks a voltage decays by the factor e<sup>-g</sup>, for the
+ *  gap g in time since the last kick.  {@code Math.exp}, in double
+ *  precision, is the costliest step of each kick; {@link fast} instead
+ *  looks up e<sup>-k/64</sup> for the whole 64ths of the gap in a table
+ *  of 4096 floats and multiplies it by a cubic for the rest, which is
+ *  less than 1/64.  The cubic's own error is under 3e-9; with rounding,
+ *  the factor differs from {@code Math.exp} by a relative error of at
+ *  most {@code MAX_ERROR}, under 2 units in the last place of a float,
+ *  where the exact factor is rounded to within half a unit.  Gaps of 64
+ *  or more, and negative gaps, fall back to {@code Math.exp}.
+ *  The fast mode is chosen for each simulation, see
+ *  {@link Simulation#fastDecay}; voltages then differ from the exact
+ *  ones in their last bits, which can change whether a neuron crossing
+ *  its threshold by a hair fires, so spike trains may in the end
+ *  diverge.  The main program measures both the error of the factor
+ *  and the spikes that differ on sample networks.
+ *  Usage: {@code java Decay [file ...]}, by default the files {@code f}
+ *  and {@code g} in the current directory if they are there.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see Neuron#kick
+ *  @see PackedNetwork#kick
+ */
+class Decay {
+    private static final int STEPS = 64;        // table entries per time unit
+    private static final float LIMIT = 64.0f;   // gaps the table covers
+    static final float MAX_ERROR = 2.0e-7f;     // relative, see main
+
+    // e^(-k/STEPS) for each k from 0 up to LIMIT * STEPS
+    private static final float[] table = new float[(int)(LIMIT * STEPS)];
+    static {
+        for (int k = 0; k < table.length; k++) {
+            table[k] = (float)Math.exp( -(double)k / STEPS );
+        }
+    }
+
+    /** The decay factor e^(-gap), with a relative error of at most
+     *  {@code MAX_ERROR}
+     *  @param gap  the time since the voltage was last set
+     */
+    static float fast( float gap ) {
+        if (!(gap >= 0.0f) || (gap >= LIMIT)) return (float)Math.exp( -gap );
+        float x = gap * STEPS;
+        int k = (int)x;
+        float r = (x - k) * (1.0f / STEPS); // exactly gap - k/STEPS
+        // e^(-r) to third order, r < 1/STEPS
+        return table[k] * (1.0f - r * (1.0f - r * (0.5f - r * (1.0f / 6.0f))));
+    }
+
+    /** The relative error of {@code fast} at a gap
+     */
+    private static double error( float gap ) {
+        double exact = Math.exp( -(double)gap );
+        return Math.abs( fast( gap ) - exact ) / exact;
+    }
+
+    /** The largest relative error of {@code fast}, over every gap near
+     *  each table entry and many random gaps
+     */
+    private static double maxError() {
+        double max = 0.0;
+        for (int k = 0; k < table.length; k++) {
+            float g = (float)k / STEPS;
+            float h = (float)(k + 1) / STEPS;
+            for (int i = 0; i < 64; i++) {
+                max = Math.max( max, error( g ) );
+                max = Math.max( max, error( Math.nextDown( h ) ) );
+                g = Math.nextUp( g );
+                h = Math.nextDown( h );
+            }
+        }
+        Random r = new Random( 2820 );
+        for (int i = 0; i < 10000000; i++) {
+            max = Math.max( max, error( r.nextFloat() * LIMIT ) );
+        }
+        for (int i = 0; i < 1000000; i++) {
+            max = Math.max( max, error( r.nextFloat() * (1.0f / STEPS) ) );
+        }
+        return max;
+    }
+
+    /** Simulate a network, recording its spikes
+     *  @return the record, a temporary file
+     */
+    private static File spikes( File f, boolean packed, boolean fast )
+    throws IOException {
+        Simulation sim = new Simulation(
+            new PrintStream( OutputStream.nullOutputStream() ), System.err
+        );
+        sim.fastDecay = fast;
+        sim.read( f, false );
+        if (sim.errors.errCount > 0) throw new IOException( f + " has errors" );
+        if (packed) sim.pack( false );
+        File raster = File.createTempFile( "decay", ".spikes" );
+        raster.deleteOnExit();
+        sim.record( raster );
+        sim.run();
+        return raster;
+    }
+
+    /** Compare the spike trains of a network with exact and fast decay
+     */
+    private static void compare( File f, boolean packed ) throws IOException {
+        File exact = spikes( f, packed, false );
+        File fast = spikes( f, packed, true );
+        long same = 0;
+        float diverged = Float.NaN;     // time of the first spike that differs
+        double drift = 0.0;             // largest time difference before that
+        long exactCount;
+        long fastCount;
+        try (
+            SpikeRaster.Reader a = new SpikeRaster.Reader( exact );
+            SpikeRaster.Reader b = new SpikeRaster.Reader( fast )
+        ) {
+            exactCount = a.spikes();
+            fastCount = b.spikes();
+            while (a.next() && b.next()) {
+                if (a.neuron() != b.neuron()) {
+                    diverged = Math.min( a.time(), b.time() );
+                    break;
+                }
+                if (a.time() == b.time()) same++;
+                drift = Math.max( drift, Math.abs( a.time() - b.time() ) );
+            }
+        }
+        exact.delete();
+        fast.delete();
+        System.out.printf(
+            "%-24s %-7s %10d spikes exact %10d fast %10d identical, %s%n",
+            f.getName(), packed ? "packed" : "objects",
+            exactCount, fastCount, same,
+            Float.isNaN( diverged )
+                ? ("largest time difference " + drift)
+                : ("first differs at " + diverged)
+        );
+    }
+
+    /** Main program, see the class comment for the arguments
+     */
+    public static void main( String[] args ) throws IOException {
+        double max = maxError();
+        System.out.printf(
+            "largest relative error %.3g, bound %.3g%n", max, MAX_ERROR
+        );
+        List <File> files = new ArrayList <File> ();
+        for (String arg: args) files.add( new File( arg ) );
+        if (args.length == 0) {
+            for (String name: new String[] { "f", "g" }) {
+                if (new File( name ).isFile()) files.add( new File( name ) );
+            }
+        }
+        for (File f: files) {
+            compare( f, false );
+            compare( f, true );
+        }
+        if (max > MAX_ERROR) System.exit( 1 );
+    }
+}
@@ -0,0 +1,664 @@
+// DistributedSimulator.java
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Conservative simulation of a packed network by several processes
+ *  As {@link ParallelSimulator}, but each partition is simulated by a
+ *  worker process of its own, a JVM with its own heap and memory
+ *  bandwidth, on the same host.  This process, the coordinator, cuts
+ *  the network into partitions, see {@link partition}, and starts one
+ *  worker per partition, each reading the network itself, from the
+ *  compiled form the coordinator cached if it can.  The workers
+ *  connect back over a Unix-domain socket, or loopback TCP.
+ *  Each worker reads and packs the whole network, not only its
+ *  partition, so the work is divided but the memory is not: every
+ *  process holds the network once.  Workers are started with the
+ *  default heap of the JVM, or {@code -Xmx} set to the system property
+ *  {@code nn.worker.heap} of the coordinator, and with its
+ *  {@code nn.cache}; no other option of the coordinator's JVM is
+ *  passed on.
+ *  The workers advance in lock-step windows no longer than the
+ *  lookahead, the least delay of any synapse crossing partitions, as
+ *  in {@link ParallelSimulator}.  For each window the coordinator sends
+ *  each worker one frame, holding the window and the spikes other
+ *  partitions sent it; the worker handles its events in the window and
+ *  answers with one frame, holding the spikes it sends other partitions,
+ *  the fire counts of its neurons that fired, and the time of its next
+ *  event.  Frames are binary, big-endian:
+ *  <pre>
+ *  to a worker, at the start: int part, int parts, float lookahead,
+ *      int neurons, int synapses, int[neurons] partition of each neuron
+ *  to the coordinator, at the start and after each window:
+ *      int spikes; per spike: int partition, float time, int synapse
+ *      int fired; per neuron that fired: int neuron, int count
+ *      float time of its next event, infinity if none
+ *  to a worker, for each window: byte 1, float end, int kind,
+ *      int spikes; per spike: float time, int synapse
+ *  to a worker, at the end: byte 0
+ *  </pre>
+ *  Output events run in the coordinator between windows, once the fire
+ *  counts are added up, so the output is exactly that of the network
+ *  simulated in one process with an ordered heap, see
+ *  {@link Simulator#useOrderedHeap}.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see ParallelSimulator
+ *  @see NeuronNetwork
+ */
+class DistributedSimulator {
+    private static final int MAGIC = 0x4e4e4431; // "NND1"
+
+    private final Simulation sim;
+    private final PackedNetwork net;
+    private final int parts;
+    private final int[] neuronPart;
+    private final float lookahead;
+
+    /** Prepare to simulate a packed network in several processes
+     *  A network with plasticity or stimulus files is a fatal error.
+     *  @param sim  the simulation, with its network packed without
+     *  batching and its simulator keeping an ordered heap
+     *  @param parts  the number of partitions and worker processes; if
+     *  some synapse crossing partitions has no delay, there is no
+     *  lookahead and one worker is used.
+     */
+    DistributedSimulator( Simulation sim, int parts ) {
+        this.sim = sim;
+        this.net = sim.network.packed;
+        if (net.plasticity != null) {
+            sim.errors.fatal( "plasticity cannot be simulated by several processes" );
+        }
+        if (!sim.stimuli.isEmpty()) {
+            sim.errors.fatal( "stimulus files cannot be simulated by several processes" );
+        }
+        int neurons = net.voltage.length;
+        parts = Math.max( 1, Math.min( parts, neurons ) );
+        int[] part = partition( net, parts );
+        float least = lookahead( net, part );
+        if ((parts == 1) || !(least > 0.0f)) {
+            // no lookahead, so no parallelism; or none needed
+            parts = 1;
+            Arrays.fill( part, 0 );
+            least = Float.POSITIVE_INFINITY;
+        }
+        this.parts = parts;
+        this.neuronPart = part;
+        this.lookahead = least;
+    }
+
+    /* really private, the partition whose state each synapse changes,
+     * as in ParallelSimulator: that of the destination of a primary
+     * synapse, or of the primary synapse a secondary synapse changes */
+    private static int[] owners( PackedNetwork net, int[] part ) {
+        int[] owner = new int[net.target.length];
+        for (int n = 0; n < part.length; n++) {
+            for (int e = net.first[n]; e < net.first[n + 1]; e++) {
+                int t = destination( net, e );
+                owner[e] = (t >= 0) ? part[t] : part[n];
+            }
+        }
+        return owner;
+    }
+
+    /* really private, the neuron whose state synapse e changes, or -1 */
+    private static int destination( PackedNetwork net, int e ) {
+        int t = net.target[e];
+        if ((t >= 0) && (net.kind[e] == PackedNetwork.SECONDARY)) {
+            t = net.target[t]; // the primary's destination
+        }
+        return t;
+    }
+
+    /* really private, the least delay of a synapse crossing partitions */
+    private static float lookahead( PackedNetwork net, int[] part ) {
+        int[] owner = owners( net, part );
+        float least = Float.POSITIVE_INFINITY;
+        for (int n = 0; n < part.length; n++) {
+            for (int e = net.first[n]; e < net.first[n + 1]; e++) {
+                if (owner[e] != part[n]) least = Math.min( least, net.delay[e] );
+            }
+        }
+        return least;
+    }
+
+    /** Cut a network into partitions with few synapses between them
+     *  Starting from runs of consecutive neuron numbers, each neuron is
+     *  moved, pass after pass, to the partition it has the most synapses
+     *  to or from, so long as no partition grows past its share by more
+     *  than a twentieth; a synapse without delay counts for many, since
+     *  cutting one leaves no lookahead.  Passes stop once none moves.
+     *  @return the partition of each neuron
+     */
+    static int[] partition( PackedNetwork net, int parts ) {
+        int neurons = net.voltage.length;
+        int[] part = new int[neurons];
+        int[] size = new int[parts];
+        for (int n = 0; n < neurons; n++) {
+            part[n] = (int)((long)n * parts / neurons);
+            size[part[n]]++;
+        }
+        if (parts == 1) return part;
+
+        // synapses as undirected edges, in rows by neuron
+        int[] degree = new int[neurons + 1];
+        for (int n = 0; n < neurons; n++) {
+            for (int e = net.first[n]; e < net.first[n + 1]; e++) {
+                int t = destination( net, e );
+                if ((t < 0) || (t == n)) continue;
+                degree[n + 1]++;
+                degree[t + 1]++;
+            }
+        }
+        for (int n = 0; n < neurons; n++) degree[n + 1] += degree[n];
+        int[] fill = Arrays.copyOf( degree, neurons );
+        int[] other = new int[degree[neurons]];
+        int[] weight = new int[degree[neurons]];
+        for (int n = 0; n < neurons; n++) {
+            for (int e = net.first[n]; e < net.first[n + 1]; e++) {
+                int t = destination( net, e );
+                if ((t < 0) || (t == n)) continue;
+                int w = (net.delay[e] > 0.0f) ? 1 : 1 << 16;
+                other[fill[n]] = t;
+                weight[fill[n]++] = w;
+                other[fill[t]] = n;
+                weight[fill[t]++] = w;
+            }
+        }
+
+        int limit = (int)Math.ceil( neurons * 1.05 / parts );
+        long[] links = new long[parts]; // weight to each partition
+        int[] touched = new int[parts];
+        for (int pass = 0; pass < 16; pass++) {
+            int moved = 0;
+            for (int n = 0; n < neurons; n++) {
+                int count = 0;
+                for (int i = degree[n]; i < degree[n + 1]; i++) {
+                    int p = part[other[i]];
+                    if (links[p] == 0) touched[count++] = p;
+                    links[p] += weight[i];
+                }
+                int here = part[n];
+                int best = here;
+                for (int i = 0; i < count; i++) {
+                    int p = touched[i];
+                    if ((links[p] > links[best]) && (size[p] < limit)) best = p;
+                }
+                for (int i = 0; i < count; i++) links[touched[i]] = 0;
+                if (best != here) {
+                    size[here]--;
+                    size[best]++;
+                    part[n] = best;
+                    moved++;
+                }
+            }
+            if (moved == 0) break;
+        }
+        return part;
+    }
+
+    /** Spikes in transit, or fire counts, in growable arrays
+     */
+    private static class Batch {
+        int[] ints = new int[64];
+        float[] times = new float[64];
+        int count = 0;
+
+        void add( float time, int i ) {
+            if (count == ints.length) {
+                ints = Arrays.copyOf( ints, count * 2 );
+                times = Arrays.copyOf( times, count * 2 );
+            }
+            times[count] = time;
+            ints[count] = i;
+            count++;
+        }
+    }
+
+    /** One worker process, as the coordinator sees it
+     */
+    private static class Peer {
+        Process process;
+        SocketChannel channel;
+        DataInputStream in;
+        DataOutputStream out;
+        float next;                     // time of its next event
+        final Batch inbox = new Batch(); // spikes for it, next window
+    }
+
+    /** Start the workers and run the simulation to its end
+     *  It ends when no events remain or when output ends the simulation.
+     *  @param workerArgs  the options and file name each worker reads
+     *  the network with, see {@link main}
+     *  @param tcp  if true, workers connect over loopback TCP, else
+     *  over a Unix-domain socket
+     *  @throws IOException if a worker cannot be started or fails
+     */
+    void run( List <String> workerArgs, boolean tcp ) throws IOException {
+        Simulator simulator = sim.simulator;
+        simulator.clear();
+        sim.output.startAll();
+
+        Path dir = tcp ? null : Files.createTempDirectory( "neuron-network" );
+        SocketAddress at = tcp
+            ? new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 )
+            : UnixDomainSocketAddress.of( dir.resolve( "socket" ) );
+        Peer[] peers = new Peer[parts];
+        boolean finished = false;
+        try (ServerSocketChannel server = ServerSocketChannel.open(
+            tcp ? StandardProtocolFamily.INET : StandardProtocolFamily.UNIX
+        )) {
+            server.bind( at );
+            String address = tcp
+                ? Integer.toString(
+                    ((InetSocketAddress)server.getLocalAddress()).getPort()
+                )
+                : dir.resolve( "socket" ).toString();
+            for (int p = 0; p < parts; p++) {
+                peers[p] = new Peer();
+                peers[p].process = launch( address, workerArgs );
+            }
+            server.configureBlocking( false );
+            for (int p = 0; p < parts; p++) {
+                SocketChannel c = accept( server, peers );
+                if (tcp) c.setOption( StandardSocketOptions.TCP_NODELAY, true );
+                DataInputStream in = input( c );
+                DataOutputStream out = output( c );
+                if (in.readInt() != MAGIC) throw new IOException( "not a worker" );
+                Peer peer = peers[p];
+                peer.channel = c;
+                peer.in = in;
+                peer.out = out;
+                out.writeInt( p );
+                out.writeInt( parts );
+                out.writeFloat( lookahead );
+                out.writeInt( net.voltage.length );
+                out.writeInt( net.target.length );
+                for (int part: neuronPart) out.writeInt( part );
+                out.flush();
+            }
+            for (Peer peer: peers) receive( peer, peers );
+            coordinate( peers );
+            finished = true;
+        } catch (EOFException e) {
+            throw new IOException( "a worker ended early" );
+        } finally {
+            for (Peer peer: peers) {
+                if (peer == null) continue;
+                if (peer.channel != null) peer.channel.close();
+                if (!finished) peer.process.destroy();
+                try {
+                    peer.process.waitFor();
+                } catch (InterruptedException e) {
+                    peer.process.destroy();
+                }
+            }
+            if (dir != null) {
+                Files.deleteIfExists( dir.resolve( "socket" ) );
+                Files.deleteIfExists( dir );
+            }
+        }
+    }
+
+    /* really private, start a worker process; of the options of this
+     * JVM it gets only the cache directory, since agents, debuggers,
+     * JMX ports and flight recordings would clash or be repeated, and
+     * a heap set for the coordinator is no guide to a worker's */
+    private static Process launch( String address, List <String> workerArgs )
+    throws IOException {
+        List <String> command = new ArrayList <String> ();
+        command.add( new File(
+            new File( System.getProperty( "java.home" ), "bin" ), "java"
+        ).getPath() );
+        String cache = System.getProperty( "nn.cache" );
+        if (cache != null) command.add( "-Dnn.cache=" + cache );
+        String heap = System.getProperty( "nn.worker.heap" );
+        if (heap != null) command.add( "-Xmx" + heap );
+        command.add( "-cp" );
+        command.add( System.getProperty( "java.class.path" ) );
+        command.add( "DistributedSimulator" );
+        command.add( address );
+        command.addAll( workerArgs );
+        return new ProcessBuilder( command ).inheritIO().start();
+    }
+
+    /* really private, the next worker to connect, unless one has
+     * ended without connecting */
+    private static SocketChannel accept( ServerSocketChannel server, Peer[] peers )
+    throws IOException {
+        for (;;) {
+            SocketChannel c = server.accept();
+            if (c != null) {
+                c.configureBlocking( true );
+                return c;
+            }
+            for (Peer peer: peers) {
+                if ((peer.channel == null) && !peer.process.isAlive()) {
+                    throw new IOException( "a worker ended before connecting" );
+                }
+            }
+            try {
+                Thread.sleep( 10 );
+            } catch (InterruptedException e) {
+                throw new IOException( "interrupted" );
+            }
+        }
+    }
+
+    /* really private, buffered streams on a channel */
+    private static DataInputStream input( SocketChannel c ) {
+        return new DataInputStream(
+            new BufferedInputStream( Channels.newInputStream( c ), 1 << 16 )
+        );
+    }
+
+    private static DataOutputStream output( SocketChannel c ) {
+        return new DataOutputStream(
+            new BufferedOutputStream( Channels.newOutputStream( c ), 1 << 16 )
+        );
+    }
+
+    /* really private, take a frame from a worker: route its spikes,
+     * add up its fire counts, note its next event */
+    private void receive( Peer peer, Peer[] peers ) throws IOException {
+        DataInputStream in = peer.in;
+        for (int i = in.readInt(); i > 0; i--) {
+            int p = in.readInt();
+            float time = in.readFloat();
+            peers[p].inbox.add( time, in.readInt() );
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            int n = in.readInt();
+            int count = in.readInt();
+            if (net.fireCount[n] == 0) sim.output.fired( n );
+            net.fireCount[n] += count;
+        }
+        peer.next = in.readFloat();
+    }
+
+    /* really private, choose windows and run output between them, as
+     * the barrier action of ParallelSimulator does */
+    private void coordinate( Peer[] peers ) throws IOException {
+        Simulator simulator = sim.simulator;
+        for (;;) {
+            float earliest = Float.POSITIVE_INFINITY;
+            for (Peer peer: peers) {
+                earliest = Math.min( earliest, peer.next );
+                Batch b = peer.inbox;
+                for (int i = 0; i < b.count; i++) {
+                    earliest = Math.min( earliest, b.times[i] );
+                }
+            }
+            float output = simulator.nextTime();
+            if ((earliest == Float.POSITIVE_INFINITY)
+            &&  (output == Float.POSITIVE_INFINITY)) break;
+            float windowEnd = earliest + lookahead;
+            int windowKind = Simulator.FIRE; // events at windowEnd wait
+            boolean outputDue = false;
+            if (output < windowEnd) {
+                // not equal, a spike sent now may arrive at windowEnd
+                windowEnd = output;
+                windowKind = simulator.nextKind();
+                outputDue = true;
+            }
+
+            for (Peer peer: peers) {
+                DataOutputStream out = peer.out;
+                Batch b = peer.inbox;
+                out.writeByte( 1 );
+                out.writeFloat( windowEnd );
+                out.writeInt( windowKind );
+                out.writeInt( b.count );
+                for (int i = 0; i < b.count; i++) {
+                    out.writeFloat( b.times[i] );
+                    out.writeInt( b.ints[i] );
+                }
+                b.count = 0;
+                out.flush();
+            }
+            for (Peer peer: peers) receive( peer, peers );
+
+            while (outputDue
+            &&     !simulator.isStopped()
+            &&     (simulator.nextTime() == windowEnd)
+            &&     (simulator.nextKind() == windowKind)) {
+                simulator.runNext();
+            }
+            if (simulator.isStopped()) break;
+        }
+        for (Peer peer: peers) {
+            peer.out.writeByte( 0 );
+            peer.out.flush();
+        }
+    }
+
+    /** One partition, simulated in a worker process
+     */
+    private static class Worker {
+        final PackedNetwork net;
+        final boolean fastDecay;
+        final int part;
+        final int[] owner;
+        final EventHeap queue = new EventHeap( 4, true );
+        final Batch[] outbox;               // by destination partition
+        final Batch fired = new Batch();    // neurons that fired
+        float windowEnd;
+        int windowKind;
+
+        Worker( Simulation sim, int part, int parts, int[] neuronPart ) {
+            this.net = sim.network.packed;
+            this.fastDecay = sim.fastDecay;
+            this.part = part;
+            owner = owners( net, neuronPart );
+            outbox = new Batch[parts];
+            for (int p = 0; p < parts; p++) outbox[p] = new Batch();
+            for (int n = 0; n < neuronPart.length; n++) {
+                if ((neuronPart[n] == part) && (net.voltage[n] > net.threshold[n])) {
+                    queue.add( 0.0f, ((long)Simulator.FIRE << 56) | n );
+                }
+            }
+        }
+
+        /** Handle this partition's events in the current window, as in
+         *  {@link ParallelSimulator}
+         */
+        void simulate() {
+            while (!queue.isEmpty()) {
+                float t = queue.firstTime();
+                long item = queue.firstItem();
+                int kind = (int)(item >>> 56);
+                if ((t > windowEnd)
+                || ((t == windowEnd) && (kind >= windowKind))) return;
+                queue.removeFirst();
+                if (kind == Simulator.FIRE) {
+                    fire( (int)item, t );
+                } else {
+                    deliver( (int)item, t );
+                }
+            }
+        }
+
+        /** Synapse s delivers a spike, as in {@link PackedNetwork#deliver}
+         */
+        void deliver( int s, float time ) {
+            int t = net.target[s];
+            if (t < 0) return;
+            if (net.kind[s] == PackedNetwork.PRIMARY) {
+                FlightEvents.delivery( t, false, net.strength[s], time );
+                kick( t, time, net.strength[s] );
+            } else {
+                FlightEvents.delivery(
+                    net.target[t], true, net.strength[s], time
+                );
+                net.strength[t] += net.strength[s];
+            }
+        }
+
+        /** Neuron n is kicked, as in {@link PackedNetwork#kick}
+         */
+        void kick( int n, float time, float strength ) {
+            float v1 = net.voltage[n];
+            // v2 = v1 e^(t1-t2) + s
+            float decay = fastDecay
+                ? Decay.fast( time - net.time[n] )
+                : (float)Math.exp( net.time[n] - time );
+            net.voltage[n] = (v1 * decay) + strength;
+            net.time[n] = time;
+            if (net.voltage[n] > net.threshold[n]) fire( n, time );
+        }
+
+        /** Neuron n fires, as in {@link PackedNetwork#fire}
+         */
+        void fire( int n, float time ) {
+            net.fireCount[n] = net.fireCount[n] + 1;
+            if (net.fireCount[n] == 1) fired.add( time, n );
+            net.voltage[n] = 0.0f;
+            FlightEvents.fire( n, time );
+            for (int e = net.first[n]; e < net.first[n + 1]; e++) {
+                if (owner[e] == part) {
+                    queue.add(
+                        time + net.delay[e], ((long)Simulator.DELIVER << 56) | e
+                    );
+                } else {
+                    outbox[owner[e]].add( time + net.delay[e], e );
+                }
+            }
+        }
+
+        /** Send the coordinator the spikes for other partitions, the
+         *  counts of the neurons that fired, and the next event time
+         */
+        void report( DataOutputStream out ) throws IOException {
+            int spikes = 0;
+            for (Batch b: outbox) spikes += b.count;
+            out.writeInt( spikes );
+            for (int p = 0; p < outbox.length; p++) {
+                Batch b = outbox[p];
+                for (int i = 0; i < b.count; i++) {
+                    out.writeInt( p );
+                    out.writeFloat( b.times[i] );
+                    out.writeInt( b.ints[i] );
+                }
+                b.count = 0;
+            }
+            out.writeInt( fired.count );
+            for (int i = 0; i < fired.count; i++) {
+                int n = fired.ints[i];
+                out.writeInt( n );
+                out.writeInt( net.fireCount[n] );
+                net.fireCount[n] = 0;
+            }
+            fired.count = 0;
+            out.writeFloat( queue.isEmpty() ? Float.POSITIVE_INFINITY : queue.firstTime() );
+            out.flush();
+        }
+    }
+
+    /** A worker process, started by the coordinator
+     *  Usage: {@code java DistributedSimulator address [options] file},
+     *  with the address the coordinator listens on, a port number for
+     *  loopback TCP or else the path of a Unix-domain socket, and
+     *  {@code -nocache} or {@code -decay=fast} as given the coordinator.
+     *  The network is read and packed as the coordinator did, straight
+     *  from its compiled form if that is cached.
+     */
+    public static void main( String[] args ) {
+        Simulation sim = new Simulation(
+            new PrintStream( OutputStream.nullOutputStream() ), System.err
+        );
+        try {
+            work( sim, args );
+        } catch (Errors.Fatal e) {
+            System.exit( 1 );
+        } catch (EOFException e) {
+            System.exit( 1 ); // the coordinator ended, and says why
+        } catch (IOException e) {
+            System.err.println( "worker -- " + e.getMessage() );
+            System.exit( 1 );
+        }
+    }
+
+    /* really private, the work of a worker process */
+    private static void work( Simulation sim, String[] args ) throws IOException {
+        String address = args[0];
+        boolean useCache = true;
+        String fileName = null;
+        for (int i = 1; i < args.length; i++) {
+            if ("-nocache".equals( args[i] )) {
+                useCache = false;
+            } else if ("-decay=fast".equals( args[i] )) {
+                sim.fastDecay = true;
+            } else {
+                fileName = args[i];
+            }
+        }
+        try {
+            sim.readPacked( new File( fileName ), useCache, false );
+        } catch (FileNotFoundException e) {
+            sim.errors.fatal( "file not found: " + fileName );
+        }
+        if (sim.errors.errCount > 0) sim.errors.fatal( "worker cannot read " + fileName );
+        if (sim.network.packed == null) {
+            sim.network.packed = new PackedNetwork( sim, false );
+        }
+
+        boolean tcp = address.matches( "[0-9]+" );
+        try (SocketChannel c = SocketChannel.open(
+            tcp
+                ? new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), Integer.parseInt( address )
+                )
+                : UnixDomainSocketAddress.of( address )
+        )) {
+            if (tcp) c.setOption( StandardSocketOptions.TCP_NODELAY, true );
+            DataInputStream in = input( c );
+            DataOutputStream out = output( c );
+            out.writeInt( MAGIC );
+            out.flush();
+            int part = in.readInt();
+            int parts = in.readInt();
+            in.readFloat(); // the lookahead, kept by the coordinator
+            PackedNetwork net = sim.network.packed;
+            if ((in.readInt() != net.voltage.length)
+            ||  (in.readInt() != net.target.length)) {
+                sim.errors.fatal( "worker read another network" );
+            }
+            int[] neuronPart = new int[net.voltage.length];
+            for (int n = 0; n < neuronPart.length; n++) neuronPart[n] = in.readInt();
+            Worker w = new Worker( sim, part, parts, neuronPart );
+            w.report( out );
+            while (in.readByte() != 0) {
+                w.windowEnd = in.readFloat();
+                w.windowKind = in.readInt();
+                for (int i = in.readInt(); i > 0; i--) {
+                    float time = in.readFloat();
+                    w.queue.add( time, ((long)Simulator.DELIVER << 56) | in.readInt() );
+                }
+                w.simulate();
+                w.report( out );
+            }
+        }
+    }
+}
@@ -1,4 +1,7 @@
 // Errors.java
+
+import java.io.PrintStream;
+
 /** Error reporting methods.
  *  @author: Douglas W. Jones
  *  @author: Andy W.M. Arthur
@@ -8,17 +11,45 @@
  *  This code is extracted from the April 6, 2016 version of NeuronNetwork.java,
  *  which, in turn was based on the non-alternative solution to MP3,
  *  as well as a simulation framework from the March 11 lecture notes.
+ *
+ *  Each {@link Simulation} collects its own errors, so that simulations
+ *  running side by side do not count each other's.  A fatal error
+ *  ends only the simulation it happens in, by throwing {@link Fatal};
+ *  the main program turns that into the exit status.
  */
-
 class Errors {
-    public static int errCount = 0;
-    public static void fatal( String message ) {
+
+    /** Thrown by {@code fatal}, after the message is reported
+     */
+    public static class Fatal extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Fatal( String message ) {
+            super( message );
+        }
+    }
+
+    public int errCount = 0;
+    private final PrintStream err; // where messages go
+
+    Errors( PrintStream err ) {
+        this.err = err;
+    }
+
+    /** @return errors reported where these are, but counted apart, for
+     *  input whose bad parts are skipped without spoiling the rest
+     */
+    Errors apart() {
+        return new Errors( err );
+    }
+
+    public void fatal( String message ) {
         errCount++;
-        System.err.println( "Fatal error: " + message );
-        System.exit( 1 );
+        err.println( "Fatal error: " + message );
+        throw new Fatal( message );
     }
-    public static void warning( String message ) {
+    public void warning( String message ) {
         errCount++;
-        System.err.println( "Error: " + message );
+        err.println( "Error: " + message );
     }
 }
@@ -0,0 +1,137 @@
+// EventHeap.java
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Pending events in a d-ary heap over primitive arrays
+ *  Times are kept in one array and items in another, so adding and
+ *  removing events allocates nothing once the arrays are big enough.
+ *  The sift rules are those of {@link java.util.PriorityQueue}: equal
+ *  times do not pass each other going up, and an item sinking goes
+ *  toward the first of its smallest children.  So with 2 children per
+ *  node, events at equal times come out in the same order as from a
+ *  {@code PriorityQueue} given the same events; with more they may not.
+ *  An ordered heap instead breaks ties by item, that is by kind and
+ *  then target, so the order does not depend on the order events were
+ *  added; equal items at equal times are the same event, and which of
+ *  them comes first makes no difference.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see EventQueue
+ */
+class EventHeap extends EventQueue {
+    private final int arity;    // children per heap node
+    private final boolean ordered; // are ties broken by item
+    private float[] times = new float[1024];
+    private long[] items = new long[1024];
+    private int size = 0;
+
+    /** @param d, the number of children of each heap node
+     */
+    EventHeap( int d ) {
+        this( d, false );
+    }
+
+    /** @param d, the number of children of each heap node
+     *  @param ordered, if true, events at equal times come out in order
+     *  of their items
+     */
+    EventHeap( int d, boolean ordered ) {
+        arity = d;
+        this.ordered = ordered;
+    }
+
+    /* really private, does (t1, i1) come before (t2, i2) */
+    private boolean before( float t1, long i1, float t2, long i2 ) {
+        return (t1 < t2) || (ordered && (t1 == t2) && (i1 < i2));
+    }
+
+    void add( float t, long item ) {
+        if (size == times.length) {
+            times = Arrays.copyOf( times, size * 2 );
+            items = Arrays.copyOf( items, size * 2 );
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) / arity;
+            if (!before( t, item, times[parent], items[parent] )) break;
+            times[i] = times[parent];
+            items[i] = items[parent];
+            i = parent;
+        }
+        times[i] = t;
+        items[i] = item;
+    }
+
+    int size() {
+        return size;
+    }
+
+    float firstTime() {
+        return times[0];
+    }
+
+    long firstItem() {
+        return items[0];
+    }
+
+    void removeFirst() {
+        int n = --size;
+        float t = times[n];
+        long item = items[n];
+        int i = 0;
+        for (;;) {
+            int child = i * arity + 1;
+            if (child >= n) break;
+            int end = Math.min( child + arity, n );
+            int least = child;
+            float lt = times[child];
+            long li = items[child];
+            for (int c = child + 1; c < end; c++) {
+                if (before( times[c], items[c], lt, li )) {
+                    least = c;
+                    lt = times[c];
+                    li = items[c];
+                }
+            }
+            if (!before( lt, li, t, item )) break;
+            times[i] = lt;
+            items[i] = li;
+            i = least;
+        }
+        times[i] = t;
+        items[i] = item;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void write( DataOutputStream out ) throws IOException {
+        out.writeInt( arity );
+        out.writeBoolean( ordered );
+        out.writeInt( size );
+        for (int i = 0; i < size; i++) {
+            out.writeFloat( times[i] );
+            out.writeLong( items[i] );
+        }
+    }
+
+    void read( DataInputStream in ) throws IOException {
+        if ((in.readInt() != arity) || (in.readBoolean() != ordered)) {
+            throw new IOException( "saved from another kind of heap" );
+        }
+        int n = in.readInt();
+        if (n > times.length) {
+            times = new float[n];
+            items = new long[n];
+        }
+        for (int i = 0; i < n; i++) { // already in heap order
+            times[i] = in.readFloat();
+            items[i] = in.readLong();
+        }
+        size = n;
+    }
+}
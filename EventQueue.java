@@ -0,0 +1,62 @@
+// EventQueue.java
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/** Pending events kept as primitive (time, item) pairs
+ *  The item packs what {@link Simulator} needs to dispatch the event,
+ *  its kind and its target.  Implementations give the earliest event
+ *  first; what they do with events at equal times is up to each.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see Simulator
+ *  @see EventHeap
+ *  @see TimingWheel
+ */
+abstract class EventQueue {
+
+    /** Add an event
+     *  @param time, when it happens
+     *  @param item, its kind and target, as packed by {@link Simulator}
+     */
+    abstract void add( float time, long item );
+
+    /** @return the number of pending events
+     */
+    abstract int size();
+
+    /** @return true if no events are pending
+     */
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** @return the time of the earliest event; only if not empty
+     */
+    abstract float firstTime();
+
+    /** @return the item of the earliest event; only if not empty
+     */
+    abstract long firstItem();
+
+    /** Remove the earliest event; only if not empty
+     */
+    abstract void removeFirst();
+
+    /** Discard all pending events
+     */
+    abstract void clear();
+
+    /** Save the pending events exactly as they are kept, for a checkpoint
+     *  Reading them back into a queue made the same way leaves it in
+     *  the same state, so ties come out in the same order after.
+     *  @see Checkpoint
+     */
+    abstract void write( DataOutputStream out ) throws IOException;
+
+    /** Replace the pending events with those saved by {@code write}
+     *  @throws IOException if they were saved by another kind of queue
+     */
+    abstract void read( DataInputStream in ) throws IOException;
+}
@@ -0,0 +1,242 @@
+// MappedNetwork.java
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** A network simulated straight from its mapped topology
+ *  The synapses stay in the file of a {@link MappedTopology}, shared by
+ *  every process simulating it, and a spike fans out by walking its row
+ *  of the mapped columns; nothing about them is copied to the heap.
+ *  What a simulation changes is kept here, in this process only: the
+ *  voltage, time and fire count of each neuron, and the strength of
+ *  each primary synapse that secondary synapses change.
+ *  As rows are sorted by delay, fan-out is batched, as in a batched
+ *  {@link PackedNetwork}: a firing schedules one spike cursor, which
+ *  delivers all synapses with one delay in one pass and then goes back
+ *  in the queue at the next; so a mapped network is simulated exactly
+ *  as it is with {@code -batch}.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see MappedTopology
+ *  @see PackedNetwork
+ */
+class MappedNetwork {
+    private final Simulation sim; // the simulation this network is in
+    final MappedTopology topology;
+
+    // neuron state, indexed by neuron number
+    private final float[] voltage;
+    private final float[] time;
+    private final int[] fireCount;
+
+    // strengths of the synapses secondaries change, by place in their list
+    private final float[] strength;
+
+    // spikes in progress, indexed by cursor number
+    private long[] cursorEdge = new long[256];  // next synapse to deliver
+    private long[] cursorEnd = new long[256];   // end of its row
+    private float[] cursorTime = new float[256]; // when the neuron fired
+    private int[] freeCursors = new int[256];
+    private int free = 0;
+    private int cursors = 0;    // cursor numbers ever used
+
+    /** A fresh simulation of a mapped topology
+     *  @param sim  the simulation, its neurons declared as in the topology
+     *  @param topology  the topology
+     */
+    MappedNetwork( Simulation sim, MappedTopology topology ) {
+        this.sim = sim;
+        this.topology = topology;
+        int n = topology.neurons;
+        voltage = new float[n];
+        time = new float[n];
+        fireCount = new int[n];
+        for (int i = 0; i < n; i++) voltage[i] = topology.voltage( i );
+        strength = new float[topology.changing];
+        for (int i = 0; i < strength.length; i++) {
+            strength[i] = topology.strength( topology.changed( i ) );
+        }
+    }
+
+    /** Start the simulation over on this network, as
+     *  {@link PackedNetwork#start} does
+     */
+    void start() {
+        Simulator simulator = sim.simulator;
+        SimulationOutput output = sim.output;
+        simulator.clear();
+        int o = 0;
+        int[] after = new int[output.declaredAfter.size()];
+        for (int a: output.declaredAfter) after[o++] = a;
+        o = 0;
+        for (int n = 0; n < voltage.length; n++) {
+            while ((o < after.length) && (after[o] == n)) {
+                output.start();
+                o++;
+            }
+            //  if voltage exceeds threshold (non-inclusive) the neuron fires
+            if (voltage[n] > topology.threshold( n )) {
+                simulator.schedule( 0.0f, Simulator.FIRE, n );
+            }
+        }
+        for (; o < after.length; o++) output.start();
+        for (Stimulus s: sim.stimuli) s.start();
+    }
+
+    // simulation methods
+
+    /** Neuron n fires, as in {@link PackedNetwork#fire}
+     */
+    void fire( int n, float time ) {
+        fireCount[n] = fireCount[n] + 1;
+        if (fireCount[n] == 1) sim.output.fired( n );
+        voltage[n] = 0.0f;
+        if (sim.raster != null) sim.raster.record( n, time );
+        if (SimulationMetrics.ENABLED) sim.simulator.probe.spike( n );
+        FlightEvents.fire( n, time );
+        long first = topology.first( n );
+        long end = topology.first( n + 1 );
+        if (first < end) {
+            int c = newCursor();
+            cursorEdge[c] = first;
+            cursorEnd[c] = end;
+            cursorTime[c] = time;
+            sim.simulator.schedule(
+                time + topology.delay( first ), Simulator.SPIKE, c
+            );
+        }
+    }
+
+    /** Spike cursor c reaches its next delay, as in
+     *  {@link PackedNetwork#propagate}
+     */
+    void propagate( int c, float time ) {
+        long e = cursorEdge[c];
+        long end = cursorEnd[c];
+        float d = topology.delay( e );
+        do {
+            deliver( e, time );
+            e++;
+        } while ((e < end) && (topology.delay( e ) == d));
+        if (e < end) {
+            cursorEdge[c] = e;
+            sim.simulator.schedule(
+                cursorTime[c] + topology.delay( e ), Simulator.SPIKE, c
+            );
+        } else {
+            freeCursors[free++] = c;
+        }
+    }
+
+    /** Get an unused cursor number, recycling those of finished spikes
+     */
+    private int newCursor() {
+        if (free > 0) return freeCursors[--free];
+        if (cursors == cursorEdge.length) {
+            int size = cursors * 2;
+            cursorEdge = Arrays.copyOf( cursorEdge, size );
+            cursorEnd = Arrays.copyOf( cursorEnd, size );
+            cursorTime = Arrays.copyOf( cursorTime, size );
+            freeCursors = Arrays.copyOf( freeCursors, size );
+        }
+        return cursors++;
+    }
+
+    /** Neuron n is kicked, as in {@link PackedNetwork#kick}
+     */
+    void kick( int n, float time, float strength ) {
+        float v1 = voltage[n];
+        // v2 = v1 e^(t1-t2) + s
+        float decay = sim.fastDecay
+            ? Decay.fast( time - this.time[n] )
+            : (float)Math.exp( this.time[n] - time );
+        voltage[n] = (v1 * decay) + strength;
+        this.time[n] = time;
+        if (voltage[n] > topology.threshold( n )) this.fire( n, time );
+    }
+
+    /** Synapse e delivers a spike, as in {@link PackedNetwork#deliver}
+     */
+    private void deliver( long e, float time ) {
+        int t = topology.target( e );
+        if (t < 0) return;
+        byte kind = topology.kind( e );
+        if (kind == MappedTopology.PRIMARY) {
+            float s = topology.strength( e );
+            FlightEvents.delivery( t, false, s, time );
+            kick( t, time, s );
+        } else if (kind == MappedTopology.CHANGING) {
+            float s = strength[topology.changing( e )];
+            FlightEvents.delivery( t, false, s, time );
+            kick( t, time, s );
+        } else {
+            float s = topology.strength( e );
+            if (FlightEvents.deliveries()) { // the target takes two reads
+                FlightEvents.delivery(
+                    topology.target( topology.changed( t ) ), true, s, time
+                );
+            }
+            strength[t] += s;
+        }
+    }
+
+    /** Get the current count of neuron n and reset the count
+     */
+    int getCount( int n ) {
+        int r = fireCount[n];
+        fireCount[n] = 0;
+        return r;
+    }
+
+    /** Save the state the simulation changes, for a checkpoint
+     *  That is the neuron state, the strengths secondary synapses change
+     *  and the spike cursors in progress.
+     */
+    void write( DataOutputStream out ) throws IOException {
+        for (int n = 0; n < voltage.length; n++) {
+            out.writeFloat( voltage[n] );
+            out.writeFloat( time[n] );
+            out.writeInt( fireCount[n] );
+        }
+        out.writeInt( strength.length );
+        for (float s: strength) out.writeFloat( s );
+        out.writeInt( cursors );
+        for (int c = 0; c < cursors; c++) {
+            out.writeLong( cursorEdge[c] );
+            out.writeLong( cursorEnd[c] );
+            out.writeFloat( cursorTime[c] );
+        }
+        out.writeInt( free );
+        for (int i = 0; i < free; i++) out.writeInt( freeCursors[i] );
+    }
+
+    /** Restore the state saved by {@code write}
+     */
+    void read( DataInputStream in ) throws IOException {
+        for (int n = 0; n < voltage.length; n++) {
+            voltage[n] = in.readFloat();
+            time[n] = in.readFloat();
+            fireCount[n] = in.readInt();
+            if (fireCount[n] != 0) sim.output.fired( n );
+        }
+        if (in.readInt() != strength.length) {
+            throw new IOException( "saved from another topology" );
+        }
+        for (int i = 0; i < strength.length; i++) strength[i] = in.readFloat();
+        cursors = in.readInt();
+        int size = Math.max( 256, cursors );
+        cursorEdge = new long[size];
+        cursorEnd = new long[size];
+        cursorTime = new float[size];
+        freeCursors = new int[size];
+        for (int c = 0; c < cursors; c++) {
+            cursorEdge[c] = in.readLong();
+            cursorEnd[c] = in.readLong();
+            cursorTime[c] = in.readFloat();
+        }
+        free = in.readInt();
+        for (int i = 0; i < free; i++) freeCursors[i] = in.readInt();
+    }
+}
@@ -0,0 +1,751 @@
+// MappedTopology.java
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** The topology of a network in a file, mapped into memory read-only
+ *  The file holds what never changes as the network is simulated: the
+ *  names and parameters of the neurons, the output and stimulus
+ *  declarations, and the outgoing synapses in rows by source neuron,
+ *  sorted by delay as in a batched {@link PackedNetwork}.  Synapses are
+ *  numbered with {@code long}s and each column of them is mapped in
+ *  pieces of at most {@code CHUNK} bytes, so a network may have more
+ *  synapses than a Java array can hold, and none of them is on the heap.
+ *  The file is made by {@code make} straight from the text, written into
+ *  its mapped columns, so the synapses are not on the heap then either;
+ *  only the names of the neurons and of the synapses that have names
+ *  are.
+ *  Being mapped read-only, the file is shared through the page cache by
+ *  every process on the host that simulates the same network; what a
+ *  simulation changes is kept apart, see {@link MappedNetwork}.
+ *  The primary synapses that secondary synapses change are listed, in
+ *  order of number; the target of a secondary synapse is its place in
+ *  that list, and the kind of each listed primary synapse is
+ *  {@code CHANGING}, so that its strength is looked for elsewhere.
+ *  A file is made from the text of a network, and
+ *  holds the SHA-256 hash of that text, so an unchanged text is never
+ *  read again.  Only a file that is missing, or is a topology, is ever
+ *  made anew; anything else at its path is left alone.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see MappedNetwork
+ *  @see CompiledNetwork
+ *
+ *  Layout, all big-endian, each column starting at a multiple of 8:
+ *  <pre>
+ *  int magic, int version, 32 bytes source hash
+ *  int strings;  per string: short length, that many UTF-8 bytes
+ *  int neurons;  int[neurons] name
+ *  int outputs;  float interval, float termination,
+ *                int[outputs] neurons declared before each output line
+ *  int stimuli;  int[stimuli] name
+ *  long synapses, long changing
+ *  long[neurons + 1] first outgoing synapse of each neuron
+ *  long[changing] primary synapses changed by secondary synapses
+ *  float[neurons] threshold, float[neurons] initial voltage
+ *  int[synapses] target, float[synapses] delay,
+ *  float[synapses] strength, byte[synapses] kind
+ *  </pre>
+ */
+class MappedTopology {
+    private static final int MAGIC = 0x4e4e4d31; // "NNM1"
+    private static final int VERSION = 1;
+    private static final int SHIFT = 30;
+    private static final long CHUNK = 1L << SHIFT; // bytes per mapping
+
+    static final byte PRIMARY = PackedNetwork.PRIMARY;
+    static final byte SECONDARY = PackedNetwork.SECONDARY;
+    static final byte CHANGING = 2; // primary, changed by secondaries
+
+    private final byte[] hash = new byte[32];
+    private final String[] names;       // of the neurons
+    private final int[] outputs;        // neurons declared before each
+    private final float interval;
+    private final float termination;
+    private final String[] stimuli;     // files, as named
+
+    final int neurons;
+    final long synapses;
+    final int changing;     // primary synapses changed by secondaries
+
+    // the columns
+    private final MappedByteBuffer[] first;
+    private final MappedByteBuffer[] changed;
+    private final MappedByteBuffer[] threshold;
+    private final MappedByteBuffer[] voltage;
+    private final MappedByteBuffer[] target;
+    private final MappedByteBuffer[] delay;
+    private final MappedByteBuffer[] strength;
+    private final MappedByteBuffer[] kind;
+
+    /** Map a topology file
+     *  @param f  the file
+     *  @throws IOException if it cannot be read, or is not a topology
+     */
+    MappedTopology( File f ) throws IOException {
+        try (
+            FileChannel ch = new FileInputStream( f ).getChannel();
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream( new FileInputStream( f ), 1 << 16 )
+            )
+        ) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                throw new IOException( f + " is not a network topology" );
+            }
+            in.readFully( hash );
+            long at = 40;
+            String[] strings = new String[in.readInt()];
+            at = at + 4;
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[in.readUnsignedShort()];
+                in.readFully( bytes );
+                strings[i] = new String( bytes, StandardCharsets.UTF_8 );
+                at = at + 2 + bytes.length;
+            }
+            neurons = in.readInt();
+            names = new String[neurons];
+            for (int i = 0; i < neurons; i++) names[i] = strings[in.readInt()];
+            outputs = new int[in.readInt()];
+            interval = in.readFloat();
+            termination = in.readFloat();
+            for (int i = 0; i < outputs.length; i++) outputs[i] = in.readInt();
+            stimuli = new String[in.readInt()];
+            for (int i = 0; i < stimuli.length; i++) {
+                stimuli[i] = strings[in.readInt()];
+            }
+            synapses = in.readLong();
+            changing = (int)in.readLong();
+            at = at + 4 + 4L * neurons + 12 + 4L * outputs.length
+                + 4 + 4L * stimuli.length + 16;
+
+            at = align( at );
+            first = map( ch, at, 8L * (neurons + 1) );
+            at = align( at + 8L * (neurons + 1) );
+            changed = map( ch, at, 8L * changing );
+            at = align( at + 8L * changing );
+            threshold = map( ch, at, 4L * neurons );
+            at = align( at + 4L * neurons );
+            voltage = map( ch, at, 4L * neurons );
+            at = align( at + 4L * neurons );
+            target = map( ch, at, 4 * synapses );
+            at = align( at + 4 * synapses );
+            delay = map( ch, at, 4 * synapses );
+            at = align( at + 4 * synapses );
+            strength = map( ch, at, 4 * synapses );
+            at = align( at + 4 * synapses );
+            kind = map( ch, at, synapses );
+            if (at + synapses != ch.size()) {
+                throw new IOException( f + " is damaged" );
+            }
+        }
+    }
+
+    /** @return true if the file starts as a topology does, whatever
+     *  its version or state; false if it is anything else
+     *  @throws IOException if it cannot be read
+     */
+    static boolean isTopology( File f ) throws IOException {
+        try (DataInputStream in = new DataInputStream( new FileInputStream( f ) )) {
+            return (f.length() >= 4) && (in.readInt() == MAGIC);
+        }
+    }
+
+    /* really private, round up to a multiple of 8 */
+    private static long align( long at ) {
+        return (at + 7) & ~7L;
+    }
+
+    /* really private, map a column in chunks */
+    private static MappedByteBuffer[] map( FileChannel ch, long at, long bytes )
+    throws IOException {
+        return map( ch, at, bytes, FileChannel.MapMode.READ_ONLY );
+    }
+
+    /* really private, map a column of a file being made */
+    private static MappedByteBuffer[] write( FileChannel ch, long at, long bytes )
+    throws IOException {
+        return map( ch, at, bytes, FileChannel.MapMode.READ_WRITE );
+    }
+
+    private static MappedByteBuffer[] map(
+        FileChannel ch, long at, long bytes, FileChannel.MapMode mode
+    ) throws IOException {
+        if (at + bytes > ch.size()) throw new IOException( "truncated" );
+        MappedByteBuffer[] b = new MappedByteBuffer[(int)((bytes + CHUNK - 1) >>> SHIFT)];
+        for (int i = 0; i < b.length; i++) {
+            long start = (long)i << SHIFT;
+            b[i] = ch.map( mode, at + start, Math.min( CHUNK, bytes - start ) );
+        }
+        return b;
+    }
+
+    /* really private, the int, float, long or byte at a byte offset,
+     * and the same to write one;
+     * no element crosses a chunk, since each chunk is a multiple of 8 */
+    private static int getInt( MappedByteBuffer[] b, long at ) {
+        return b[(int)(at >>> SHIFT)].getInt( (int)(at & (CHUNK - 1)) );
+    }
+
+    private static float getFloat( MappedByteBuffer[] b, long at ) {
+        return b[(int)(at >>> SHIFT)].getFloat( (int)(at & (CHUNK - 1)) );
+    }
+
+    private static long getLong( MappedByteBuffer[] b, long at ) {
+        return b[(int)(at >>> SHIFT)].getLong( (int)(at & (CHUNK - 1)) );
+    }
+
+    private static byte getByte( MappedByteBuffer[] b, long at ) {
+        return b[(int)(at >>> SHIFT)].get( (int)(at & (CHUNK - 1)) );
+    }
+
+    private static void putInt( MappedByteBuffer[] b, long at, int v ) {
+        b[(int)(at >>> SHIFT)].putInt( (int)(at & (CHUNK - 1)), v );
+    }
+
+    private static void putFloat( MappedByteBuffer[] b, long at, float v ) {
+        b[(int)(at >>> SHIFT)].putFloat( (int)(at & (CHUNK - 1)), v );
+    }
+
+    private static void putLong( MappedByteBuffer[] b, long at, long v ) {
+        b[(int)(at >>> SHIFT)].putLong( (int)(at & (CHUNK - 1)), v );
+    }
+
+    private static void putByte( MappedByteBuffer[] b, long at, byte v ) {
+        b[(int)(at >>> SHIFT)].put( (int)(at & (CHUNK - 1)), v );
+    }
+
+    /** @return true if the file was made from a text with this hash
+     */
+    boolean matches( byte[] h ) {
+        return Arrays.equals( hash, h );
+    }
+
+    /** Declare the neurons, outputs and stimulus files of the topology
+     *  in a simulation, as if read from the text; the neurons have no
+     *  synapse objects, since their synapses are only in the file.
+     *  @param sim  the simulation, its network still empty
+     */
+    void declare( Simulation sim ) {
+        int o = 0;
+        for (int i = 0; i < neurons; i++) {
+            while ((o < outputs.length) && (outputs[o] == i)) {
+                sim.output.setOutput( interval, termination );
+                o++;
+            }
+            sim.network.neurons.add(
+                new Neuron( sim, names[i], threshold( i ), voltage( i ) )
+            );
+        }
+        for (; o < outputs.length; o++) {
+            sim.output.setOutput( interval, termination );
+        }
+        for (String s: stimuli) sim.network.stimulusFiles.add( s );
+    }
+
+    /** @return the first synapse out of neuron n; those of neuron n
+     *  end where those of n + 1 begin
+     */
+    long first( int n ) {
+        return getLong( first, 8L * n );
+    }
+
+    /** @return the synapse changed by secondary synapses at a place in
+     *  their list
+     */
+    long changed( int i ) {
+        return getLong( changed, 8L * i );
+    }
+
+    /** @return the place of a {@code CHANGING} synapse in the list of
+     *  those changed by secondary synapses
+     */
+    int changing( long e ) {
+        int low = 0;
+        int high = changing - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (changed( mid ) < e) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    float threshold( int n ) {
+        return getFloat( threshold, 4L * n );
+    }
+
+    /** @return the voltage of neuron n when the simulation starts */
+    float voltage( int n ) {
+        return getFloat( voltage, 4L * n );
+    }
+
+    /** @return the neuron synapse e kicks, or for a secondary synapse
+     *  the place of the synapse it changes in their list; -1 if none
+     */
+    int target( long e ) {
+        return getInt( target, 4 * e );
+    }
+
+    float delay( long e ) {
+        return getFloat( delay, 4 * e );
+    }
+
+    /** @return the strength of synapse e as declared */
+    float strength( long e ) {
+        return getFloat( strength, 4 * e );
+    }
+
+    /** @return {@code PRIMARY}, {@code SECONDARY} or {@code CHANGING} */
+    byte kind( long e ) {
+        return getByte( kind, e );
+    }
+
+    /** Make the topology file of a network straight from its text
+     *  The text is read three times and no synapse is ever held on the
+     *  heap: first for the names, with the neurons and the named
+     *  synapses; then to check each synapse and count those out of each
+     *  neuron; last to write each synapse into its place in the mapped
+     *  columns.  Each row is then sorted by delay in place, and the
+     *  synapses secondaries change are listed.  Synapses are in the
+     *  order {@link PackedNetwork} would give them, those declared after
+     *  the names they use first, then those that named something
+     *  declared later, so the file is what packing the network read as
+     *  objects would make.  Only the names, the neurons and a few
+     *  numbers for each neuron are on the heap, so a network of more
+     *  synapses than fit there, or than an array can hold, may be made;
+     *  a neuron may have at most 2^31 - 1 synapses out of it.
+     *  The file is replaced only once it is whole, so processes that
+     *  have it mapped are not disturbed; the caller checks that what is
+     *  there, if anything, is a topology, see {@code isTopology}.
+     *  @param source  the network description text
+     *  @param hash  the hash of the text
+     *  @param f  the file to make
+     *  @return false, with nothing made, if the text has errors or
+     *  declarations a topology cannot hold; read it as usual to report them
+     *  @throws IOException if the file cannot be written, or the text
+     *  changes as it is read
+     */
+    static boolean make( File source, byte[] hash, File f ) throws IOException {
+        // the first pass: names and neurons
+        HashMap <String,Integer> names = new HashMap <String,Integer> ();
+        ArrayList <Named> named = new ArrayList <Named> ();
+        int neurons = 0;
+        float[] threshold = new float[1024];
+        float[] voltage = new float[1024];
+        long[] declared = new long[1024];   // place among the declarations
+        ArrayList <Integer> outputs = new ArrayList <Integer> ();
+        float interval = 0.0f;
+        float termination = 0.0f;
+        ArrayList <String> stimuli = new ArrayList <String> ();
+        long seq = 0;
+        try (Text text = new Text( source )) {
+            while (text.next()) {
+                if (text.what == Text.NEURON) {
+                    if (names.putIfAbsent( text.name, neurons ) != null) return false;
+                    if (neurons == threshold.length) {
+                        threshold = Arrays.copyOf( threshold, neurons * 2 );
+                        voltage = Arrays.copyOf( voltage, neurons * 2 );
+                        declared = Arrays.copyOf( declared, neurons * 2 );
+                    }
+                    threshold[neurons] = text.a;
+                    voltage[neurons] = text.b;
+                    declared[neurons++] = seq++;
+                } else if (text.what == Text.SYNAPSE) {
+                    if (text.name != null) {
+                        if (names.putIfAbsent( text.name, -1 - named.size() ) != null) {
+                            return false;
+                        }
+                        named.add( new Named( seq, text.source, text.dst ) );
+                    }
+                    seq++;
+                } else if (text.what == Text.OUTPUT) {
+                    outputs.add( neurons );
+                    interval = text.a;
+                    termination = text.b;
+                } else {
+                    stimuli.add( text.name );
+                }
+            }
+            if (text.bad) return false;
+        }
+        for (Named s: named) {
+            Integer from = names.get( s.source );
+            Integer to = names.get( s.dst );
+            if ((from == null) || (from < 0) || (to == null)) return false;
+            s.from = from;
+            s.primary = (to >= 0);
+        }
+
+        // the second pass: check the synapses and count the rows
+        int[] count = new int[neurons];
+        int[] early = new int[neurons];     // declared after the names used
+        long synapses = 0;
+        int changing = 0;
+        try (Text text = new Text( source )) {
+            int id = 0;
+            seq = 0;
+            while (text.next()) {
+                if (text.what == Text.NEURON) {
+                    seq++;
+                } else if (text.what == Text.SYNAPSE) {
+                    Named self = (text.name != null) ? named.get( id++ ) : null;
+                    Integer from = names.get( text.source );
+                    Integer to = names.get( text.dst );
+                    if ((from == null) || (from < 0) || (to == null)) return false;
+                    if (to < 0) {
+                        Named changed = named.get( -1 - to );
+                        if (!changed.primary) return false;
+                        if (changed.cid < 0) changed.cid = changing++;
+                    }
+                    if (text.a < 0.0f) return false; // negative delay
+                    boolean resolved = before( text.source, seq, names, named, declared )
+                        && before( text.dst, seq, names, named, declared );
+                    if (self != null) self.resolved = resolved;
+                    if (count[from] == Integer.MAX_VALUE) {
+                        throw new IOException( "too many synapses out of " + text.source );
+                    }
+                    count[from]++;
+                    if (resolved) early[from]++;
+                    synapses++;
+                    seq++;
+                }
+            }
+            if (text.bad) return false;
+        }
+
+        HashMap <String,Integer> strings = new HashMap <String,Integer> ();
+        String[] neuronName = new String[neurons];
+        for (String s: names.keySet()) {
+            int n = names.get( s );
+            if (n >= 0) neuronName[n] = s;
+        }
+        for (String s: neuronName) strings.putIfAbsent( s, strings.size() );
+        for (String s: stimuli) strings.putIfAbsent( s, strings.size() );
+        String[] pool = new String[strings.size()];
+        for (String s: strings.keySet()) pool[strings.get( s )] = s;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        out.write( hash );
+        out.writeInt( pool.length );
+        for (String s: pool) {
+            byte[] b = s.getBytes( StandardCharsets.UTF_8 );
+            if (b.length > 0xffff) { // its length is a short
+                throw new IOException( "a name of " + b.length + " bytes is too long" );
+            }
+            out.writeShort( b.length );
+            out.write( b );
+        }
+        out.writeInt( neurons );
+        for (String s: neuronName) out.writeInt( strings.get( s ) );
+        out.writeInt( outputs.size() );
+        out.writeFloat( interval );
+        out.writeFloat( termination );
+        for (int after: outputs) out.writeInt( after );
+        out.writeInt( stimuli.size() );
+        for (String s: stimuli) out.writeInt( strings.get( s ) );
+        out.writeLong( synapses );
+        out.writeLong( changing );
+        out.flush();
+        byte[] header = bytes.toByteArray();
+
+        long firstAt = align( header.length );
+        long changedAt = align( firstAt + 8L * (neurons + 1) );
+        long thresholdAt = align( changedAt + 8L * changing );
+        long voltageAt = align( thresholdAt + 4L * neurons );
+        long targetAt = align( voltageAt + 4L * neurons );
+        long delayAt = align( targetAt + 4 * synapses );
+        long strengthAt = align( delayAt + 4 * synapses );
+        long kindAt = align( strengthAt + 4 * synapses );
+
+        File dir = f.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile( "topology", ".tmp", dir );
+        try {
+            try (
+                RandomAccessFile file = new RandomAccessFile( temp, "rw" );
+                FileChannel ch = file.getChannel()
+            ) {
+                file.setLength( kindAt + synapses );
+                file.write( header );
+                MappedByteBuffer[] first = write( ch, firstAt, 8L * (neurons + 1) );
+                MappedByteBuffer[] changed = write( ch, changedAt, 8L * changing );
+                MappedByteBuffer[] thresholds = write( ch, thresholdAt, 4L * neurons );
+                MappedByteBuffer[] voltages = write( ch, voltageAt, 4L * neurons );
+                MappedByteBuffer[] target = write( ch, targetAt, 4 * synapses );
+                MappedByteBuffer[] delay = write( ch, delayAt, 4 * synapses );
+                MappedByteBuffer[] strength = write( ch, strengthAt, 4 * synapses );
+                MappedByteBuffer[] kind = write( ch, kindAt, synapses );
+
+                // rows, each with those declared early first
+                long[] row = new long[neurons + 1];
+                long[] next = new long[neurons];    // for an early synapse
+                long[] late = new long[neurons];    // for a late one
+                for (int n = 0; n < neurons; n++) {
+                    row[n + 1] = row[n] + count[n];
+                    next[n] = row[n];
+                    late[n] = row[n] + early[n];
+                    putLong( first, 8L * n, row[n] );
+                    putFloat( thresholds, 4L * n, threshold[n] );
+                    putFloat( voltages, 4L * n, voltage[n] );
+                }
+                putLong( first, 8L * neurons, row[neurons] );
+
+                // the third pass: each synapse in its place, the target
+                // of a secondary the number of the synapse it changes
+                long written = 0;
+                try (Text text = new Text( source )) {
+                    int id = 0;
+                    seq = 0;
+                    while (text.next()) {
+                        if (text.what == Text.NEURON) {
+                            seq++;
+                        } else if (text.what == Text.SYNAPSE) {
+                            Named self = (text.name != null) ? named.get( id++ ) : null;
+                            Integer from = names.get( text.source );
+                            Integer to = names.get( text.dst );
+                            if ((from == null) || (from < 0) || (to == null)
+                            ||  (written == synapses)) {
+                                throw new IOException( source + " changed as it was read" );
+                            }
+                            boolean resolved = before( text.source, seq, names, named, declared )
+                                && before( text.dst, seq, names, named, declared );
+                            long e = resolved ? next[from]++ : late[from]++;
+                            int t;
+                            byte k;
+                            if (to >= 0) {
+                                t = to;
+                                k = ((self != null) && (self.cid >= 0)) ? CHANGING : PRIMARY;
+                            } else {
+                                t = named.get( -1 - to ).cid;
+                                k = SECONDARY;
+                            }
+                            if (self != null) self.slot = e;
+                            putInt( target, 4 * e, t );
+                            putFloat( delay, 4 * e, text.a );
+                            putFloat( strength, 4 * e, text.b );
+                            putByte( kind, e, k );
+                            written++;
+                            seq++;
+                        }
+                    }
+                    if (text.bad || (written != synapses)) {
+                        throw new IOException( source + " changed as it was read" );
+                    }
+                }
+
+                // sort each row by delay, keeping the changing synapses' places
+                long[] slot = new long[changing];
+                int[] byRow = new int[neurons + 1];
+                for (Named s: named) if (s.cid >= 0) byRow[s.from + 1]++;
+                for (int n = 0; n < neurons; n++) byRow[n + 1] += byRow[n];
+                int[] cids = new int[changing];
+                int[] fill = Arrays.copyOf( byRow, neurons );
+                for (Named s: named) {
+                    if (s.cid >= 0) {
+                        slot[s.cid] = s.slot;
+                        cids[fill[s.from]++] = s.cid;
+                    }
+                }
+                sortRows( row, target, delay, strength, kind, slot, byRow, cids );
+
+                // list the changing synapses, and point secondaries there
+                long[] list = slot.clone();
+                Arrays.sort( list );
+                for (int i = 0; i < changing; i++) putLong( changed, 8L * i, list[i] );
+                int[] place = new int[changing];
+                for (int c = 0; c < changing; c++) {
+                    place[c] = Arrays.binarySearch( list, slot[c] );
+                }
+                for (long e = 0; e < synapses; e++) {
+                    if (getByte( kind, e ) == SECONDARY) {
+                        putInt( target, 4 * e, place[getInt( target, 4 * e )] );
+                    }
+                }
+            }
+            Files.move(
+                temp.toPath(), f.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+        } finally {
+            temp.delete(); // if it was not moved
+        }
+        return true;
+    }
+
+    /* really private, sort each row by delay, keeping the order of
+     * equal delays, as PackedNetwork.sortRows does, and follow the
+     * changing synapses of each row, listed by row, to their new places */
+    private static void sortRows(
+        long[] row, MappedByteBuffer[] target, MappedByteBuffer[] delay,
+        MappedByteBuffer[] strength, MappedByteBuffer[] kind,
+        long[] slot, int[] byRow, int[] cids
+    ) {
+        long[] key = new long[16];
+        int[] renumber = new int[16];
+        int[] t = new int[16];
+        float[] d = new float[16];
+        float[] s = new float[16];
+        byte[] k = new byte[16];
+        for (int n = 0; n + 1 < row.length; n++) {
+            long base = row[n];
+            int length = (int)(row[n + 1] - base);
+            if (length < 2) continue;
+            if (length > key.length) {
+                key = new long[length];
+                renumber = new int[length];
+                t = new int[length];
+                d = new float[length];
+                s = new float[length];
+                k = new byte[length];
+            }
+            boolean sorted = true;
+            for (int i = 0; i < length; i++) {
+                d[i] = getFloat( delay, 4 * (base + i) );
+                key[i] = ((long)Float.floatToIntBits( d[i] ) << 32) | i;
+                if ((i > 0) && (key[i] < key[i - 1])) sorted = false;
+            }
+            if (sorted) continue;
+            Arrays.sort( key, 0, length );
+            for (int i = 0; i < length; i++) {
+                t[i] = getInt( target, 4 * (base + i) );
+                s[i] = getFloat( strength, 4 * (base + i) );
+                k[i] = getByte( kind, base + i );
+            }
+            for (int i = 0; i < length; i++) {
+                int old = (int)key[i];
+                renumber[old] = i;
+                putInt( target, 4 * (base + i), t[old] );
+                putFloat( delay, 4 * (base + i), d[old] );
+                putFloat( strength, 4 * (base + i), s[old] );
+                putByte( kind, base + i, k[old] );
+            }
+            for (int i = byRow[n]; i < byRow[n + 1]; i++) {
+                slot[cids[i]] = base + renumber[(int)(slot[cids[i]] - base)];
+            }
+        }
+    }
+
+    /* really private, whether a name was declared before a place among
+     * the declarations, as a neuron or as a synapse itself declared
+     * after the names it uses; such a synapse is made at once when the
+     * text is read as objects, and others only at its end */
+    private static boolean before(
+        String name, long seq, HashMap <String,Integer> names,
+        ArrayList <Named> named, long[] declared
+    ) {
+        int n = names.get( name );
+        if (n >= 0) return declared[n] < seq;
+        Named s = named.get( -1 - n );
+        return (s.seq < seq) && s.resolved;
+    }
+
+    /* really private, a named synapse, as the maker keeps it */
+    private static class Named {
+        final long seq;         // its place among the declarations
+        final String source;
+        final String dst;
+        int from;               // its source neuron
+        boolean primary;        // its destination is a neuron
+        boolean resolved;       // declared after the names it uses
+        int cid = -1;           // place among those secondaries change
+        long slot;              // its synapse number
+
+        Named( long seq, String source, String dst ) {
+            this.seq = seq;
+            this.source = source;
+            this.dst = dst;
+        }
+    }
+
+    /* really private, the declarations of a network text, one at a time,
+     * read as NeuronNetwork reads them but into no network; problems are
+     * counted, not reported, since the text is then read as usual */
+    private static class Text implements Closeable {
+        static final int NEURON = 0;
+        static final int SYNAPSE = 1;
+        static final int OUTPUT = 2;
+        static final int STIMULUS = 3;
+
+        private final Errors quiet = new Errors(
+            new PrintStream( OutputStream.nullOutputStream() )
+        );
+        private final Tokenizer sc;
+        boolean bad = false;    // an error, or what a topology cannot hold
+
+        // the declaration last read
+        int what;
+        String name;            // of the neuron, synapse or stimulus file
+        String source;
+        String dst;
+        float a;                // threshold, delay or interval
+        float b;                // voltage, strength or termination
+
+        Text( File f ) throws FileNotFoundException {
+            sc = new Tokenizer( f, quiet );
+        }
+
+        /** Read the next declaration
+         *  @return false at the end of the text, or once it is bad
+         */
+        boolean next() {
+            if (bad || !sc.hasNext()) return false;
+            if (sc.nextIs( "neuron" )) {
+                what = NEURON;
+                name = ScanSupport.nextName( sc, () -> "" );
+                a = ScanSupport.nextFloat( sc, () -> "" );
+                b = ScanSupport.nextFloat( sc, () -> "" );
+                ScanSupport.lineEnd( sc, () -> "" );
+            } else if (sc.nextIs( "synapse" )) {
+                what = SYNAPSE;
+                name = null;
+                if (!sc.nextIs( "-" )) name = ScanSupport.nextName( sc, () -> "" );
+                source = ScanSupport.nextName( sc, () -> "" );
+                dst = ScanSupport.nextName( sc, () -> "" );
+                a = ScanSupport.nextFloat( sc, () -> "" );
+                b = ScanSupport.nextFloat( sc, () -> "" );
+                ScanSupport.lineEnd( sc, () -> "" );
+            } else if (sc.nextIs( "output" )) {
+                what = OUTPUT;
+                a = ScanSupport.nextFloat( sc, () -> "" );
+                b = ScanSupport.nextFloat( sc, () -> "" );
+            } else if (sc.nextIs( "stimulus" )) {
+                what = STIMULUS;
+                name = sc.next();
+                ScanSupport.lineEnd( sc, () -> "" );
+                if (name == null) quiet.errCount++;
+            } else {
+                quiet.errCount++; // plasticity, or not a declaration
+            }
+            bad = (quiet.errCount > 0);
+            return !bad;
+        }
+
+        public void close() {
+            sc.close();
+        }
+    }
+}
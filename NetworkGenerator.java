@@ -0,0 +1,252 @@
+// NetworkGenerator.java
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Writes synthetic networks of any size, for benchmarks and experiments
+ *  The network is written in the usual {@code neuron}, {@code synapse}
+ *  and {@code output} format: all neurons first, then the outgoing
+ *  synapses of each in turn.  Each synapse goes to a neuron chosen at
+ *  random.  A fraction of the neurons are inhibitory, all their synapses
+ *  having negative strength; the rest are excitatory.  Some synapses are
+ *  named, and a fraction may be secondary synapses, adjusting a named
+ *  primary synapse declared earlier.  Initial voltages are spread
+ *  from zero to a little above the threshold, so some neurons start out
+ *  firing.  Without input from outside, such a network either falls
+ *  silent or fires ever faster, so a fraction of the neurons, the last
+ *  ones, are pacemakers: they start out firing and have an extra synapse
+ *  to themselves, strong enough to fire them again after the pace
+ *  period.  With the default strengths, which shrink as the fan-out
+ *  grows, the rest of the network damps what the pacemakers start, so
+ *  activity is steady and the work done grows with the time simulated.
+ *  The same parameters and seed always give the same network.
+ *  Usage: {@code java NetworkGenerator [options] file}, with options
+ *  {@code -neurons=}<i>n</i>, {@code -fanout=}<i>k</i>,
+ *  {@code -delay=fixed:}<i>d</i>, {@code -delay=uniform:}<i>lo</i>{@code :}<i>hi</i>
+ *  or {@code -delay=exponential:}<i>lo</i>{@code :}<i>mean</i>,
+ *  {@code -inhibitory=}<i>fraction</i>, {@code -excitation=}<i>s</i>,
+ *  {@code -inhibition=}<i>s</i>, {@code -threshold=}<i>t</i>,
+ *  {@code -named=}<i>fraction</i>, {@code -secondary=}<i>fraction</i>,
+ *  {@code -pacemakers=}<i>fraction</i>, {@code -pace=}<i>period</i>,
+ *  {@code -interval=}<i>i</i>, {@code -termination=}<i>t</i> and
+ *  {@code -seed=}<i>s</i>.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see SimulationBenchmark
+ */
+class NetworkGenerator {
+    int neurons = 1000;
+    int fanOut = 100;           // outgoing synapses of each neuron
+
+    // delays: FIXED is delayLow, UNIFORM from delayLow to delayHigh,
+    // EXPONENTIAL is delayLow plus an exponential with mean delayHigh
+    static final int FIXED = 0;
+    static final int UNIFORM = 1;
+    static final int EXPONENTIAL = 2;
+    int delayKind = UNIFORM;
+    float delayLow = 0.1f;
+    float delayHigh = 1.0f;
+
+    float inhibitory = 0.2f;    // fraction of inhibitory neurons
+    // strength of excitatory synapses, and of inhibitory ones negated;
+    // by default, see balance
+    float excitation = Float.NaN;
+    float inhibition = Float.NaN;
+    float threshold = 10.0f;
+    float named = 0.1f;         // fraction of primary synapses named
+    float secondary = 0.0f;     // fraction of synapses that are secondary
+    float pacemakers = 0.05f;   // fraction of neurons firing on their own
+    float pace = 1.0f;          // their period
+    float interval = 1.0f;      // output interval
+    float termination = 10.0f;  // output termination time
+    long seed = 2820;
+
+    /* really private, a delay drawn from the distribution */
+    private float delay( Random r ) {
+        float d;
+        if (delayKind == FIXED) {
+            d = delayLow;
+        } else if (delayKind == UNIFORM) {
+            d = delayLow + r.nextFloat() * (delayHigh - delayLow);
+        } else {
+            d = delayLow - delayHigh * (float)Math.log( 1.0 - r.nextDouble() );
+        }
+        return Math.round( d * 1000.0f ) / 1000.0f; // three places
+    }
+
+    /** Choose the strengths not given so excitation and inhibition balance
+     *  A firing then sends as much inhibition as excitation, in all half
+     *  the threshold of each.
+     */
+    private void balance() {
+        float excitatory = (1.0f - inhibitory) * fanOut;
+        float inhibitoryOut = inhibitory * fanOut;
+        if (Float.isNaN( excitation )) {
+            excitation = (excitatory > 0.0f) ? threshold * 0.5f / excitatory : 0.0f;
+        }
+        if (Float.isNaN( inhibition )) {
+            inhibition = (inhibitoryOut > 0.0f)
+                ? excitation * excitatory / inhibitoryOut
+                : 0.0f;
+        }
+    }
+
+    /** Write the network to f
+     *  @return the number of synapses written
+     */
+    long write( File f ) throws IOException {
+        balance();
+        Random r = new Random( seed );
+        long synapses = 0;
+        int[] primaries = new int[1024]; // numbers of named primary synapses
+        int namedCount = 0;
+        StringBuilder line = new StringBuilder();
+        try (BufferedWriter w = new BufferedWriter(
+            new FileWriter( f ), 1 << 16
+        )) {
+            int paced = neurons - (int)(pacemakers * neurons);
+            for (int n = 0; n < neurons; n++) {
+                float v = (n < paced)
+                    ? Math.round( r.nextFloat() * 1.2f * threshold * 10.0f ) / 10.0f
+                    : 2.0f * threshold;
+                line.setLength( 0 );
+                line.append( "neuron N" ).append( n ).append( ' ' )
+                    .append( threshold ).append( ' ' ).append( v ).append( '\n' );
+                w.append( line );
+            }
+            for (int n = 0; n < neurons; n++) {
+                float s = (n < inhibitory * neurons) ? -inhibition : excitation;
+                for (int i = 0; i < fanOut; i++) {
+                    line.setLength( 0 );
+                    line.append( "synapse " );
+                    if ((namedCount > 0) && (r.nextFloat() < secondary)) {
+                        line.append( "- N" ).append( n )
+                            .append( " S" ).append( primaries[r.nextInt( namedCount )] );
+                    } else {
+                        if (r.nextFloat() < named) {
+                            line.append( 'S' ).append( synapses );
+                            if (namedCount == primaries.length) {
+                                primaries = Arrays.copyOf(
+                                    primaries, namedCount * 2
+                                );
+                            }
+                            primaries[namedCount++] = (int)synapses;
+                        } else {
+                            line.append( '-' );
+                        }
+                        line.append( " N" ).append( n )
+                            .append( " N" ).append( r.nextInt( neurons ) );
+                    }
+                    line.append( ' ' ).append( delay( r ) )
+                        .append( ' ' ).append( s ).append( '\n' );
+                    w.append( line );
+                    synapses++;
+                }
+                if (n >= paced) {
+                    line.setLength( 0 );
+                    line.append( "synapse - N" ).append( n ).append( " N" ).append( n )
+                        .append( ' ' ).append( pace )
+                        .append( ' ' ).append( 2.0f * threshold ).append( '\n' );
+                    w.append( line );
+                    synapses++;
+                }
+            }
+            w.append( "output " + interval + " " + termination + "\n" );
+        }
+        return synapses;
+    }
+
+    /** The number after the = of an option
+     */
+    private static float number( Errors errors, String arg ) {
+        try {
+            return Float.parseFloat( arg.substring( arg.indexOf( '=' ) + 1 ) );
+        } catch (NumberFormatException e) {
+            errors.fatal( arg + " -- expected a number" );
+            return 0.0f;
+        }
+    }
+
+    /** Set the delay distribution from a -delay= option
+     */
+    private void delays( Errors errors, String arg ) {
+        String[] parts = arg.substring( arg.indexOf( '=' ) + 1 ).split( ":" );
+        try {
+            if (parts[0].equals( "fixed" ) && (parts.length == 2)) {
+                delayKind = FIXED;
+                delayLow = Float.parseFloat( parts[1] );
+                return;
+            } else if (parts[0].equals( "uniform" ) && (parts.length == 3)) {
+                delayKind = UNIFORM;
+            } else if (parts[0].equals( "exponential" ) && (parts.length == 3)) {
+                delayKind = EXPONENTIAL;
+            } else {
+                errors.fatal( arg + " -- unknown delay distribution" );
+            }
+            delayLow = Float.parseFloat( parts[1] );
+            delayHigh = Float.parseFloat( parts[2] );
+        } catch (NumberFormatException e) {
+            errors.fatal( arg + " -- expected a number" );
+        }
+    }
+
+    /** Main program, see the class comment for the options
+     */
+    public static void main( String[] args ) throws IOException {
+        Errors errors = new Errors( System.err );
+        NetworkGenerator g = new NetworkGenerator();
+        String fileName = null;
+        try {
+            for (String arg: args) {
+                if (arg.startsWith( "-neurons=" )) {
+                    g.neurons = (int)number( errors, arg );
+                } else if (arg.startsWith( "-fanout=" )) {
+                    g.fanOut = (int)number( errors, arg );
+                } else if (arg.startsWith( "-delay=" )) {
+                    g.delays( errors, arg );
+                } else if (arg.startsWith( "-inhibitory=" )) {
+                    g.inhibitory = number( errors, arg );
+                } else if (arg.startsWith( "-excitation=" )) {
+                    g.excitation = number( errors, arg );
+                } else if (arg.startsWith( "-inhibition=" )) {
+                    g.inhibition = number( errors, arg );
+                } else if (arg.startsWith( "-threshold=" )) {
+                    g.threshold = number( errors, arg );
+                } else if (arg.startsWith( "-named=" )) {
+                    g.named = number( errors, arg );
+                } else if (arg.startsWith( "-secondary=" )) {
+                    g.secondary = number( errors, arg );
+                } else if (arg.startsWith( "-pacemakers=" )) {
+                    g.pacemakers = number( errors, arg );
+                } else if (arg.startsWith( "-pace=" )) {
+                    g.pace = number( errors, arg );
+                } else if (arg.startsWith( "-interval=" )) {
+                    g.interval = number( errors, arg );
+                } else if (arg.startsWith( "-termination=" )) {
+                    g.termination = number( errors, arg );
+                } else if (arg.startsWith( "-seed=" )) {
+                    try {
+                        g.seed = Long.parseLong( arg.substring( 6 ) );
+                    } catch (NumberFormatException e) {
+                        errors.fatal( arg + " -- expected an integer" );
+                    }
+                } else if (arg.startsWith( "-" )) {
+                    errors.fatal( arg + " -- unknown option" );
+                } else if (fileName != null) {
+                    errors.fatal( "too many arguments" );
+                } else {
+                    fileName = arg;
+                }
+            }
+            if (fileName == null) errors.fatal( "missing file name" );
+        } catch (Errors.Fatal e) {
+            System.exit( 1 );
+        }
+        long synapses = g.write( new File( fileName ) );
+        System.out.println( g.neurons + " neurons, " + synapses + " synapses" );
+    }
+}
@@ -1,7 +1,9 @@
 // Neuron.java
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.LinkedList;
-import java.util.Scanner;
 import java.lang.Math;
 
 /** Neurons, joined by synapses, are the active components of a neuron network.
@@ -20,7 +22,9 @@ import java.lang.Math;
  */
 
 class Neuron {
+    private final Simulation sim; // the simulation this neuron is in
     String name;                // name of this neuron
+    int number;                 // its place in the list of neurons
     private int fireCount = 0;  // number of times this neuron fired
 
     public static class IllegalNameEx extends Exception {}
@@ -34,26 +38,28 @@ class Neuron {
     public LinkedList <Synapse> synapses = new LinkedList<Synapse>();
 
     // initializer
-    public Neuron( Scanner sc ) throws IllegalNameEx {
+    public Neuron( Simulation sim, Tokenizer sc ) throws IllegalNameEx {
+        this.sim = sim;
         // scan and process one neuron
         String name = ScanSupport.nextName(
             sc,
             () -> "Neuron ???"
         );
         if (name == null) { // nextName() already reported syntax error
-            sc.nextLine();
+            sc.endLine();
             throw new IllegalNameEx ();
         }
         this.name = name;
-        if ( (NeuronNetwork.findNeuron( name ) != null)
-        ||   (NeuronNetwork.findSynapse( name ) != null) ) {
-            Errors.warning(
+        if (sim.network.isDeclared( name )) {
+            sim.errors.warning(
                 "Neuron " + name +
                 " -- duplicate declaration"
             );
-            sc.nextLine();
+            sc.endLine();
             throw new IllegalNameEx();
         }
+        sim.network.declare( name, this );
+        number = sim.network.neurons.size(); // it is added next
         threshold = ScanSupport.nextFloat(
             sc,
             () -> Neuron.this.toString()
@@ -63,16 +69,7 @@ class Neuron {
             () -> Neuron.this.toString()
         );
 
-        //  if voltage exceeds threshold (non-inclusive) the neuron fires
-        if (voltage > threshold){
-            Simulator.schedule(
-                new Simulator.Event( 0.0f ) {
-                    void trigger() {
-                        Neuron.this.fire( time );
-                    }
-                }
-            );
-        }
+        start();
 
         ScanSupport.lineEnd(
             sc,
@@ -80,18 +77,70 @@ class Neuron {
         );
     }
 
+    /** Initializer for a neuron already checked, from a compiled network
+     *  @see CompiledNetwork
+     */
+    Neuron( Simulation sim, String name, float threshold, float voltage ) {
+        this.sim = sim;
+        this.name = name;
+        this.threshold = threshold;
+        this.voltage = voltage;
+        sim.network.declare( name, this );
+        number = sim.network.neurons.size();
+        start();
+    }
+
+    /** The event of a neuron firing on its own, at the start
+     *  Named, as is {@link Delivery}, so that a {@link Checkpoint} can
+     *  tell what a pending event is.
+     */
+    static class Firing extends Simulator.Event {
+        final Neuron neuron;
+
+        Firing( float time, Neuron neuron ) {
+            super( time );
+            this.neuron = neuron;
+        }
+
+        void trigger() {
+            neuron.fire( time );
+        }
+    }
+
+    /** The event of a synapse delivering a spike
+     */
+    static class Delivery extends Simulator.Event {
+        final Synapse synapse;
+
+        Delivery( float time, Synapse synapse ) {
+            super( time );
+            this.synapse = synapse;
+        }
+
+        void trigger() {
+            synapse.fire( time );
+        }
+    }
+
+    /** Schedule the initial firing, if this neuron starts out firing
+     */
+    private void start() {
+        //  if voltage exceeds threshold (non-inclusive) the neuron fires
+        if (voltage > threshold){
+            sim.simulator.schedule( new Firing( 0.0f, this ) );
+        }
+    }
+
     // simulation methods
     void fire(float time) {
         fireCount = fireCount + 1;
+        if (fireCount == 1) sim.output.fired( number );
         this.voltage = 0.0f;
+        if (sim.raster != null) sim.raster.record( number, time );
+        if (SimulationMetrics.ENABLED) sim.simulator.probe.spike( number );
+        FlightEvents.fire( number, time );
         for(Synapse s: synapses) {
-            Simulator.schedule(
-                new Simulator.Event( time + s.delay ) {
-                    void trigger() {
-                        s.fire( time );
-                    }
-                }
-            );
+            sim.simulator.schedule( new Delivery( time + s.delay, s ) );
         }
     }
 
@@ -100,7 +149,10 @@ class Neuron {
     void kick(float time, float strength) {
         float v1 = voltage;
         // v2 = v1 e^(t1–t2) + s
-        voltage = (v1 * (float)Math.exp( this.time - time )) + strength;
+        float decay = sim.fastDecay
+            ? Decay.fast( time - this.time )
+            : (float)Math.exp( this.time - time );
+        voltage = (v1 * decay) + strength;
         this.time = time;
         if( voltage > threshold) this.fire( time );
     }
@@ -113,6 +165,35 @@ class Neuron {
         return r;
     }
 
+    /** Get the threshold, for saving the network
+     */
+    float getThreshold() {
+        return threshold;
+    }
+
+    /** Get the voltage, for saving the network
+     */
+    float getVoltage() {
+        return voltage;
+    }
+
+    /** Save the state the simulation changes, for a checkpoint
+     */
+    void write( DataOutputStream out ) throws IOException {
+        out.writeFloat( voltage );
+        out.writeFloat( time );
+        out.writeInt( fireCount );
+    }
+
+    /** Restore the state saved by {@code write}
+     */
+    void read( DataInputStream in ) throws IOException {
+        voltage = in.readFloat();
+        time = in.readFloat();
+        fireCount = in.readInt();
+        if (fireCount != 0) sim.output.fired( number );
+    }
+
     // other methods
     public String toString() {
         return (
@@ -2,8 +2,12 @@
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.Scanner;
+import java.util.List;
 import java.lang.Math;
 
 /** NeuronNetwork is the main class that builds the whole model
@@ -22,98 +26,470 @@ import java.lang.Math;
  *  This code is further modified to meet the requirements of MP5.
  */
 public class NeuronNetwork {
+    private final Simulation sim; // the simulation this network is in
 
     // the sets of all neurons and synapses
-    static LinkedList <Neuron> neurons
+    final LinkedList <Neuron> neurons
         = new LinkedList <Neuron> ();
-    static LinkedList <Synapse> synapses
+    final LinkedList <Synapse> synapses
         = new LinkedList <Synapse> ();
 
-    /** Look up s in neurons, find that Neuron if it exists
-     *  return null if not.
+    // plasticity declarations, in the order declared, see Plasticity
+    final LinkedList <Plasticity.Rule> rules
+        = new LinkedList <Plasticity.Rule> ();
+
+    // stimulus files declared, as named, see Stimulus
+    final LinkedList <String> stimulusFiles = new LinkedList <String> ();
+
+    // the packed form of the network, if it is simulated that way
+    PackedNetwork packed = null;
+
+    // the network simulated from a mapped topology, if it is that way
+    MappedNetwork mapped = null;
+
+    // the index of all declared names, neurons and synapses share it
+    private final HashMap <String,Object> names
+        = new HashMap <String,Object> ();
+
+    // synapse declarations waiting on names declared later in the input
+    final LinkedList <Synapse.Declaration> forwards
+        = new LinkedList <Synapse.Declaration> ();
+
+    /** An empty network, part of the given simulation
+     */
+    NeuronNetwork( Simulation sim ) {
+        this.sim = sim;
+    }
+
+    /** Record that name s is declared as the given neuron or synapse
+     *  Called from the {@link Neuron} and {@link Synapse} initializers
+     *  once they have checked that the name is not a duplicate.
+     */
+    void declare( String s, Object o ) {
+        names.put( s, o );
+    }
+
+    /** Look up s in the name index, whatever it names
+     *  return null if s is not declared.
      */
-    public static Neuron findNeuron( String s ) {
+    Object lookup( String s ) {
         /* special case added because scan-support can return null */
         if (s == null) return null;
 
-        /* search the neuron list */
-        for (Neuron n: neurons) {
-            if (n.name.equals(s)) {
-                return n;
-            }
-        }
+        return names.get( s );
+    }
+
+    /** Check whether s is already declared as a neuron or synapse
+     */
+    public boolean isDeclared( String s ) {
+        return lookup( s ) != null;
+    }
+
+    /** Look up s in neurons, find that Neuron if it exists
+     *  return null if not.
+     */
+    public Neuron findNeuron( String s ) {
+        Object o = lookup( s );
+        if (o instanceof Neuron) return (Neuron)o;
         return null;
     }
 
     /** Look up s in synapses, find that Synapse if it exists
      *  return null if not.
      */
-    public static Synapse findSynapse( String s ) {
-        /* special case added because scan-support can return null */
-        if (s == null) return null;
-
-        /* search the synapse list */
-        for (Synapse sy: synapses) {
-            if ((sy.name != null) && (sy.name.equals(s))) {
-                return sy;
-            }
-        }
+    public Synapse findSynapse( String s ) {
+        Object o = lookup( s );
+        if (o instanceof Synapse) return (Synapse)o;
         return null;
     }
 
     /** Initialize the neuron network by scanning its description
+     *  Synapses may name neurons and synapses declared later in the
+     *  file; those are connected once the whole description is read.
      */
-    static void initializeNetwork( Scanner sc ) {
+    void initializeNetwork( Tokenizer sc ) {
         while (sc.hasNext()) {
-            String command = sc.next();
-            if ("neuron".equals( command )) {
+            if (sc.nextIs( "neuron" )) {
                 try {
-                    neurons.add( new Neuron( sc ) );
+                    neurons.add( new Neuron( sim, sc ) );
                 } catch (Neuron.IllegalNameEx e) {}
-            } else if ("synapse".equals( command )) {
+            } else if (sc.nextIs( "synapse" )) {
                 try {
-                    synapses.add( Synapse.newSynapse(sc) );
+                    Synapse s = Synapse.newSynapse( sim, sc );
+                    if (s != null) synapses.add( s );
                 } catch (Synapse.IllegalNameEx e) {}
-            } else if ("output".equals( command )) {
-                SimulationOutput.setOutput( sc );
+            } else if (sc.nextIs( "output" )) {
+                sim.output.setOutput( sc );
+            } else if (sc.nextIs( "stimulus" )) {
+                String file = sc.next();
+                ScanSupport.lineEnd( sc, () -> "stimulus " + file );
+                if (file != null) {
+                    stimulusFiles.add( file );
+                } else {
+                    sim.errors.warning( "stimulus -- file name expected" );
+                }
+            } else if (sc.nextIs( "plasticity" )) {
+                Plasticity.Rule r = Plasticity.Rule.newRule( sim, sc );
+                if (r != null) rules.add( r );
             } else {
-                Errors.warning( command + " -- what is that" );
-                sc.nextLine();
+                String command = sc.next();
+                sim.errors.warning( command + " -- what is that" );
+                sc.endLine();
             }
         }
+        synapses.addAll( Synapse.resolveForwardReferences( this ) );
+        for (Plasticity.Rule r: rules) r.check( sim );
     }
 
     /** Print out the neuron network from the data structure
      */
-    static void printNetwork() {
+    void printNetwork( PrintStream out ) {
         for (Neuron n:neurons) {
-            System.out.println( n.toString() );
+            out.println( n.toString() );
         }
         for (Synapse s:synapses) {
-            System.out.println( s.toString() );
+            out.println( s.toString() );
+        }
+        for (Plasticity.Rule r:rules) {
+            out.println( r.toString() );
+        }
+        for (String f:stimulusFiles) {
+            out.println( "stimulus " + f );
         }
     }
 
+    /** The positive number after the = of an option
+     */
+    private static int intOption( Errors errors, String arg ) {
+        try {
+            int v = Integer.parseInt( arg.substring( arg.indexOf( '=' ) + 1 ) );
+            if (v > 0) return v;
+        } catch (NumberFormatException e) {}
+        errors.fatal( arg + " -- expected a positive number" );
+        return 0;
+    }
+
+    /** The positive number after the = of an option, not an integer
+     */
+    private static float floatOption( Errors errors, String arg ) {
+        try {
+            float v = Float.parseFloat( arg.substring( arg.indexOf( '=' ) + 1 ) );
+            if (v > 0.0f) return v;
+        } catch (NumberFormatException e) {}
+        errors.fatal( arg + " -- expected a positive number" );
+        return 0.0f;
+    }
+
+    /** The positive number after the = of an option, to double precision
+     */
+    private static double doubleOption( Errors errors, String arg ) {
+        try {
+            double v = Double.parseDouble( arg.substring( arg.indexOf( '=' ) + 1 ) );
+            if (v > 0.0) return v;
+        } catch (NumberFormatException e) {}
+        errors.fatal( arg + " -- expected a positive number" );
+        return 0.0;
+    }
+
     /** Main program
+     *  Usage: {@code java NeuronNetwork [options] file}, with options
+     *  {@code -nocache}, {@code -packed}, {@code -batch},
+     *  {@code -queue=heap}, {@code -arity=}<i>d</i>, {@code -queue=wheel},
+     *  {@code -width=}<i>w</i>, {@code -buckets=}<i>b</i>,
+     *  {@code -ordered}, {@code -ticks=}<i>r</i>,
+     *  {@code -threads=}<i>n</i>, {@code -clock=}<i>dt</i>,
+     *  {@code -raster=}<i>file</i>, {@code -decay=fast},
+     *  {@code -decay=exact}, {@code -checkpoint=}<i>file</i>,
+     *  {@code -every=}<i>t</i>, {@code -restore=}<i>file</i>,
+     *  {@code -daemon=}<i>port</i> or {@code -daemon=}<i>path</i>,
+     *  {@code -pending=}<i>n</i>, {@code -report=}<i>t</i>,
+     *  {@code -sparse}, {@code -watch=}<i>names</i>,
+     *  {@code -mapped=}<i>file</i>, {@code -processes=}<i>n</i> and
+     *  {@code -transport=tcp} or {@code -transport=unix}.
+     *  Unless {@code -nocache} is given, a network read without errors
+     *  is saved in compiled form and later runs on the same text load
+     *  that instead, see {@link CompiledNetwork}.
+     *  With {@code -packed} the simulation runs on the arrays of a
+     *  {@link PackedNetwork} instead of the neuron and synapse objects;
+     *  {@code -batch} does the same, with one queued event per spike
+     *  for each distinct delay instead of one per synapse.
+     *  With {@code -queue=heap} pending events are kept in a primitive
+     *  heap with <i>d</i> children per node, 4 by default, instead of a
+     *  queue of event objects, see {@link Simulator#useHeap}.
+     *  With {@code -queue=wheel} they are kept in a timing wheel of
+     *  <i>b</i> buckets, 256 by default, each covering time <i>w</i>,
+     *  0.01 by default, see {@link Simulator#useWheel}.
+     *  With {@code -ordered} they are kept in a heap that breaks ties by
+     *  kind and target, see {@link Simulator#useOrderedHeap}, and with
+     *  {@code -threads=}<i>n</i> a packed network is simulated the same
+     *  way by <i>n</i> threads, see {@link ParallelSimulator}.
+     *  With {@code -ticks=}<i>r</i> a packed network is simulated with
+     *  time kept in whole ticks of <i>r</i>, instead of floats, and ties
+     *  broken in the order events were scheduled, whatever queue is
+     *  asked for, see {@link Simulator#useTicks}.
+     *  With {@code -clock=}<i>dt</i> a packed network is simulated in
+     *  fixed steps of <i>dt</i> instead of event by event, with delays
+     *  rounded to whole steps, see {@link ClockSimulator}.
+     *  With {@code -raster=}<i>file</i> every spike is also recorded in
+     *  the file with its exact time, see {@link SpikeRaster}.
+     *  With {@code -decay=fast} voltages decay by a table and polynomial
+     *  instead of {@code Math.exp}, to within a small relative error,
+     *  see {@link Decay}; {@code -decay=exact}, the default, does not.
+     *  With {@code -checkpoint=}<i>file</i> a checkpoint is kept in the
+     *  file, replaced every <i>t</i> of simulated time, 1 by default;
+     *  with {@code -restore=}<i>file</i> the simulation goes on from
+     *  the checkpoint in the file, given the same network and options.
+     *  See {@link Checkpoint}.
+     *  With {@code -daemon=}<i>port</i> the simulation is not run to its
+     *  end but kept resident, and a client on the loopback port, or on
+     *  the Unix-domain socket at <i>path</i>, kicks neurons and runs it,
+     *  with at most <i>n</i> kicks pending, 65536 by default, and spikes
+     *  reported every <i>t</i>, 0.1 by default; see {@link SimulationDaemon}.
+     *  With {@code -sparse} each output line gives the time and the
+     *  counts of just the neurons that fired, and with
+     *  {@code -watch=}<i>a,b,...</i> output shows only the neurons
+     *  named; see {@link SimulationOutput#setSparse}.
+     *  With {@code -mapped=}<i>file</i> the synapses are simulated
+     *  from the topology file, mapped read-only and shared by all
+     *  processes on the host, and made from the text if it was not made
+     *  from this text already; see {@link MappedTopology}.  Its results
+     *  are those of {@code -batch}.
+     *  With {@code -processes=}<i>n</i> a packed network is simulated
+     *  as with {@code -threads=}<i>n</i>, but by <i>n</i> worker
+     *  processes on the host, connected over a Unix-domain socket, or
+     *  over loopback TCP with {@code -transport=tcp}; see
+     *  {@link DistributedSimulator}.
+     *  A network with {@code plasticity} declarations is always packed,
+     *  since only packed networks learn, see {@link Plasticity}.
+     *  The program runs one {@link Simulation}; a fatal error in it
+     *  ends the program with status 1.
+     * @see Simulation
      * @see initializeNetwork
      * @see printNetwork
      */
     public static void main(String[] args) {
-        if (args.length < 1) {
-            Errors.fatal( "missing file name" );
+        Simulation sim = new Simulation();
+        try {
+            run( sim, args );
+        } catch (Errors.Fatal e) {
+            System.exit( 1 );
+        }
+    }
+
+    /** Run the simulation the command line arguments call for
+     */
+    private static void run( Simulation sim, String[] args ) {
+        Errors errors = sim.errors;
+        String fileName = null;
+        boolean useCache = true;
+        boolean usePacked = false;
+        boolean batched = false;
+        boolean useHeap = false;
+        int arity = 4;
+        boolean useWheel = false;
+        float width = 0.01f;
+        int buckets = 256;
+        boolean ordered = false;
+        int threads = 0;
+        float dt = 0.0f;
+        double resolution = 0.0;
+        String raster = null;
+        String checkpoint = null;
+        float every = 1.0f;
+        String restore = null;
+        String daemon = null;
+        int pendingLimit = 65536;
+        float report = 0.1f;
+        boolean sparse = false;
+        String watch = null;
+        String mapped = null;
+        int processes = 0;
+        boolean tcp = false;
+        for (String arg: args) {
+            if ("-nocache".equals( arg )) {
+                useCache = false;
+            } else if ("-packed".equals( arg )) {
+                usePacked = true;
+            } else if ("-batch".equals( arg )) {
+                usePacked = true;
+                batched = true;
+            } else if ("-queue=heap".equals( arg )) {
+                useHeap = true;
+                useWheel = false;
+            } else if ("-queue=wheel".equals( arg )) {
+                useWheel = true;
+                useHeap = false;
+            } else if ("-queue=boxed".equals( arg )) {
+                useHeap = false;
+                useWheel = false;
+            } else if ("-ordered".equals( arg )) {
+                ordered = true;
+            } else if (arg.startsWith( "-threads=" )) {
+                threads = intOption( errors, arg );
+                ordered = true;
+                usePacked = true;
+            } else if (arg.startsWith( "-clock=" )) {
+                dt = floatOption( errors, arg );
+                if (!(dt > 0.0f)) errors.fatal( "-clock step must be positive" );
+                ordered = true;
+                usePacked = true;
+            } else if (arg.startsWith( "-ticks=" )) {
+                resolution = doubleOption( errors, arg );
+                if (!(resolution > 0.0)) errors.fatal( "-ticks resolution must be positive" );
+                usePacked = true;
+            } else if (arg.startsWith( "-arity=" )) {
+                arity = intOption( errors, arg );
+            } else if (arg.startsWith( "-width=" )) {
+                width = floatOption( errors, arg );
+            } else if (arg.startsWith( "-buckets=" )) {
+                buckets = intOption( errors, arg );
+            } else if (arg.startsWith( "-raster=" )) {
+                raster = arg.substring( 8 );
+            } else if ("-decay=fast".equals( arg )) {
+                sim.fastDecay = true;
+            } else if ("-decay=exact".equals( arg )) {
+                sim.fastDecay = false;
+            } else if (arg.startsWith( "-checkpoint=" )) {
+                checkpoint = arg.substring( 12 );
+            } else if (arg.startsWith( "-every=" )) {
+                every = floatOption( errors, arg );
+            } else if (arg.startsWith( "-restore=" )) {
+                restore = arg.substring( 9 );
+            } else if (arg.startsWith( "-daemon=" )) {
+                daemon = arg.substring( 8 );
+            } else if (arg.startsWith( "-pending=" )) {
+                pendingLimit = intOption( errors, arg );
+            } else if (arg.startsWith( "-report=" )) {
+                report = floatOption( errors, arg );
+            } else if ("-sparse".equals( arg )) {
+                sparse = true;
+            } else if (arg.startsWith( "-watch=" )) {
+                watch = arg.substring( 7 );
+            } else if (arg.startsWith( "-mapped=" )) {
+                mapped = arg.substring( 8 );
+            } else if (arg.startsWith( "-processes=" )) {
+                processes = intOption( errors, arg );
+                ordered = true;
+                usePacked = true;
+            } else if ("-transport=tcp".equals( arg )) {
+                tcp = true;
+            } else if ("-transport=unix".equals( arg )) {
+                tcp = false;
+            } else if (arg.startsWith( "-" )) {
+                errors.fatal( arg + " -- unknown option" );
+            } else if (fileName != null) {
+                errors.fatal( "too many arguments" );
+            } else {
+                fileName = arg;
+            }
+        }
+        if (fileName == null) {
+            errors.fatal( "missing file name" );
+        }
+        if (useHeap) sim.simulator.useHeap( arity );
+        if (useWheel) sim.simulator.useWheel( width, buckets );
+        if (ordered) sim.simulator.useOrderedHeap( arity );
+        if (resolution > 0.0) {
+            if (batched || (threads > 0) || (dt > 0.0f)) {
+                errors.fatal( "-ticks cannot be used with -batch, -threads or -clock" );
+            }
+            sim.simulator.useTicks( resolution );
+        }
+        if ((threads > 0) && batched) {
+            errors.fatal( "-batch and -threads cannot be used together" );
         }
-        if (args.length > 1) {
-            Errors.fatal( "too many arguments" );
+        if ((threads > 0) && (dt > 0.0f)) {
+            errors.fatal( "-clock and -threads cannot be used together" );
         }
+        if (((threads > 0) || (dt > 0.0f))
+        &&  ((checkpoint != null) || (restore != null))) {
+            errors.fatal( "-threads and -clock cannot be used with checkpoints" );
+        }
+        if ((daemon != null)
+        &&  ((threads > 0) || (dt > 0.0f) || (checkpoint != null) || (raster != null))) {
+            errors.fatal( "-daemon cannot be used with -threads, -clock, -checkpoint or -raster" );
+        }
+        if ((mapped != null)
+        &&  (usePacked || (threads > 0) || (dt > 0.0f) || (resolution > 0.0))) {
+            errors.fatal( "-mapped cannot be used with -packed, -batch, -threads, -clock or -ticks" );
+        }
+        if ((processes > 0)
+        &&  (batched || (threads > 0) || (dt > 0.0f) || (resolution > 0.0)
+            || (mapped != null) || (daemon != null) || (raster != null)
+            || (checkpoint != null) || (restore != null))) {
+            errors.fatal( "-processes cannot be used with -batch, -threads, -clock, -ticks,"
+                + " -mapped, -daemon, -raster or checkpoints" );
+        }
+        if (!(every > 0.0f)) errors.fatal( "-every must be positive" );
         try {
-            initializeNetwork( new Scanner(new File(args[0])) );
+            if (mapped != null) {
+                sim.readMapped( new File( fileName ), new File( mapped ) );
+            } else if (usePacked) {
+                sim.readPacked( new File( fileName ), useCache, batched );
+            } else {
+                sim.read( new File( fileName ), useCache );
+            }
         } catch (FileNotFoundException e) {
-            Errors.fatal( "file not found: " + args[0] );
+            errors.fatal( "file not found: " + fileName );
         }
-        if (Errors.errCount == 0){
-            Simulator.run();
+        if (errors.errCount == 0){
+            if (sparse) sim.output.setSparse();
+            if (watch != null) {
+                for (String name: watch.split( "," )) {
+                    if (!sim.output.watch( name )) {
+                        errors.fatal( "-watch -- no such neuron " + name );
+                    }
+                }
+            }
+            if ((usePacked || !sim.network.rules.isEmpty())
+            &&  (sim.network.packed == null)) {
+                sim.pack( batched );
+            }
+            if (raster != null) {
+                try {
+                    sim.record( new File( raster ) );
+                } catch (IOException e) {
+                    errors.fatal( "cannot record spikes in " + raster );
+                }
+            }
+            if (restore != null) {
+                try {
+                    new Checkpoint( sim ).restore( new File( restore ) );
+                } catch (IOException e) {
+                    errors.fatal( "cannot restore -- " + e.getMessage() );
+                }
+            }
+            if (daemon != null) {
+                try {
+                    new SimulationDaemon( sim, daemon, pendingLimit, report ).serve();
+                } catch (IOException e) {
+                    errors.fatal( "daemon -- " + e.getMessage() );
+                }
+            } else if (threads > 0) {
+                sim.run( threads );
+            } else if (processes > 0) {
+                List <String> workerArgs = new ArrayList <String> ();
+                if (!useCache) workerArgs.add( "-nocache" );
+                if (sim.fastDecay) workerArgs.add( "-decay=fast" );
+                workerArgs.add( new File( fileName ).getAbsolutePath() );
+                try {
+                    sim.runDistributed( processes, workerArgs, tcp );
+                } catch (IOException e) {
+                    errors.fatal( "-processes -- " + e.getMessage() );
+                }
+            } else if (dt > 0.0f) {
+                sim.runClocked( dt );
+            } else if (checkpoint != null) {
+                try {
+                    new Checkpoint( sim ).run( every, new File( checkpoint ) );
+                } catch (IOException e) {
+                    errors.fatal( "cannot checkpoint -- " + e.getMessage() );
+                }
+            } else {
+                sim.run();
+            }
         } else {
-            printNetwork();
+            sim.network.printNetwork( System.out );
         }
     }
 }
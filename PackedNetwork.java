@@ -0,0 +1,423 @@
+// PackedNetwork.java
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+
+/** The network packed into arrays, for fast simulation of big networks
+ *  Neuron state is kept in primitive arrays indexed by neuron number,
+ *  in the order of {@link NeuronNetwork#neurons}.  Outgoing synapses are
+ *  kept in compressed sparse rows: those of neuron {@code n} are numbered
+ *  {@code first[n]} up to {@code first[n+1]}, in the order they are in
+ *  {@link Neuron#synapses}, and each has its kind, its target, its delay
+ *  and its strength in parallel arrays.  The target of a primary synapse
+ *  is a neuron number; that of a secondary synapse is the number of the
+ *  primary synapse whose strength it changes.
+ *  This takes 13 bytes per synapse, against over 100 for a synapse object
+ *  with its boxed fields and list nodes, and a spike fans out by walking
+ *  consecutive array elements.  The simulation methods here do exactly
+ *  what {@link Neuron#fire}, {@link Neuron#kick},
+ *  {@link PrimarySynapse#fire} and {@link SecondarySynapse#fire} do.
+ *
+ *  A network may be packed with its fan-out batched.  Then each row of
+ *  outgoing synapses is sorted by delay, keeping declaration order among
+ *  equal delays, and a firing schedules one spike cursor instead of one
+ *  event per synapse.  The cursor delivers all synapses with the same
+ *  delay in one pass, then goes back in the queue at the next distinct
+ *  delay; the times at which each synapse delivers are exactly as before,
+ *  but events at equal times may be handled in another order.
+ *
+ *  Primary synapses named in {@code plasticity} declarations also
+ *  change strength as their neurons fire, see {@link Plasticity}.
+ *
+ *  Only the neuron state and the strengths change as a network is
+ *  simulated, so many simulations of one network may share the rest,
+ *  see {@link ParameterSweep}.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see Neuron
+ *  @see Synapse
+ *  @see Simulator
+ */
+class PackedNetwork {
+    static final byte PRIMARY = 0;
+    static final byte SECONDARY = 1;
+
+    private final Simulation sim; // the simulation this network is in
+
+    // neuron state, indexed by neuron number
+    final float[] threshold;
+    final float[] voltage;
+    final float[] time;
+    final long[] tick;      // the same, with time kept in ticks
+    final int[] fireCount;
+
+    // outgoing synapses, indexed by synapse number, in rows by source
+    final int[] first;
+    final byte[] kind;
+    final int[] target;     // neuron, or synapse for secondary synapses
+    final float[] delay;
+    final float[] strength;
+
+    // is fan-out batched, with rows sorted by delay
+    final boolean batched;
+
+    // how the strengths of primary synapses learn, or null if they do not
+    final Plasticity plasticity;
+
+    // spikes in progress when batched, indexed by cursor number
+    private int[] cursorEdge = new int[256];    // next synapse to deliver
+    private int[] cursorEnd = new int[256];     // end of its row
+    private float[] cursorTime = new float[256]; // when the neuron fired
+    private int[] freeCursors = new int[256];
+    private int free = 0;
+    private int cursors = 0;    // cursor numbers ever used
+
+    /** Pack the network of a simulation
+     *  @param sim  the simulation, whose network should have been read
+     *  without errors
+     *  @param batched  if true, fan-out is batched by delay
+     */
+    PackedNetwork( Simulation sim, boolean batched ) {
+        this.sim = sim;
+        this.batched = batched;
+        LinkedList <Neuron> neurons = sim.network.neurons;
+        int n = neurons.size();
+        threshold = new float[n];
+        voltage = new float[n];
+        time = new float[n];
+        tick = new long[n];
+        fireCount = new int[n];
+        first = new int[n + 1];
+
+        // number the neurons and their outgoing synapses
+        IdentityHashMap <Object,Integer> number
+            = new IdentityHashMap <Object,Integer> ();
+        int i = 0;
+        int e = 0;
+        for (Neuron nr: neurons) {
+            number.put( nr, i );
+            threshold[i] = nr.getThreshold();
+            voltage[i] = nr.getVoltage();
+            first[i] = e;
+            for (Synapse s: nr.synapses) number.put( s, e++ );
+            i++;
+        }
+        first[n] = e;
+
+        kind = new byte[e];
+        target = new int[e];
+        delay = new float[e];
+        strength = new float[e];
+        e = 0;
+        for (Neuron nr: neurons) {
+            for (Synapse s: nr.synapses) {
+                Object dst;
+                if (s instanceof PrimarySynapse) {
+                    kind[e] = PRIMARY;
+                    dst = ((PrimarySynapse)s).destination;
+                } else {
+                    kind[e] = SECONDARY;
+                    dst = ((SecondarySynapse)s).destination;
+                }
+                Integer t = (dst == null) ? null : number.get( dst );
+                target[e] = (t == null) ? -1 : t; // -1 for no effect
+                delay[e] = s.delay;
+                strength[e] = s.strength;
+                e++;
+            }
+        }
+        if (batched) sortRows();
+        plasticity = Plasticity.of( sim, this );
+    }
+
+    /** Pack a network from its rows of synapses, as compiled
+     *  The neurons must be declared in the simulation, with no synapse
+     *  objects; the rows are numbered and given as in the arrays here,
+     *  before any batching, and are used, not copied.
+     *  @param sim  the simulation
+     *  @param batched  if true, fan-out is batched by delay
+     *  @see CompiledNetwork#loadPacked
+     */
+    PackedNetwork(
+        Simulation sim, boolean batched, int[] first,
+        byte[] kind, int[] target, float[] delay, float[] strength
+    ) {
+        this.sim = sim;
+        this.batched = batched;
+        LinkedList <Neuron> neurons = sim.network.neurons;
+        int n = neurons.size();
+        threshold = new float[n];
+        voltage = new float[n];
+        time = new float[n];
+        tick = new long[n];
+        fireCount = new int[n];
+        int i = 0;
+        for (Neuron nr: neurons) {
+            threshold[i] = nr.getThreshold();
+            voltage[i] = nr.getVoltage();
+            i++;
+        }
+        this.first = first;
+        this.kind = kind;
+        this.target = target;
+        this.delay = delay;
+        this.strength = strength;
+        if (batched) sortRows();
+        plasticity = Plasticity.of( sim, this );
+    }
+
+    /** A copy of a packed network, sharing its topology, for another simulation
+     *  The synapse rows, kinds, targets and delays are shared with the
+     *  original, and never changed by either; thresholds, voltages and
+     *  strengths, which a simulation or its user may change, are copied.
+     *  The original should not have been simulated yet.
+     *  @param net  the network to copy
+     *  @param sim  the simulation the copy is part of
+     */
+    PackedNetwork( PackedNetwork net, Simulation sim ) {
+        this.sim = sim;
+        this.batched = net.batched;
+        first = net.first;
+        kind = net.kind;
+        target = net.target;
+        delay = net.delay;
+        threshold = net.threshold.clone();
+        voltage = net.voltage.clone();
+        strength = net.strength.clone();
+        time = new float[voltage.length];
+        tick = new long[voltage.length];
+        fireCount = new int[voltage.length];
+        plasticity = (net.plasticity == null)
+            ? null
+            : new Plasticity( net.plasticity, sim, this );
+    }
+
+    /** Sort each row of synapses by delay, keeping order among equals
+     *  Delays are not negative in a network read without errors, so
+     *  their bits order as the delays do.
+     */
+    private void sortRows() {
+        int synapses = kind.length;
+        long[] key = new long[synapses]; // delay bits, then old number
+        for (int e = 0; e < synapses; e++) {
+            key[e] = ((long)Float.floatToIntBits( delay[e] ) << 32) | e;
+        }
+        for (int n = 0; n + 1 < first.length; n++) {
+            Arrays.sort( key, first[n], first[n + 1] );
+        }
+
+        int[] renumber = new int[synapses]; // new number of each old one
+        for (int e = 0; e < synapses; e++) renumber[(int)key[e]] = e;
+        byte[] k = kind.clone();
+        int[] t = target.clone();
+        float[] d = delay.clone();
+        float[] s = strength.clone();
+        for (int e = 0; e < synapses; e++) {
+            int old = (int)key[e];
+            kind[e] = k[old];
+            delay[e] = d[old];
+            strength[e] = s[old];
+            target[e] = ((k[old] == SECONDARY) && (t[old] >= 0))
+                ? renumber[t[old]]
+                : t[old];
+        }
+    }
+
+    /** Start the simulation over on this packed network
+     *  Events already scheduled for the neuron objects are discarded; the
+     *  initial firings and output events are scheduled again, in the
+     *  order they were declared, so that ties come out the same way, and
+     *  then the next kick of each stimulus file.
+     */
+    void start() {
+        Simulator simulator = sim.simulator;
+        SimulationOutput output = sim.output;
+        simulator.clear();
+        int o = 0;
+        int[] after = new int[output.declaredAfter.size()];
+        for (int a: output.declaredAfter) after[o++] = a;
+        o = 0;
+        for (int n = 0; n < voltage.length; n++) {
+            while ((o < after.length) && (after[o] == n)) {
+                output.start();
+                o++;
+            }
+            //  if voltage exceeds threshold (non-inclusive) the neuron fires
+            if (voltage[n] > threshold[n]) {
+                simulator.schedule( 0.0f, Simulator.FIRE, n );
+            }
+        }
+        for (; o < after.length; o++) output.start();
+        for (Stimulus s: sim.stimuli) s.start();
+    }
+
+    // simulation methods
+
+    /** Neuron n fires, as in {@link Neuron#fire}
+     */
+    void fire( int n, float time ) {
+        fireCount[n] = fireCount[n] + 1;
+        if (fireCount[n] == 1) sim.output.fired( n );
+        voltage[n] = 0.0f;
+        if (sim.raster != null) sim.raster.record( n, time );
+        if (SimulationMetrics.ENABLED) sim.simulator.probe.spike( n );
+        FlightEvents.fire( n, time );
+        if (plasticity != null) plasticity.fire( n, time );
+        if (batched) {
+            if (first[n] < first[n + 1]) {
+                int c = newCursor();
+                cursorEdge[c] = first[n];
+                cursorEnd[c] = first[n + 1];
+                cursorTime[c] = time;
+                sim.simulator.schedule(
+                    time + delay[first[n]], Simulator.SPIKE, c
+                );
+            }
+        } else {
+            for (int e = first[n]; e < first[n + 1]; e++) {
+                sim.simulator.scheduleAfter( delay[e], Simulator.DELIVER, e );
+            }
+        }
+    }
+
+    /** Spike cursor c reaches its next delay; deliver all at that delay
+     *  Then reschedule the cursor at the next distinct delay, if any.
+     */
+    void propagate( int c, float time ) {
+        int e = cursorEdge[c];
+        int end = cursorEnd[c];
+        float d = delay[e];
+        do {
+            deliver( e, time );
+            e++;
+        } while ((e < end) && (delay[e] == d));
+        if (e < end) {
+            cursorEdge[c] = e;
+            sim.simulator.schedule(
+                cursorTime[c] + delay[e], Simulator.SPIKE, c
+            );
+        } else {
+            freeCursors[free++] = c;
+        }
+    }
+
+    /** Get an unused cursor number, recycling those of finished spikes
+     */
+    private int newCursor() {
+        if (free > 0) return freeCursors[--free];
+        if (cursors == cursorEdge.length) {
+            int size = cursors * 2;
+            cursorEdge = Arrays.copyOf( cursorEdge, size );
+            cursorEnd = Arrays.copyOf( cursorEnd, size );
+            cursorTime = Arrays.copyOf( cursorTime, size );
+            freeCursors = Arrays.copyOf( freeCursors, size );
+        }
+        return cursors++;
+    }
+
+    /** Neuron n is kicked by an incoming synapse, as in {@link Neuron#kick}
+     *  With time kept in ticks, the time since the last kick is taken
+     *  from the ticks, so it is exact however late in the run.
+     */
+    void kick( int n, float time, float strength ) {
+        float v1 = voltage[n];
+        // v2 = v1 e^(t1-t2) + s
+        float gap;
+        double resolution = sim.simulator.resolution();
+        if (resolution > 0.0) {
+            long now = sim.simulator.tick();
+            gap = (float)((now - tick[n]) * resolution);
+            tick[n] = now;
+        } else {
+            gap = time - this.time[n];
+        }
+        float decay = sim.fastDecay
+            ? Decay.fast( gap )
+            : (float)Math.exp( -gap );
+        voltage[n] = (v1 * decay) + strength;
+        this.time[n] = time;
+        if (voltage[n] > threshold[n]) this.fire( n, time );
+    }
+
+    /** Synapse s delivers a spike, as in {@link PrimarySynapse#fire}
+     *  and {@link SecondarySynapse#fire}
+     */
+    void deliver( int s, float time ) {
+        int t = target[s];
+        if (t < 0) return;
+        if (kind[s] == PRIMARY) {
+            FlightEvents.delivery( t, false, strength[s], time );
+            kick( t, time, strength[s] );
+        } else {
+            FlightEvents.delivery( target[t], true, strength[s], time );
+            strength[t] += strength[s];
+        }
+    }
+
+    /** Get the current count of neuron n and reset the count
+     */
+    int getCount( int n ) {
+        int r = fireCount[n];
+        fireCount[n] = 0;
+        return r;
+    }
+
+    /** Save the state the simulation changes, for a checkpoint
+     *  That is the neuron state, the strengths, which secondary synapses
+     *  change, the spike cursors in progress and the traces of
+     *  plasticity, if any.
+     */
+    void write( DataOutputStream out ) throws IOException {
+        for (int n = 0; n < voltage.length; n++) {
+            out.writeFloat( voltage[n] );
+            out.writeFloat( time[n] );
+            out.writeLong( tick[n] );
+            out.writeInt( fireCount[n] );
+        }
+        for (float s: strength) out.writeFloat( s );
+        out.writeInt( cursors );
+        for (int c = 0; c < cursors; c++) {
+            out.writeInt( cursorEdge[c] );
+            out.writeInt( cursorEnd[c] );
+            out.writeFloat( cursorTime[c] );
+        }
+        out.writeInt( free );
+        for (int i = 0; i < free; i++) out.writeInt( freeCursors[i] );
+        out.writeBoolean( plasticity != null );
+        if (plasticity != null) plasticity.write( out );
+    }
+
+    /** Restore the state saved by {@code write}
+     */
+    void read( DataInputStream in ) throws IOException {
+        for (int n = 0; n < voltage.length; n++) {
+            voltage[n] = in.readFloat();
+            time[n] = in.readFloat();
+            tick[n] = in.readLong();
+            fireCount[n] = in.readInt();
+            if (fireCount[n] != 0) sim.output.fired( n );
+        }
+        for (int e = 0; e < strength.length; e++) strength[e] = in.readFloat();
+        cursors = in.readInt();
+        int size = Math.max( 256, cursors );
+        cursorEdge = new int[size];
+        cursorEnd = new int[size];
+        cursorTime = new float[size];
+        freeCursors = new int[size];
+        for (int c = 0; c < cursors; c++) {
+            cursorEdge[c] = in.readInt();
+            cursorEnd[c] = in.readInt();
+            cursorTime[c] = in.readFloat();
+        }
+        free = in.readInt();
+        for (int i = 0; i < free; i++) freeCursors[i] = in.readInt();
+        if (in.readBoolean() != (plasticity != null)) {
+            throw new IOException( "saved with other plasticity declarations" );
+        }
+        if (plasticity != null) plasticity.read( in );
+    }
+}
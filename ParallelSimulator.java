@@ -0,0 +1,362 @@
+// ParallelSimulator.java
+
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/** Conservative parallel simulation of a packed network
+ *  The neurons of a {@link PackedNetwork} are cut into partitions of
+ *  consecutive neuron numbers, each simulated by its own worker thread
+ *  with its own event queue.  A synapse belongs to the partition whose
+ *  state its delivery changes: for a primary synapse that of its
+ *  destination neuron, for a secondary synapse that of the primary
+ *  synapse it changes, which is read when that primary synapse delivers.
+ *  A synapse crossing partitions has a delay of at least the lookahead,
+ *  the least such delay, so in a window of time shorter than the
+ *  lookahead no partition can affect another.
+ *  The workers advance in lock-step windows.  Between windows each worker
+ *  takes the spikes the others sent it; then the window is chosen, from
+ *  the earliest pending event up to the lookahead later or to the next
+ *  output event, whichever is first; then each worker handles its events
+ *  in that window, putting spikes for other partitions in mailboxes, one
+ *  for each pair of partitions, each written by one thread and read by
+ *  one other after the next barrier, so they need no locks.  Output
+ *  events run between windows, when all fire counts are up to date, and
+ *  so are spikes recorded, each window's in the order of the partitions,
+ *  and the neurons that fired noted for sparse output.
+ *  Every queue here breaks ties by kind and target, so the result is
+ *  exactly that of the sequential simulation with an ordered heap,
+ *  see {@link Simulator#useOrderedHeap}.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see PackedNetwork
+ *  @see Simulator
+ */
+class ParallelSimulator {
+    private final Simulator simulator; // holds the output events
+    private final Simulation.SpikeRecord raster; // where spikes go, or null
+    private final SimulationOutput output;
+    private final boolean fastDecay;   // see Simulation.fastDecay
+    private final boolean sparse;      // see SimulationOutput.setSparse
+    private final SimulationMetrics metrics; // or null
+    private final PackedNetwork net;
+    private final int parts;
+    private final int[] owner;  // partition of each synapse's effect
+    private final float lookahead;
+    private final Worker[] workers;
+
+    // the current window, set between windows by the barrier action:
+    // events before windowEnd are handled, and those at windowEnd if
+    // their kind is less than windowKind; outputDue if output follows
+    private float windowEnd;
+    private int windowKind;
+    private boolean outputDue = false;
+    private boolean done = false;
+
+    // the first failure of a worker or of the barrier action, if any
+    private Throwable failure = null;
+
+    /** Spikes from one partition to another, in one window
+     *  Also the firings of one partition to record, with the neuron
+     *  in place of the synapse.
+     */
+    private static class Mailbox {
+        float[] times = new float[64];
+        int[] synapses = new int[64];
+        int count = 0;
+
+        void add( float time, int synapse ) {
+            if (count == times.length) {
+                times = Arrays.copyOf( times, count * 2 );
+                synapses = Arrays.copyOf( synapses, count * 2 );
+            }
+            times[count] = time;
+            synapses[count] = synapse;
+            count++;
+        }
+    }
+
+    /** One partition and the thread simulating it
+     */
+    private class Worker extends Thread {
+        final int part;
+        final EventHeap queue = new EventHeap( 4, true );
+        final Mailbox[] outbox = new Mailbox[parts]; // by destination
+        final Mailbox spikes = new Mailbox(); // firings, if recorded
+        final Mailbox changed = new Mailbox(); // counts become one, if sparse
+        float next;     // time of the earliest pending event
+        final SimulationMetrics.Probe probe; // counts, if enabled
+
+        Worker( int part ) {
+            this.part = part;
+            probe = (metrics != null) ? metrics.probe() : null;
+            if (probe != null) probe.depth = () -> queue.size();
+            for (int p = 0; p < parts; p++) outbox[p] = new Mailbox();
+            setDaemon( true );
+        }
+
+        /** Take in the spikes other partitions sent in the last window
+         */
+        void collect() {
+            for (Worker w: workers) {
+                Mailbox m = w.outbox[part];
+                for (int i = 0; i < m.count; i++) {
+                    long item = ((long)Simulator.DELIVER << 56) | m.synapses[i];
+                    if (SimulationMetrics.ENABLED) {
+                        probe.scheduled( m.times[i], item );
+                    }
+                    queue.add( m.times[i], item );
+                }
+                m.count = 0;
+            }
+            next = queue.isEmpty()
+                ? Float.POSITIVE_INFINITY
+                : queue.firstTime();
+        }
+
+        /** Handle this partition's events in the current window
+         */
+        void simulate() {
+            while (!queue.isEmpty()) {
+                float t = queue.firstTime();
+                long item = queue.firstItem();
+                int kind = (int)(item >>> 56);
+                if ((t > windowEnd)
+                || ((t == windowEnd) && (kind >= windowKind))) return;
+                queue.removeFirst();
+                if (SimulationMetrics.ENABLED) {
+                    probe.event( t );
+                    probe.triggered( t, item );
+                }
+                if (kind == Simulator.FIRE) {
+                    fire( (int)item, t );
+                } else {
+                    deliver( (int)item, t );
+                }
+            }
+        }
+
+        /** Synapse s delivers a spike, as in {@link PackedNetwork#deliver}
+         */
+        void deliver( int s, float time ) {
+            int t = net.target[s];
+            if (t < 0) return;
+            if (net.kind[s] == PackedNetwork.PRIMARY) {
+                FlightEvents.delivery( t, false, net.strength[s], time );
+                kick( t, time, net.strength[s] );
+            } else {
+                FlightEvents.delivery(
+                    net.target[t], true, net.strength[s], time
+                );
+                net.strength[t] += net.strength[s];
+            }
+        }
+
+        /** Neuron n is kicked, as in {@link PackedNetwork#kick}
+         */
+        void kick( int n, float time, float strength ) {
+            float v1 = net.voltage[n];
+            // v2 = v1 e^(t1-t2) + s
+            float decay = fastDecay
+                ? Decay.fast( time - net.time[n] )
+                : (float)Math.exp( net.time[n] - time );
+            net.voltage[n] = (v1 * decay) + strength;
+            net.time[n] = time;
+            if (net.voltage[n] > net.threshold[n]) fire( n, time );
+        }
+
+        /** Neuron n fires, as in {@link PackedNetwork#fire}
+         */
+        void fire( int n, float time ) {
+            net.fireCount[n] = net.fireCount[n] + 1;
+            if ((net.fireCount[n] == 1) && sparse) changed.add( time, n );
+            net.voltage[n] = 0.0f;
+            if (raster != null) spikes.add( time, n );
+            if (SimulationMetrics.ENABLED) probe.spike( n );
+            FlightEvents.fire( n, time );
+            for (int e = net.first[n]; e < net.first[n + 1]; e++) {
+                if (owner[e] == part) {
+                    long item = ((long)Simulator.DELIVER << 56) | e;
+                    if (SimulationMetrics.ENABLED) {
+                        probe.scheduled( time + net.delay[e], item );
+                    }
+                    queue.add( time + net.delay[e], item );
+                } else {
+                    outbox[owner[e]].add( time + net.delay[e], e );
+                }
+            }
+        }
+
+        public void run() {
+            try {
+                while (!done) {
+                    collect();
+                    barrier.await(); // the window is chosen
+                    if (done) return;
+                    simulate();
+                    barrier.await(); // output, if the window ends there
+                }
+            } catch (InterruptedException | BrokenBarrierException e) {
+                return; // another failed, or the run was abandoned
+            } catch (Throwable t) {
+                // here, or in the barrier action run by this thread;
+                // the others stop at their next barrier, or at once if
+                // they wait there already
+                fail( t );
+                for (Worker w: workers) if (w != this) w.interrupt();
+                barrier.reset();
+            }
+        }
+    }
+
+    /* really private, keep the first failure, to throw from run */
+    private synchronized void fail( Throwable t ) {
+        if (failure == null) failure = t;
+    }
+
+    private final CyclicBarrier barrier;
+    private boolean windowChosen = false; // which barrier comes next
+
+    /** Prepare to simulate a packed network in parallel
+     *  A network with plasticity or stimulus files is a fatal error.
+     *  @param sim  the simulation, with its network packed without
+     *  batching; the arrays of the packed network are shared by the
+     *  workers, each changing only its own part of them.
+     *  @param parts  the number of partitions and threads; if some
+     *  synapse crossing partitions has no delay, there is no lookahead
+     *  and one partition is used.
+     */
+    ParallelSimulator( Simulation sim, int parts ) {
+        this.simulator = sim.simulator;
+        this.raster = sim.raster;
+        this.output = sim.output;
+        this.sparse = sim.output.isSparse();
+        this.fastDecay = sim.fastDecay;
+        this.metrics = sim.metrics;
+        this.net = sim.network.packed;
+        PackedNetwork net = this.net;
+        if (net.plasticity != null) {
+            sim.errors.fatal( "plasticity cannot be simulated by several threads" );
+        }
+        if (!sim.stimuli.isEmpty()) {
+            sim.errors.fatal( "stimulus files cannot be simulated by several threads" );
+        }
+        int neurons = net.voltage.length;
+        int synapses = net.target.length;
+        parts = Math.max( 1, Math.min( parts, neurons ) );
+
+        int[] neuronPart = new int[neurons];
+        owner = new int[synapses];
+        float least = Float.POSITIVE_INFINITY;
+        for (int n = 0; n < neurons; n++) {
+            neuronPart[n] = (int)((long)n * parts / neurons);
+        }
+        for (int n = 0; n < neurons; n++) {
+            for (int e = net.first[n]; e < net.first[n + 1]; e++) {
+                int t = net.target[e];
+                if ((t >= 0) && (net.kind[e] == PackedNetwork.SECONDARY)) {
+                    t = net.target[t]; // the primary's destination
+                }
+                owner[e] = (t >= 0) ? neuronPart[t] : neuronPart[n];
+                if (owner[e] != neuronPart[n]) {
+                    least = Math.min( least, net.delay[e] );
+                }
+            }
+        }
+        if ((parts == 1) || !(least > 0.0f)) {
+            // no lookahead, so no parallelism; or none needed
+            parts = 1;
+            Arrays.fill( owner, 0 );
+            Arrays.fill( neuronPart, 0 );
+            least = Float.POSITIVE_INFINITY;
+        }
+        this.parts = parts;
+        this.lookahead = least;
+
+        workers = new Worker[parts];
+        for (int p = 0; p < parts; p++) workers[p] = new Worker( p );
+        barrier = new CyclicBarrier( parts, () -> betweenWindows() );
+
+        // initial firings go to their partitions, output to the simulator
+        simulator.clear();
+        for (int n = 0; n < neurons; n++) {
+            if (net.voltage[n] > net.threshold[n]) {
+                workers[neuronPart[n]].queue.add(
+                    0.0f, ((long)Simulator.FIRE << 56) | n
+                );
+            }
+        }
+        sim.output.startAll();
+    }
+
+    /** Barrier action: choose the next window, or run output events
+     */
+    private void betweenWindows() {
+        if (windowChosen) { // the window just ended
+            windowChosen = false;
+            if (raster != null) {
+                for (Worker w: workers) {
+                    Mailbox m = w.spikes;
+                    for (int i = 0; i < m.count; i++) {
+                        raster.record( m.synapses[i], m.times[i] );
+                    }
+                    m.count = 0;
+                }
+            }
+            for (Worker w: workers) {
+                Mailbox m = w.changed;
+                for (int i = 0; i < m.count; i++) output.fired( m.synapses[i] );
+                m.count = 0;
+            }
+            while (outputDue
+            &&     !simulator.isStopped()
+            &&     (simulator.nextTime() == windowEnd)
+            &&     (simulator.nextKind() == windowKind)) {
+                simulator.runNext();
+            }
+            if (simulator.isStopped()) done = true;
+            return;
+        }
+        windowChosen = true;
+        float earliest = Float.POSITIVE_INFINITY;
+        for (Worker w: workers) earliest = Math.min( earliest, w.next );
+        float output = simulator.nextTime();
+        if ((earliest == Float.POSITIVE_INFINITY)
+        &&  (output == Float.POSITIVE_INFINITY)) {
+            done = true;
+            return;
+        }
+        windowEnd = earliest + lookahead;
+        windowKind = Simulator.FIRE; // events at windowEnd wait
+        outputDue = false;
+        if (output < windowEnd) {
+            // not equal, a spike sent now may arrive at windowEnd
+            windowEnd = output;
+            windowKind = simulator.nextKind();
+            outputDue = true;
+        }
+    }
+
+    /** Run the simulation in parallel to its end
+     *  It ends when no events remain or when output ends the simulation.
+     *  If a worker, or output between windows, throws, all the workers
+     *  stop, and what was thrown is thrown from here once they have.
+     */
+    void run() {
+        for (Worker w: workers) w.start();
+        for (Worker w: workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+        Throwable t;
+        synchronized (this) {
+            t = failure;
+        }
+        if (t instanceof RuntimeException) throw (RuntimeException)t;
+        if (t instanceof Error) throw (Error)t;
+        if (t != null) throw new RuntimeException( t );
+    }
+}
@@ -0,0 +1,237 @@
+// ParameterSweep.java
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/** Run many variants of one network in parallel
+ *  The network is read once and packed; its topology, the synapse rows
+ *  with their kinds, targets and delays, is then shared by every variant,
+ *  see {@link PackedNetwork}.  Each variant is a task on a fork-join
+ *  pool, simulating its own {@link Simulation} with its own copy of
+ *  the little that changes: thresholds, voltages, fire counts and the
+ *  strengths that secondary synapses adjust.  Variants share nothing
+ *  they change, so throughput grows with the number of threads until
+ *  memory bandwidth runs out.
+ *  Each variant is described by a line of the variants file:
+ *  <pre>
+ *  variant <i>name scale thresholdNoise voltageNoise horizon</i>
+ *  </pre>
+ *  Every synapse strength is multiplied by <i>scale</i>; each threshold
+ *  and initial voltage is multiplied by 1 plus a normally distributed
+ *  number with standard deviation <i>thresholdNoise</i> or
+ *  <i>voltageNoise</i>, from a generator seeded by the variant name; and
+ *  the simulation stops at time <i>horizon</i>, after events at that
+ *  time, as when output ends it.  The result of each variant is the
+ *  number of times each neuron fired.
+ *  Events are kept in ordered heaps, so a variant with scale 1, no noise
+ *  and the horizon of the network's output counts exactly the firings
+ *  displayed by {@code java NeuronNetwork -packed -ordered}.
+ *  A network with stimulus files is a fatal error, as no variant
+ *  would see their kicks.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see PackedNetwork
+ *  @see Simulation
+ */
+class ParameterSweep {
+
+    /** One variant of the network
+     */
+    static class Variant {
+        String name;
+        float scale = 1.0f;         // multiplies every strength
+        float thresholdNoise = 0.0f; // relative deviation of thresholds
+        float voltageNoise = 0.0f;  // relative deviation of voltages
+        float horizon = 99.99f;     // when the simulation stops
+
+        Variant( String name ) {
+            this.name = name;
+        }
+
+        /** Scan a variant; the keyword {@code variant} was already read
+         */
+        Variant( Tokenizer sc ) {
+            name = ScanSupport.nextName( sc, () -> "variant ???" );
+            scale = ScanSupport.nextFloat( sc, () -> Variant.this.toString() );
+            thresholdNoise = ScanSupport.nextFloat(
+                sc, () -> Variant.this.toString()
+            );
+            voltageNoise = ScanSupport.nextFloat(
+                sc, () -> Variant.this.toString()
+            );
+            horizon = ScanSupport.nextFloat( sc, () -> Variant.this.toString() );
+            ScanSupport.lineEnd( sc, () -> Variant.this.toString() );
+        }
+
+        public String toString() {
+            return (
+                "variant " + name + " " + scale + " " +
+                thresholdNoise + " " + voltageNoise + " " + horizon
+            );
+        }
+    }
+
+    private final PackedNetwork topology; // shared by all variants
+
+    /** Prepare to run variants of a packed network
+     *  @param topology  the network, packed without batching and not
+     *  simulated; it is only read from here on.
+     */
+    ParameterSweep( PackedNetwork topology ) {
+        this.topology = topology;
+    }
+
+    /** Simulate one variant
+     *  @return the number of times each neuron fired, by neuron number
+     */
+    int[] run( Variant v ) {
+        Simulation sim = new Simulation();
+        sim.simulator.useOrderedHeap( 4 );
+        PackedNetwork net = new PackedNetwork( topology, sim );
+        sim.network.packed = net;
+
+        Random random = new Random( v.name.hashCode() );
+        for (int n = 0; n < net.threshold.length; n++) {
+            net.threshold[n] *=
+                1.0f + v.thresholdNoise * (float)random.nextGaussian();
+            net.voltage[n] *=
+                1.0f + v.voltageNoise * (float)random.nextGaussian();
+        }
+        for (int e = 0; e < net.strength.length; e++) {
+            net.strength[e] *= v.scale;
+        }
+
+        net.start(); // there are no output declarations in sim
+        sim.simulator.schedule(
+            new Simulator.Event( v.horizon ) {
+                void trigger() {
+                    sim.simulator.stop();
+                }
+            }
+        );
+        sim.simulator.run();
+        return net.fireCount;
+    }
+
+    /** Simulate all the variants on a fork-join pool
+     *  @param variants  the variants
+     *  @param threads  the parallelism of the pool
+     *  @return the fire counts of each variant, in the order given
+     */
+    int[][] run( List <Variant> variants, int threads ) {
+        List <Callable <int[]>> tasks = new ArrayList <Callable <int[]>> ();
+        for (Variant v: variants) tasks.add( () -> run( v ) );
+        ForkJoinPool pool = new ForkJoinPool( threads );
+        try {
+            List <Future <int[]>> done = pool.invokeAll( tasks );
+            int[][] counts = new int[done.size()][];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = done.get( i ).get();
+            }
+            return counts;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException( e );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /* really private, close the stimulus files the network opened */
+    private static void close( List <Stimulus> stimuli ) {
+        for (Stimulus s: stimuli) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // only read
+            }
+        }
+    }
+
+    /** Main program
+     *  Usage: {@code java ParameterSweep [-threads=}<i>n</i>{@code ]
+     *  [-nocache] network variants}; by default one thread per processor.
+     *  Prints a header line, then for each variant its name, the total
+     *  number of firings and the number for each neuron, in the order
+     *  the neurons were declared.
+     */
+    public static void main( String[] args ) {
+        Simulation base = new Simulation();
+        Errors errors = base.errors;
+        try {
+            int threads = Runtime.getRuntime().availableProcessors();
+            boolean useCache = true;
+            List <String> files = new ArrayList <String> ();
+            for (String arg: args) {
+                if (arg.startsWith( "-threads=" )) {
+                    try {
+                        threads = Integer.parseInt( arg.substring( 9 ) );
+                    } catch (NumberFormatException e) {
+                        threads = 0;
+                    }
+                    if (threads <= 0) {
+                        errors.fatal( arg + " -- expected a positive number" );
+                    }
+                } else if ("-nocache".equals( arg )) {
+                    useCache = false;
+                } else if (arg.startsWith( "-" )) {
+                    errors.fatal( arg + " -- unknown option" );
+                } else {
+                    files.add( arg );
+                }
+            }
+            if (files.size() != 2) {
+                errors.fatal( "expected a network file and a variants file" );
+            }
+
+            List <Variant> variants = new ArrayList <Variant> ();
+            try {
+                base.read( new File( files.get( 0 ) ), useCache );
+                if (!base.network.stimulusFiles.isEmpty()) {
+                    close( base.stimuli );
+                    errors.fatal( "stimulus files cannot be simulated in a sweep" );
+                }
+                try (Tokenizer sc = new Tokenizer( new File( files.get( 1 ) ), errors )) {
+                    while (sc.hasNext()) {
+                        if (sc.nextIs( "variant" )) {
+                            Variant v = new Variant( sc );
+                            if (v.name != null) variants.add( v );
+                        } else {
+                            errors.warning( sc.next() + " -- what is that" );
+                            sc.endLine();
+                        }
+                    }
+                }
+            } catch (FileNotFoundException e) {
+                errors.fatal( "file not found: " + e.getMessage() );
+            }
+            if (errors.errCount > 0) System.exit( 1 );
+
+            ParameterSweep sweep = new ParameterSweep(
+                new PackedNetwork( base, false )
+            );
+            int[][] counts = sweep.run( variants, threads );
+
+            StringBuilder line = new StringBuilder( "variant total" );
+            for (Neuron n: base.network.neurons) line.append( ' ' ).append( n.name );
+            System.out.println( line );
+            for (int i = 0; i < counts.length; i++) {
+                long total = 0;
+                for (int c: counts[i]) total += c;
+                line.setLength( 0 );
+                line.append( variants.get( i ).name ).append( ' ' ).append( total );
+                for (int c: counts[i]) line.append( ' ' ).append( c );
+                System.out.println( line );
+            }
+        } catch (Errors.Fatal e) {
+            System.exit( 1 );
+        }
+    }
+}
@@ -0,0 +1,136 @@
+// ParseBenchmark.java
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.regex.Pattern;
+
+/** Parse throughput of {@link Tokenizer} against {@link Scanner}
+ *  Writes a large network description of {@code neuron}, {@code synapse}
+ *  and {@code output} lines, then reads it repeatedly both ways, making
+ *  the same calls {@link ScanSupport} makes, and reports MB/s for each.
+ *  Only the text is scanned; no network is built.
+ *  Usage: {@code java ParseBenchmark [megabytes [rounds]]}
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see Tokenizer
+ */
+class ParseBenchmark {
+
+    // the patterns the Scanner version of ScanSupport used
+    private static final Pattern name = Pattern.compile( "[A-Za-z]\\w*" );
+    private static final Pattern noName = Pattern.compile( "-" );
+
+    /** Write a network of about the given size to f
+     *  One neuron line per ten synapse lines, named and unnamed synapses.
+     */
+    static void generate( File f, long bytes ) throws IOException {
+        Random r = new Random( 2820 );
+        try (BufferedWriter w = new BufferedWriter( new FileWriter( f ) )) {
+            long written = 0;
+            int neurons = 0;
+            while (written < bytes) {
+                String line = "neuron N" + neurons + " 10.0 " +
+                              (r.nextInt( 120 ) / 10.0f) + "\n";
+                neurons++;
+                for (int i = 0; i < 10; i++) {
+                    line = line + "synapse " +
+                        ((i % 3 == 0) ? "S" + neurons + "_" + i : "-") +
+                        " N" + r.nextInt( neurons ) +
+                        " N" + r.nextInt( neurons ) + " " +
+                        (r.nextInt( 10 ) + 1) / 10.0f + " " +
+                        (r.nextInt( 240 ) - 60) / 10.0f + "\n";
+                }
+                w.write( line );
+                written = written + line.length();
+            }
+            w.write( "output 1.0 100.0\n" );
+        }
+    }
+
+    /** Scan f as the Scanner version of ScanSupport did
+     *  @return a checksum of the numbers, so nothing is optimized away
+     */
+    static double scanWithScanner( File f ) throws IOException {
+        double sum = 0;
+        try (Scanner sc = new Scanner( f )) {
+            while (sc.hasNext()) {
+                String command = sc.next();
+                if ("neuron".equals( command )) {
+                    if (sc.hasNext( name )) sc.next( name );
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                } else if ("synapse".equals( command )) {
+                    if (sc.hasNext( noName )) {
+                        sc.next( noName );
+                    } else if (sc.hasNext( name )) {
+                        sc.next( name );
+                    }
+                    if (sc.hasNext( name )) sc.next( name );
+                    if (sc.hasNext( name )) sc.next( name );
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                } else if ("output".equals( command )) {
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                }
+                sc.nextLine();
+            }
+        }
+        return sum;
+    }
+
+    /** Scan f with a Tokenizer, as ScanSupport does now
+     *  @return a checksum of the numbers, so nothing is optimized away
+     */
+    static double scanWithTokenizer( File f ) throws IOException {
+        double sum = 0;
+        try (Tokenizer sc = new Tokenizer( f, new Errors( System.err ) )) {
+            while (sc.hasNext()) {
+                if (sc.nextIs( "neuron" )) {
+                    sc.nextName();
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                } else if (sc.nextIs( "synapse" )) {
+                    if (!sc.nextIs( "-" )) sc.nextName();
+                    sc.nextName();
+                    sc.nextName();
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                } else if (sc.nextIs( "output" )) {
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                    if (sc.hasNextFloat()) sum += sc.nextFloat();
+                }
+                sc.endLine();
+            }
+        }
+        return sum;
+    }
+
+    public static void main( String[] args ) throws IOException {
+        long megabytes = (args.length > 0) ? Long.parseLong( args[0] ) : 64;
+        int rounds = (args.length > 1) ? Integer.parseInt( args[1] ) : 5;
+
+        File f = File.createTempFile( "network", ".txt" );
+        f.deleteOnExit();
+        generate( f, megabytes << 20 );
+        double mb = f.length() / (double)(1 << 20);
+        System.out.printf( "%.1f MB of network description%n", mb );
+
+        for (int round = 1; round <= rounds; round++) {
+            long t0 = System.nanoTime();
+            double a = scanWithScanner( f );
+            long t1 = System.nanoTime();
+            double b = scanWithTokenizer( f );
+            long t2 = System.nanoTime();
+            if (a != b) System.err.println( "checksums differ: " + a + " " + b );
+            System.out.printf(
+                "round %d: Scanner %8.1f MB/s   Tokenizer %8.1f MB/s%n",
+                round, mb / ((t1 - t0) / 1e9), mb / ((t2 - t1) / 1e9)
+            );
+        }
+    }
+}
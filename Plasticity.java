@@ -0,0 +1,429 @@
+// Plasticity.java
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/** Spike-timing-dependent plasticity of the primary synapses of a packed network
+ *  A {@code plasticity} declaration in the network description makes
+ *  a group of primary synapses learn:
+ *  <pre>
+ *  plasticity source destination a+ tau+ a- tau- min max
+ *  </pre>
+ *  applies to every primary synapse from the source neuron to the
+ *  destination neuron, either of which may be {@code *} for any neuron.
+ *  Where several declarations match a synapse, the last one declared
+ *  applies.  When a neuron fires after a neuron that connects to it,
+ *  the synapse between them is strengthened by a+ e<sup>-dt/tau+</sup>,
+ *  dt being the time between the two firings; when it fires before, the
+ *  synapse is weakened by a- e<sup>-dt/tau-</sup>, summed over all
+ *  pairs of firings; strengths are kept from min to max.  Spike times
+ *  are those of firing, not of delivery, so a change to a synapse
+ *  applies to all spikes it delivers from then on, including those
+ *  already on their way.
+ *  The sums over pairs are kept as traces, each a sum of decaying
+ *  exponentials: one of each neuron's firings as a source, for each rule
+ *  of the plastic synapses out of it, and one of its firings as a
+ *  destination, for each rule of those into it; neurons no rule touches
+ *  have none.  A trace is only changed when its
+ *  neuron fires, and decayed lazily, from the time of its last firing to
+ *  the time it is read, so the cost of learning is a few operations for
+ *  each firing and each plastic synapse into or out of the neuron firing,
+ *  not for each synapse at each step of time.
+ *  Only a {@link PackedNetwork}, simulated by the {@link Simulator},
+ *  learns; the rules are resolved to synapse numbers when it is packed.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see PackedNetwork
+ *  @see NeuronNetwork
+ */
+class Plasticity {
+
+    /** One {@code plasticity} declaration
+     */
+    static class Rule {
+        final String sourceName;    // null for any neuron
+        final String dstName;       // null for any neuron
+        final float aPlus;
+        final float tauPlus;
+        final float aMinus;
+        final float tauMinus;
+        final float min;
+        final float max;
+
+        /** A rule already checked, from a compiled network
+         *  @see CompiledNetwork
+         */
+        Rule(
+            String sourceName, String dstName, float aPlus, float tauPlus,
+            float aMinus, float tauMinus, float min, float max
+        ) {
+            this.sourceName = sourceName;
+            this.dstName = dstName;
+            this.aPlus = aPlus;
+            this.tauPlus = tauPlus;
+            this.aMinus = aMinus;
+            this.tauMinus = tauMinus;
+            this.min = min;
+            this.max = max;
+        }
+
+        /** Scan one plasticity declaration
+         *  Neuron names are checked once the whole description is read,
+         *  see {@link check}.
+         *  @return the rule, or null if it is not usable
+         */
+        static Rule newRule( Simulation sim, Tokenizer sc ) {
+            String source = nextNeuron( sc, () -> "Plasticity ???" );
+            String dst = nextNeuron(
+                sc, () -> "Plasticity " + name( source ) + " ???"
+            );
+            String context = "Plasticity " + name( source ) + " " + name( dst );
+            float[] f = new float[6];
+            for (int i = 0; i < f.length; i++) {
+                f[i] = ScanSupport.nextFloat( sc, () -> context );
+            }
+            ScanSupport.lineEnd( sc, () -> context );
+            Rule r = new Rule( source, dst, f[0], f[1], f[2], f[3], f[4], f[5] );
+            if (!((r.tauPlus > 0.0f) && (r.tauMinus > 0.0f))) {
+                sim.errors.warning( r.toString() + " -- time constants must be positive" );
+                return null;
+            }
+            if (!(r.min <= r.max)) {
+                sim.errors.warning( r.toString() + " -- min exceeds max" );
+                return null;
+            }
+            return r;
+        }
+
+        /* really private, a neuron name or * for any, as null */
+        private static String nextNeuron(
+            Tokenizer sc, ScanSupport.ErrorMessage message
+        ) {
+            if (sc.nextIs( "*" )) return null;
+            String s = ScanSupport.nextName( sc, message );
+            return (s != null) ? s : "???";
+        }
+
+        /* really private, a neuron name as declared */
+        private static String name( String s ) {
+            return (s != null) ? s : "*";
+        }
+
+        /** Complain of names in this rule that are not neurons
+         *  Called once the whole network description has been read.
+         */
+        void check( Simulation sim ) {
+            for (String s: new String[] { sourceName, dstName }) {
+                if ((s != null) && (sim.network.findNeuron( s ) == null)) {
+                    sim.errors.warning( toString() + " -- no such neuron " + s );
+                }
+            }
+        }
+
+        /* really private, the number of a neuron named, or -1 for any */
+        private int number( Simulation sim, String s ) {
+            return (s == null) ? -1 : sim.network.findNeuron( s ).number;
+        }
+
+        public String toString() {
+            return (
+                "Plasticity " + name( sourceName ) + " " + name( dstName ) +
+                " " + aPlus + " " + tauPlus + " " + aMinus + " " + tauMinus +
+                " " + min + " " + max
+            );
+        }
+    }
+
+    private final Simulation sim;
+    private final PackedNetwork net;
+    private final Rule[] rules;
+
+    // shared with copies, never changed: the plastic synapses out of
+    // and into each neuron, in rows by neuron, each with the trace it
+    // reads: that of its destination, or of its source
+    private final int[] outFirst;
+    private final int[] outSynapse;
+    private final int[] outTrace;   // post trace of the destination
+    private final int[] inFirst;
+    private final int[] inSynapse;
+    private final int[] inSource;
+    private final int[] inTrace;    // pre trace of the source
+
+    // shared with copies: the traces of each neuron, one for each rule
+    // of the plastic synapses out of it (pre) or into it (post)
+    private final int[] preFirst;
+    private final short[] preRule;
+    private final int[] postFirst;
+    private final short[] postRule;
+
+    // traces, as of the last firing of their neuron
+    private final float[] pre;      // of its firings as a source
+    private final float[] post;     // of its firings as a destination
+    private final float[] last;     // time of the last firing
+
+    /** Resolve the rules of a network to the synapses of its packed form
+     *  The last rule declared for a pair of neurons is found from four
+     *  candidates, the rules for the pair, for the source and any
+     *  destination, for any source and the destination and for any
+     *  pair, so each synapse costs the same however many rules there are.
+     *  @param sim  the simulation, whose network has its rules
+     *  @param net  the packed network, its synapses numbered for good
+     *  @return the plasticity of the network, or null if it has no rules
+     */
+    static Plasticity of( Simulation sim, PackedNetwork net ) {
+        LinkedList <Rule> declared = sim.network.rules;
+        if (declared.isEmpty()) return null;
+        Rule[] rules = declared.toArray( new Rule[0] );
+        if (rules.length > Short.MAX_VALUE) {
+            sim.errors.fatal( "too many plasticity declarations" );
+        }
+        int neurons = net.voltage.length;
+        int any = -1;   // the last rule for any pair
+        int[] bySource = new int[neurons]; // for the source, any destination
+        int[] byDst = new int[neurons];     // for any source, the destination
+        Arrays.fill( bySource, -1 );
+        Arrays.fill( byDst, -1 );
+        HashMap <Long,Integer> byPair = new HashMap <Long,Integer> ();
+        for (int r = 0; r < rules.length; r++) {
+            int s = rules[r].number( sim, rules[r].sourceName );
+            int d = rules[r].number( sim, rules[r].dstName );
+            if ((s < 0) && (d < 0)) {
+                any = r;
+            } else if (d < 0) {
+                bySource[s] = r;
+            } else if (s < 0) {
+                byDst[d] = r;
+            } else {
+                byPair.put( ((long)s << 32) | d, r );
+            }
+        }
+
+        int[] ruleOf = new int[net.kind.length]; // for now, -1 if none
+        int[] outFirst = new int[neurons + 1];
+        int[] inFirst = new int[neurons + 1];
+        int plastic = 0;
+        for (int n = 0; n < neurons; n++) {
+            outFirst[n] = plastic;
+            for (int e = net.first[n]; e < net.first[n + 1]; e++) {
+                int t = net.target[e];
+                int rule = -1;
+                if ((net.kind[e] == PackedNetwork.PRIMARY) && (t >= 0)) {
+                    rule = Math.max( any, Math.max( bySource[n], byDst[t] ) );
+                    if (!byPair.isEmpty()) {
+                        Integer r = byPair.get( ((long)n << 32) | t );
+                        if (r != null) rule = Math.max( rule, r );
+                    }
+                }
+                ruleOf[e] = rule;
+                if (rule >= 0) {
+                    plastic++;
+                    inFirst[t + 1]++;
+                }
+            }
+        }
+        outFirst[neurons] = plastic;
+        if (plastic == 0) return null;
+
+        // rows of plastic synapses by source, then by destination
+        int[] outSynapse = new int[plastic];
+        int[] inSynapse = new int[plastic];
+        int[] inSource = new int[plastic];
+        for (int n = 0; n < neurons; n++) inFirst[n + 1] += inFirst[n];
+        int[] fill = Arrays.copyOf( inFirst, neurons );
+        int i = 0;
+        for (int n = 0; n < neurons; n++) {
+            for (int e = net.first[n]; e < net.first[n + 1]; e++) {
+                if (ruleOf[e] < 0) continue;
+                outSynapse[i++] = e;
+                int k = fill[net.target[e]]++;
+                inSynapse[k] = e;
+                inSource[k] = n;
+            }
+        }
+
+        // a trace for each rule of each row, found from the synapses
+        // in it; then each synapse is told the trace it reads
+        int[] preFirst = new int[neurons + 1];
+        int[] postFirst = new int[neurons + 1];
+        ShortList preRule = new ShortList();
+        ShortList postRule = new ShortList();
+        int[] seen = new int[rules.length];   // row a rule was last seen in
+        int[] slot = new int[rules.length];   // its trace in that row
+        int[] traceOf = ruleOf;               // reused, by synapse
+        Arrays.fill( seen, -1 );
+        for (int n = 0; n < neurons; n++) {
+            preFirst[n] = preRule.size;
+            for (i = outFirst[n]; i < outFirst[n + 1]; i++) {
+                int e = outSynapse[i];
+                int r = ruleOf[e];
+                if (seen[r] != n) {
+                    seen[r] = n;
+                    slot[r] = preRule.size;
+                    preRule.add( (short)r );
+                }
+                traceOf[e] = slot[r];
+            }
+        }
+        preFirst[neurons] = preRule.size;
+        int[] inTrace = new int[plastic];
+        for (int k = 0; k < plastic; k++) inTrace[k] = traceOf[inSynapse[k]];
+
+        Arrays.fill( seen, -1 );
+        for (int n = 0; n < neurons; n++) {
+            postFirst[n] = postRule.size;
+            for (int k = inFirst[n]; k < inFirst[n + 1]; k++) {
+                int e = inSynapse[k];
+                int r = preRule.get( inTrace[k] );
+                if (seen[r] != n) {
+                    seen[r] = n;
+                    slot[r] = postRule.size;
+                    postRule.add( (short)r );
+                }
+                traceOf[e] = slot[r];
+            }
+        }
+        postFirst[neurons] = postRule.size;
+        int[] outTrace = new int[plastic];
+        for (i = 0; i < plastic; i++) outTrace[i] = traceOf[outSynapse[i]];
+
+        return new Plasticity(
+            sim, net, rules,
+            outFirst, outSynapse, outTrace, inFirst, inSynapse, inSource, inTrace,
+            preFirst, preRule.toArray(), postFirst, postRule.toArray()
+        );
+    }
+
+    /** A growable list of shorts, for the rules of the traces
+     */
+    private static class ShortList {
+        short[] items = new short[64];
+        int size = 0;
+
+        void add( short s ) {
+            if (size == items.length) items = Arrays.copyOf( items, size * 2 );
+            items[size++] = s;
+        }
+
+        short get( int i ) {
+            return items[i];
+        }
+
+        short[] toArray() {
+            return Arrays.copyOf( items, size );
+        }
+    }
+
+    /* really private, the plasticity of a packed network, no traces yet */
+    private Plasticity(
+        Simulation sim, PackedNetwork net, Rule[] rules,
+        int[] outFirst, int[] outSynapse, int[] outTrace,
+        int[] inFirst, int[] inSynapse, int[] inSource, int[] inTrace,
+        int[] preFirst, short[] preRule, int[] postFirst, short[] postRule
+    ) {
+        this.sim = sim;
+        this.net = net;
+        this.rules = rules;
+        this.outFirst = outFirst;
+        this.outSynapse = outSynapse;
+        this.outTrace = outTrace;
+        this.inFirst = inFirst;
+        this.inSynapse = inSynapse;
+        this.inSource = inSource;
+        this.inTrace = inTrace;
+        this.preFirst = preFirst;
+        this.preRule = preRule;
+        this.postFirst = postFirst;
+        this.postRule = postRule;
+        pre = new float[preRule.length];
+        post = new float[postRule.length];
+        last = new float[net.voltage.length];
+    }
+
+    /** A copy for a copy of the packed network, sharing the rules and
+     *  rows, with traces of its own
+     *  @see PackedNetwork#PackedNetwork(PackedNetwork,Simulation)
+     */
+    Plasticity( Plasticity p, Simulation sim, PackedNetwork net ) {
+        this(
+            sim, net, p.rules,
+            p.outFirst, p.outSynapse, p.outTrace,
+            p.inFirst, p.inSynapse, p.inSource, p.inTrace,
+            p.preFirst, p.preRule, p.postFirst, p.postRule
+        );
+    }
+
+    /* really private, the decay of a trace over a time */
+    private float decay( float gap, float tau ) {
+        return sim.fastDecay
+            ? Decay.fast( gap / tau )
+            : (float)Math.exp( -gap / tau );
+    }
+
+    /** Neuron n fires; change the strengths of its plastic synapses
+     *  Each synapse out of it is weakened by the trace of its
+     *  destination, each into it strengthened by the trace of its
+     *  source, both as of now; then its own traces take the firing.
+     *  Called from {@link PackedNetwork#fire} before anything is sent.
+     */
+    void fire( int n, float time ) {
+        float[] strength = net.strength;
+        for (int i = outFirst[n]; i < outFirst[n + 1]; i++) {
+            int e = outSynapse[i];
+            int t = net.target[e];
+            int k = outTrace[i];
+            Rule r = rules[postRule[k]];
+            float y = post[k] * decay( time - last[t], r.tauMinus );
+            strength[e] = Math.max( r.min, strength[e] - r.aMinus * y );
+        }
+        for (int i = inFirst[n]; i < inFirst[n + 1]; i++) {
+            int e = inSynapse[i];
+            int s = inSource[i];
+            int k = inTrace[i];
+            Rule r = rules[preRule[k]];
+            float x = pre[k] * decay( time - last[s], r.tauPlus );
+            strength[e] = Math.min( r.max, strength[e] + r.aPlus * x );
+        }
+        float gap = time - last[n];
+        for (int k = preFirst[n]; k < preFirst[n + 1]; k++) {
+            pre[k] = pre[k] * decay( gap, rules[preRule[k]].tauPlus ) + 1.0f;
+        }
+        for (int k = postFirst[n]; k < postFirst[n + 1]; k++) {
+            post[k] = post[k] * decay( gap, rules[postRule[k]].tauMinus ) + 1.0f;
+        }
+        last[n] = time;
+    }
+
+    /** @return the number of synapses that learn
+     */
+    int synapses() {
+        return outSynapse.length;
+    }
+
+    /** Save the traces, for a checkpoint
+     */
+    void write( DataOutputStream out ) throws IOException {
+        out.writeInt( rules.length );
+        out.writeInt( pre.length );
+        out.writeInt( post.length );
+        for (float t: last) out.writeFloat( t );
+        for (float t: pre) out.writeFloat( t );
+        for (float t: post) out.writeFloat( t );
+    }
+
+    /** Restore the traces saved by {@code write}
+     */
+    void read( DataInputStream in ) throws IOException {
+        if ((in.readInt() != rules.length)
+        ||  (in.readInt() != pre.length)
+        ||  (in.readInt() != post.length)) {
+            throw new IOException( "saved with other plasticity declarations" );
+        }
+        for (int n = 0; n < last.length; n++) last[n] = in.readFloat();
+        for (int k = 0; k < pre.length; k++) pre[k] = in.readFloat();
+        for (int k = 0; k < post.length; k++) post[k] = in.readFloat();
+    }
+}
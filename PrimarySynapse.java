@@ -1,7 +1,6 @@
 // PrimarySynapse.java
 
 import java.util.LinkedList;
-import java.util.Scanner;
 
 /** Primary Synapses join neurons to neurons
  *  @author: Douglas W. Jones
@@ -29,6 +28,7 @@ class PrimarySynapse extends Synapse {
     // simulation methods
     void fire(float time) {
         // adjust the voltage of the destination
+        FlightEvents.delivery( destination.number, false, this.strength, time );
         destination.kick(time, this.strength);
     }
 
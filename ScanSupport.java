@@ -1,18 +1,16 @@
 // ScanSupport.java
 
-import java.util.regex.Pattern;
-import java.util.Scanner;
-
 /** Input scanning support methods
  *  This bundle of static methods provides services that read input using
- *  a Java {@link Scanner}, and if the input does not meet the stated
+ *  a {@link Tokenizer}, and if the input does not meet the stated
  *  requirement, report that using a call to the {@code warning} method
- *  in {@link Errors}.
+ *  of the {@link Errors} the tokenizer reports to, giving the line and
+ *  column where it happened.
  *  @author Douglas W. Jones 
  *  @author: Andy W.M. Arthur
  *  @author: Cody J. Hoffman
  *  @version 4/11/2016
- *  @see java.util.Scanner
+ *  @see Tokenizer
  *  @see Errors
  *
  *  This code is extracted from the April 6, 2016 version of NeuronNetwork.java,
@@ -38,7 +36,9 @@ public class ScanSupport {
     }
 
     /** Force there to be a line end here, complain if not
-     *  @param sc  the {@link Scanner} from which the input text is
+     *  Whatever is left of the current line is skipped, but nothing of
+     *  the next, so a bad line costs only itself.
+     *  @param sc  the {@link Tokenizer} from which the input text is
      *             being scanned
      *  @param message  the {@link ErrorMessage} to use if the input text
      *             is not currently positioned at a line end.
@@ -49,23 +49,26 @@ public class ScanSupport {
      *  (for example, string concatenations) are not done unless there
      *  is not a line end where one was expected.
      */
-    public static void lineEnd( Scanner sc, ErrorMessage message ) {
-        String skip = sc.nextLine();
-        if (!"".equals( skip )) {
+    public static void lineEnd( Tokenizer sc, ErrorMessage message ) {
+        int line = sc.line();
+        int column = sc.column();
+        if (!sc.endLine()) {
             // Bug:  do we want to allow comments here
-            Errors.warning(
+            sc.errors.warning(
                 message.myString() +
-                " -- expected a newline"
+                " -- expected a newline at line " + line +
+                " column " + column
             );
         }
-        // Bug:  what if sc.nextLine() was illegal (illegal state)
     }
 
-    /* really private to nextName */
-    private static final Pattern name = Pattern.compile( "[A-Za-z]\\w*" );
+    /* really private, the position of the next token for messages */
+    private static String at( Tokenizer sc ) {
+        return " at line " + sc.line() + " column " + sc.column();
+    }
 
     /** Get the next name, or complain if there isn't one
-     *  @param sc  the {@link Scanner} from which the input text is
+     *  @param sc  the {@link Tokenizer} from which the input text is
      *             being scanned
      *  @param message  the {@link ErrorMessage} to use if the input text
      *             is not currently positioned at a line end.
@@ -74,23 +77,23 @@ public class ScanSupport {
      *  expression, for example: {@code NextName(sc,()->"Line:"+n);}
      *  See {@link lineEnd} for the reason a lambda expression is used here.
      *  Names are defined as a letter followed by any number of letters
-     *  or digits using Java's {@link Pattern} recognition mechanisms.
-     *  @see java.util.regex.Pattern
+     *  or digits, see {@link Tokenizer#nextName}.
      */
-    public static String nextName( Scanner sc, ErrorMessage message ) {
-        if (sc.hasNext( name )) {
-            return sc.next( name );
+    public static String nextName( Tokenizer sc, ErrorMessage message ) {
+        String name = sc.nextName();
+        if (name != null) {
+            return name;
         } else {
-            Errors.warning(
+            sc.errors.warning(
                 message.myString() +
-                " -- expected a name"
+                " -- expected a name" + at( sc )
             );
             return null;
         }
     }
 
     /** Get the next int, or complain if there isn't one
-     *  @param sc  the {@link Scanner} from which the input text is
+     *  @param sc  the {@link Tokenizer} from which the input text is
      *             being scanned
      *  @param message  the {@link ErrorMessage} to use if the input text
      *             is not currently positioned at a line end.
@@ -99,20 +102,20 @@ public class ScanSupport {
      *  expression, for example: {@code NextName(sc,()->"Line:"+n);}
      *  See {@link lineEnd} for the reason a lambda expression is used here.
      */
-    public static int nextInt( Scanner sc, ErrorMessage message ) {
+    public static int nextInt( Tokenizer sc, ErrorMessage message ) {
         if (sc.hasNextInt()) {
             return sc.nextInt();
         } else {
-            Errors.warning(
+            sc.errors.warning(
                 message.myString() +
-                " -- expected an integer"
+                " -- expected an integer" + at( sc )
             );
             return 99;
         }
     }
 
     /** Get the next float, or complain if there isn't one
-     *  @param sc  the {@link Scanner} from which the input text is
+     *  @param sc  the {@link Tokenizer} from which the input text is
      *             being scanned
      *  @param message  the {@link ErrorMessage} to use if the input text
      *             is not currently positioned at a line end.
@@ -121,13 +124,13 @@ public class ScanSupport {
      *  expression, for example: {@code NextName(sc,()->"Line:"+n);}
      *  See {@link lineEnd} for the reason a lambda expression is used here.
      */
-    public static float nextFloat( Scanner sc, ErrorMessage message ) {
+    public static float nextFloat( Tokenizer sc, ErrorMessage message ) {
         if (sc.hasNextFloat()) {
             return sc.nextFloat();
         } else {
-            Errors.warning(
+            sc.errors.warning(
                 message.myString() +
-                " -- expected a number"
+                " -- expected a number" + at( sc )
             );
             return 99.99f;
         }
@@ -1,6 +1,5 @@
 // SecondarySynapse.java
 
-import java.util.Scanner;
 
 /** Secondary synapses join neurons to primary synapses
  *  @author: Douglas W. Jones
@@ -22,14 +21,21 @@ import java.util.Scanner;
 class SecondarySynapse extends Synapse {
     PrimarySynapse destination;
 
-    public SecondarySynapse( Synapse dst ) {
+    public SecondarySynapse( Errors errors, Synapse dst ) {
         // Called from Synapse.newSynapse() and nowhere else
         // All the field initialization and checking is done there,
         // except the following:
+        connect( errors, dst );
+    }
 
+    /** Set the primary synapse this one adjusts
+     *  Called from the initializer, or again by {@link Synapse} once
+     *  a forward reference to the destination has been resolved.
+     */
+    void connect( Errors errors, Synapse dst ) {
         if ( (dst != null)
         &&   (dst instanceof SecondarySynapse) ) {
-            Errors.warning(
+            errors.warning(
                 this.toString() +
                 " -- destination is a secondary synapse"
             );
@@ -41,6 +47,9 @@ class SecondarySynapse extends Synapse {
 
     // simulation methods
     void fire(float time) {
+        FlightEvents.delivery(
+            destination.destination.number, true, this.strength, time
+        );
         destination.strength += this.strength;
     }
 
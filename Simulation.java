@@ -0,0 +1,330 @@
+// Simulation.java
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/** One simulation of one network, with all the state it changes
+ *  A simulation owns its network, its pending events, its output and its
+ *  errors; nothing it changes is shared with any other, so any number
+ *  of simulations may run at once, each on its own thread, in one
+ *  program.  The main program in {@link NeuronNetwork} runs just one.
+ *  A simulation that ends, or meets a fatal error, returns from
+ *  {@code run} or throws {@link Errors.Fatal}; it never ends the program.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see NeuronNetwork
+ *  @see Simulator
+ *  @see SimulationOutput
+ *  @see Errors
+ */
+class Simulation {
+    final Errors errors;
+    final SimulationMetrics metrics; // null unless metrics are enabled
+    final NeuronNetwork network;
+    final Simulator simulator;
+    final SimulationOutput output;
+    SpikeRecord raster = null; // where spikes are recorded, if anywhere
+    final ArrayList <Stimulus> stimuli = new ArrayList <Stimulus> ();
+    boolean fastDecay = false; // if true, voltages decay by Decay.fast
+
+    /** Whatever is told of each spike as it happens, if anything
+     *  A {@link SpikeRaster}, or the counts a {@link SimulationDaemon}
+     *  sends its client.  It is closed, if it can be, when the
+     *  simulation finishes.
+     */
+    interface SpikeRecord {
+        /** Neuron n fired at the given time */
+        void record( int n, float time );
+    }
+
+    /** A new simulation with nothing in it yet
+     *  @param out  where the output display goes
+     *  @param err  where error messages go
+     */
+    Simulation( PrintStream out, PrintStream err ) {
+        errors = new Errors( err );
+        metrics = SimulationMetrics.ENABLED ? new SimulationMetrics( this ) : null;
+        network = new NeuronNetwork( this );
+        simulator = new Simulator( this );
+        output = new SimulationOutput( this, out );
+    }
+
+    /** A new simulation using the standard output and error streams
+     */
+    Simulation() {
+        this( System.out, System.err );
+    }
+
+    /** Read the network to simulate from its description
+     *  Choose the event queue, see {@link Simulator}, before this.
+     *  The stimulus files it declares are opened, and their first kicks
+     *  scheduled, see {@link Stimulus}.
+     *  @param source  the network description text
+     *  @param useCache  if true, load the compiled form of the text if it
+     *  is cached, and otherwise cache it, see {@link CompiledNetwork}
+     *  @throws FileNotFoundException if the source cannot be read
+     */
+    void read( File source, boolean useCache ) throws FileNotFoundException {
+        CompiledNetwork compiled = null;
+        if (useCache) compiled = new CompiledNetwork( source );
+        if ((compiled == null) || !compiled.load( this )) parse( source, compiled );
+        openStimuli( source );
+    }
+
+    /** Read the network to simulate, to simulate it packed
+     *  As {@link read}, but a network loaded from the cache is packed
+     *  and started at once, straight from its compiled form, with no
+     *  synapse objects made; otherwise pack it, see {@link pack}, once
+     *  it is read without errors.
+     *  @param source  the network description text
+     *  @param useCache  see {@link read}
+     *  @param batched  if true, fan-out is batched by delay
+     *  @throws FileNotFoundException if the source cannot be read
+     */
+    void readPacked( File source, boolean useCache, boolean batched )
+    throws FileNotFoundException {
+        CompiledNetwork compiled = null;
+        if (useCache) compiled = new CompiledNetwork( source );
+        if ((compiled != null) && compiled.loadPacked( this, batched )) {
+            openStimuli( source );
+            network.packed.start();
+        } else {
+            parse( source, compiled );
+            openStimuli( source );
+        }
+    }
+
+    /* really private, read the network from its text, and cache it in
+     * compiled form if there are no errors and a cache is used */
+    private void parse( File source, CompiledNetwork compiled )
+    throws FileNotFoundException {
+        try (Tokenizer sc = new Tokenizer( source, errors )) {
+            network.initializeNetwork( sc );
+        }
+        if ((compiled != null) && (errors.errCount == 0)) {
+            compiled.save( this );
+        }
+    }
+
+    /** Read the network to simulate from its mapped topology, see
+     *  {@link MappedTopology}, to simulate it from there
+     *  If the topology file is missing, or is a topology made from
+     *  another text or damaged, the file is made anew from the text,
+     *  with no synapse objects, see {@link MappedTopology#make}; a text
+     *  it cannot be made from is read as usual, to report its errors.
+     *  A file there that is not a topology is a fatal error, and left
+     *  as it is.  Choose the event queue before this; time may not be
+     *  kept in ticks.
+     *  @param source  the network description text
+     *  @param topology  the topology file
+     *  @throws FileNotFoundException if the source cannot be read
+     */
+    void readMapped( File source, File topology ) throws FileNotFoundException {
+        byte[] hash = CompiledNetwork.hashOf( source );
+        MappedTopology t = null;
+        try {
+            t = new MappedTopology( topology );
+            if (!t.matches( hash )) t = null;
+        } catch (IOException e) {
+            // missing or damaged, it will be made anew if it is a topology
+        }
+        if ((t == null) && topology.exists()) {
+            boolean stale = false;
+            try {
+                stale = MappedTopology.isTopology( topology );
+            } catch (IOException e) {
+                // unreadable, so not known to be one
+            }
+            if (!stale) {
+                errors.fatal( topology + " -- not a network topology, not replaced" );
+            }
+        }
+        if (t == null) {
+            try {
+                if (MappedTopology.make( source, hash, topology )) {
+                    t = new MappedTopology( topology );
+                }
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                errors.fatal( "cannot map " + topology + " -- " + e.getMessage() );
+            }
+        }
+        if (t == null) {
+            // read the text as usual, to report what is wrong with it
+            try (Tokenizer sc = new Tokenizer( source, errors )) {
+                network.initializeNetwork( sc );
+            }
+            if (errors.errCount > 0) return;
+            if (!network.rules.isEmpty()) {
+                errors.fatal( "plasticity cannot be simulated on a mapped network" );
+            }
+            errors.fatal( "cannot map " + topology );
+        }
+        t.declare( this );
+        openStimuli( source );
+        network.mapped = new MappedNetwork( this, t );
+        network.mapped.start();
+    }
+
+    /* really private, open the stimulus files the network declares,
+     * named relative to the directory of its text */
+    private void openStimuli( File source ) {
+        File dir = source.getAbsoluteFile().getParentFile();
+        for (String name: network.stimulusFiles) {
+            File f = new File( name );
+            if (!f.isAbsolute()) f = new File( dir, name );
+            try {
+                Stimulus s = new Stimulus( this, f, stimuli.size() );
+                stimuli.add( s );
+                s.start();
+            } catch (IOException e) {
+                errors.warning( "Stimulus " + f + " -- cannot be read" );
+            }
+        }
+    }
+
+    /** Pack the network read, to simulate it from arrays from now on
+     *  @param batched  if true, fan-out is batched by delay
+     *  @see PackedNetwork
+     */
+    void pack( boolean batched ) {
+        network.packed = new PackedNetwork( this, batched );
+        network.packed.start();
+    }
+
+    /** Record every spike from now on, with its time
+     *  Call this once the network is read; the record is finished when
+     *  the simulation runs to its end.
+     *  @param f  the file to record in, see {@link SpikeRaster}
+     */
+    void record( File f ) throws IOException {
+        raster = new SpikeRaster( f, network.neurons );
+    }
+
+    /** Run the simulation until output ends it or no events remain
+     *  It returns early if paused, see {@link Simulator#pause}.
+     */
+    void run() {
+        started();
+        simulator.run();
+        if (simulator.isDone()) finish();
+    }
+
+    /** Run the simulation up to a time, and return
+     *  Events up to and at the time are handled; the simulation may be
+     *  run further by calling this again, or {@link run}.
+     *  @return false if the simulation is over
+     *  @see Simulator#runUntil
+     */
+    boolean runUntil( float time ) {
+        started();
+        simulator.runUntil( time );
+        output.flush();
+        if (!simulator.isDone()) return true;
+        finish();
+        return false;
+    }
+
+    /** Handle at most n more events, and return
+     *  @return the number of events handled
+     *  @see Simulator#step
+     */
+    long step( long n ) {
+        started();
+        long done = simulator.step( n );
+        output.flush();
+        if (simulator.isDone()) finish();
+        return done;
+    }
+
+    /** Run the simulation up to a time, for more events to come later
+     *  As {@link runUntil}, except that running out of events does not
+     *  finish the simulation, since events may yet be scheduled from
+     *  outside; only output ending it does.
+     *  @return false if output has ended the simulation
+     */
+    boolean advance( float time ) {
+        started();
+        simulator.runUntil( time );
+        output.flush();
+        if (!simulator.isStopped()) return true;
+        finish();
+        return false;
+    }
+
+    /** Run the packed simulation in parallel, see {@link ParallelSimulator}
+     *  @param threads  the number of threads
+     */
+    void run( int threads ) {
+        started();
+        new ParallelSimulator( this, threads ).run();
+        finish();
+    }
+
+    /** Run the packed simulation in several processes, see
+     *  {@link DistributedSimulator}
+     *  @param processes  the number of worker processes
+     *  @param workerArgs  the options and file name the workers read
+     *  the network with
+     *  @param tcp  if true, workers connect over loopback TCP, else over
+     *  a Unix-domain socket
+     *  @throws IOException if a worker cannot be started or fails
+     */
+    void runDistributed( int processes, List <String> workerArgs, boolean tcp )
+    throws IOException {
+        started();
+        try {
+            new DistributedSimulator( this, processes ).run( workerArgs, tcp );
+        } finally {
+            finish();
+        }
+    }
+
+    /** Run the packed simulation in fixed time steps, see
+     *  {@link ClockSimulator}
+     *  @param dt  the time step
+     */
+    void runClocked( float dt ) {
+        started();
+        new ClockSimulator( this, dt ).run();
+        finish();
+    }
+
+    /** Show the metrics, if enabled, once the simulation runs
+     */
+    private void started() {
+        if (metrics != null) metrics.start();
+        if (!network.rules.isEmpty() && (network.packed == null)) {
+            errors.warning( "plasticity is only simulated on a packed network" );
+            network.rules.clear(); // said once
+        }
+    }
+
+    /** Push out the output and finish the record of spikes, if any
+     */
+    private void finish() {
+        output.flush();
+        if (metrics != null) metrics.stop();
+        for (Stimulus s: stimuli) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // only read
+            }
+        }
+        if (raster instanceof Closeable) {
+            try {
+                ((Closeable)raster).close();
+            } catch (IOException e) {
+                errors.warning( "spike raster -- " + e.getMessage() );
+            }
+        }
+        raster = null;
+    }
+}
@@ -0,0 +1,346 @@
+// SimulationBenchmark.java
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Benchmarks of parsing and simulation, from toy networks to large ones
+ *  Each benchmark is run for some warm-up rounds, then for some measured
+ *  rounds; in each round the operation is repeated until the round has
+ *  taken at least a fifth of a second, so that toy networks are measured
+ *  as well as large ones.  Setting up each operation, such as packing a
+ *  fresh copy of the network, is not timed.  For each benchmark the mean
+ *  and standard deviation of the time per operation over the measured
+ *  rounds is reported, with the mean rate of its units of work.
+ *  <ul>
+ *  <li>{@code parse}: reading the network text, uncached, in bytes per second;
+ *  <li>{@code events}: handling events through {@link Simulator#run},
+ *      in events per second, for the neuron and synapse objects and for
+ *      the {@link PackedNetwork} with each kind of event queue;
+ *  <li>{@code fanout}: the cost of each synapse delivery, at fan-outs of
+ *      10, 100 and 1000 with the same number of synapses, with and
+ *      without batching;
+ *  <li>{@code output}: simulating with output every 0.01 time units to
+ *      a stream that discards it, against no output at all.
+ *  </ul>
+ *  The scales are {@code toy}, the files {@code f} and {@code g} in the
+ *  current directory if they are there, and {@code small},
+ *  {@code medium} and {@code large} networks from
+ *  {@link NetworkGenerator} of 100 thousand, 1 million and 10 million
+ *  synapses, simulated to time 10 unless {@code -horizon=} says
+ *  otherwise.  The neuron and synapse objects are not simulated for
+ *  {@code large}; reading it still needs a heap of several gigabytes.
+ *  Usage: {@code java SimulationBenchmark [-scale=}<i>s</i>{@code ,...]
+ *  [-warmup=}<i>n</i>{@code ] [-rounds=}<i>n</i>{@code ] [-horizon=}<i>t</i>{@code ]
+ *  [benchmark ...]}; by default the toy and small scales, 2 warm-up and
+ *  5 measured rounds, and all benchmarks.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see NetworkGenerator
+ *  @see ParseBenchmark
+ */
+class SimulationBenchmark {
+    private int warmup = 2;
+    private int rounds = 5;
+    private float horizon = 10.0f;
+    private static final long ROUND_NANOS = 200000000L;
+
+    // output that goes nowhere, so only the cost of making it is measured
+    private static final PrintStream nowhere =
+        new PrintStream( OutputStream.nullOutputStream() );
+
+    /** One benchmark operation
+     */
+    private interface Trial {
+        /** Prepare for one operation; not timed
+         */
+        void setup() throws IOException;
+
+        /** Do the operation
+         *  @return the units of work done, as events or bytes
+         */
+        long run();
+    }
+
+    /** Run a trial for the warm-up and measured rounds and report it
+     */
+    private void measure(
+        String benchmark, String scale, String unit, Trial trial
+    ) throws IOException {
+        double[] perOp = new double[rounds];
+        double rate = 0.0;
+        for (int round = -warmup; round < rounds; round++) {
+            long ops = 0;
+            long units = 0;
+            long elapsed = 0;
+            while (elapsed < ROUND_NANOS) {
+                trial.setup();
+                long t0 = System.nanoTime();
+                units = units + trial.run();
+                elapsed = elapsed + (System.nanoTime() - t0);
+                ops++;
+            }
+            if (round >= 0) {
+                perOp[round] = elapsed / 1e6 / ops;
+                rate = rate + units / (elapsed / 1e9) / rounds;
+            }
+        }
+        double mean = 0.0;
+        for (double t: perOp) mean = mean + t / rounds;
+        double var = 0.0;
+        for (double t: perOp) var = var + (t - mean) * (t - mean) / rounds;
+        System.out.printf(
+            "%-28s %-7s %12.3f ms/op +- %8.3f %14.0f %s/s%n",
+            benchmark, scale, mean, Math.sqrt( var ), rate, unit
+        );
+    }
+
+    /** A network read fresh, without the cache
+     */
+    private static Simulation read( File f, PrintStream out ) throws IOException {
+        Simulation sim = new Simulation( out, System.err );
+        sim.read( f, false );
+        if (sim.errors.errCount > 0) throw new IOException( f + " has errors" );
+        return sim;
+    }
+
+    /** A fresh simulation of a copy of a packed network
+     *  @param net  the network, not simulated
+     *  @param base  the simulation it was read into, for its neurons
+     *  @param interval  how often to output, or 0 for no output
+     *  @param queue  how to keep events: heap, wheel or boxed
+     */
+    private Simulation copy(
+        PackedNetwork net, Simulation base, float interval, String queue
+    ) {
+        Simulation sim = new Simulation( nowhere, System.err );
+        if (queue.equals( "heap" )) sim.simulator.useHeap( 4 );
+        if (queue.equals( "wheel" )) sim.simulator.useWheel( 0.01f, 256 );
+        sim.network.packed = new PackedNetwork( net, sim );
+        if (interval > 0.0f) {
+            sim.network.neurons.addAll( base.network.neurons ); // names only
+            sim.output.setOutput( interval, horizon );
+        }
+        sim.network.packed.start();
+        stopAtHorizon( sim );
+        return sim;
+    }
+
+    /** Make a simulation stop at the horizon, if its output does not first
+     */
+    private void stopAtHorizon( Simulation sim ) {
+        sim.simulator.schedule(
+            new Simulator.Event( horizon ) {
+                void trigger() {
+                    sim.simulator.stop();
+                }
+            }
+        );
+    }
+
+    /** Synapse deliveries the firings in a simulation have caused
+     */
+    private static long deliveries( PackedNetwork net ) {
+        long d = 0;
+        for (int n = 0; n < net.fireCount.length; n++) {
+            d = d + (long)net.fireCount[n] * (net.first[n + 1] - net.first[n]);
+        }
+        return d;
+    }
+
+    private void parse( String scale, File f ) throws IOException {
+        measure( "parse", scale, "bytes", new Trial() {
+            public void setup() {}
+            public long run() {
+                try {
+                    read( f, nowhere );
+                } catch (IOException e) {
+                    throw new RuntimeException( e );
+                }
+                return f.length();
+            }
+        } );
+    }
+
+    private void events( String scale, File f, boolean objects )
+    throws IOException {
+        if (objects) {
+            measure( "events objects", scale, "events", new Trial() {
+                Simulation sim;
+                public void setup() throws IOException {
+                    sim = read( f, nowhere );
+                    stopAtHorizon( sim );
+                }
+                public long run() {
+                    sim.run();
+                    return sim.simulator.eventCount();
+                }
+            } );
+        }
+        Simulation base = read( f, nowhere );
+        PackedNetwork net = new PackedNetwork( base, false );
+        PackedNetwork batched = new PackedNetwork( base, true );
+        for (String queue: new String[] { "boxed", "heap", "wheel" }) {
+            measure( "events packed " + queue, scale, "events", new Trial() {
+                Simulation sim;
+                public void setup() {
+                    sim = copy( net, base, 0.0f, queue );
+                }
+                public long run() {
+                    sim.simulator.run();
+                    return sim.simulator.eventCount();
+                }
+            } );
+        }
+        measure( "events batched heap", scale, "events", new Trial() {
+            Simulation sim;
+            public void setup() {
+                sim = copy( batched, base, 0.0f, "heap" );
+            }
+            public long run() {
+                sim.simulator.run();
+                return sim.simulator.eventCount();
+            }
+        } );
+    }
+
+    private void fanout( String scale, long synapses ) throws IOException {
+        for (int fanOut: new int[] { 10, 100, 1000 }) {
+            NetworkGenerator g = new NetworkGenerator();
+            g.fanOut = fanOut;
+            g.neurons = (int)Math.max( 1, synapses / fanOut );
+            File f = generate( g );
+            Simulation base = read( f, nowhere );
+            f.delete();
+            for (boolean batch: new boolean[] { false, true }) {
+                PackedNetwork net = new PackedNetwork( base, batch );
+                measure(
+                    "fanout " + fanOut + (batch ? " batched" : ""),
+                    scale, "deliveries",
+                    new Trial() {
+                        Simulation sim;
+                        public void setup() {
+                            sim = copy( net, base, 0.0f, "heap" );
+                        }
+                        public long run() {
+                            sim.simulator.run();
+                            return deliveries( sim.network.packed );
+                        }
+                    }
+                );
+            }
+        }
+    }
+
+    private void output( String scale, File f ) throws IOException {
+        Simulation base = read( f, nowhere );
+        PackedNetwork net = new PackedNetwork( base, false );
+        for (float interval: new float[] { 0.0f, 0.01f }) {
+            measure(
+                (interval > 0.0f) ? "output every 0.01" : "output none",
+                scale, "events",
+                new Trial() {
+                    Simulation sim;
+                    public void setup() {
+                        sim = copy( net, base, interval, "heap" );
+                    }
+                    public long run() {
+                        sim.simulator.run();
+                        return sim.simulator.eventCount();
+                    }
+                }
+            );
+        }
+    }
+
+    /** Write a generated network to a temporary file
+     */
+    private static File generate( NetworkGenerator g ) throws IOException {
+        File f = File.createTempFile( "benchmark", ".txt" );
+        f.deleteOnExit();
+        g.write( f );
+        return f;
+    }
+
+    /** Main program, see the class comment for the arguments
+     */
+    public static void main( String[] args ) throws IOException {
+        Errors errors = new Errors( System.err );
+        SimulationBenchmark b = new SimulationBenchmark();
+        String[] scales = { "toy", "small" };
+        List <String> benchmarks = new ArrayList <String> ();
+        try {
+            for (String arg: args) {
+                String value = arg.substring( arg.indexOf( '=' ) + 1 );
+                try {
+                    if (arg.startsWith( "-scale=" )) {
+                        scales = value.split( "," );
+                    } else if (arg.startsWith( "-warmup=" )) {
+                        b.warmup = Integer.parseInt( value );
+                    } else if (arg.startsWith( "-rounds=" )) {
+                        b.rounds = Integer.parseInt( value );
+                    } else if (arg.startsWith( "-horizon=" )) {
+                        b.horizon = Float.parseFloat( value );
+                    } else if (arg.startsWith( "-" )) {
+                        errors.fatal( arg + " -- unknown option" );
+                    } else {
+                        benchmarks.add( arg );
+                    }
+                } catch (NumberFormatException e) {
+                    errors.fatal( arg + " -- expected a number" );
+                }
+            }
+            if (b.rounds <= 0) errors.fatal( "-rounds must be positive" );
+        } catch (Errors.Fatal e) {
+            System.exit( 1 );
+        }
+        List <String> all = List.of( "parse", "events", "fanout", "output" );
+        if (benchmarks.isEmpty()) benchmarks = all;
+        for (String benchmark: benchmarks) {
+            if (!all.contains( benchmark )) {
+                errors.warning( benchmark + " -- unknown benchmark" );
+            }
+        }
+
+        for (String scale: scales) {
+            List <File> files = new ArrayList <File> ();
+            long synapses;
+            if (scale.equals( "toy" )) {
+                for (String name: new String[] { "f", "g" }) {
+                    if (new File( name ).isFile()) files.add( new File( name ) );
+                }
+                synapses = 10000;
+            } else {
+                NetworkGenerator g = new NetworkGenerator();
+                if (scale.equals( "small" )) {
+                    g.neurons = 1000;
+                } else if (scale.equals( "medium" )) {
+                    g.neurons = 10000;
+                } else if (scale.equals( "large" )) {
+                    g.neurons = 100000;
+                } else {
+                    errors.warning( scale + " -- unknown scale" );
+                    continue;
+                }
+                synapses = (long)g.neurons * g.fanOut;
+                files.add( generate( g ) );
+            }
+            for (File f: files) {
+                String name = scale.equals( "toy" ) ? f.getName() : scale;
+                for (String benchmark: benchmarks) {
+                    if (benchmark.equals( "parse" )) {
+                        b.parse( name, f );
+                    } else if (benchmark.equals( "events" )) {
+                        b.events( name, f, !scale.equals( "large" ) );
+                    } else if (benchmark.equals( "output" )) {
+                        b.output( name, f );
+                    }
+                }
+            }
+            if (benchmarks.contains( "fanout" )) b.fanout( scale, synapses );
+        }
+    }
+}
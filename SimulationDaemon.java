@@ -0,0 +1,441 @@
+// SimulationDaemon.java
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/** A simulation kept running, driven and stimulated by a client over a socket
+ *  The network is read once and its {@link Simulator} stays resident;
+ *  one client at a time connects, over a loopback TCP port or a
+ *  Unix-domain socket, and sends lines of text:
+ *  <pre>
+ *  kick name time strength   kick the named neuron at the time
+ *  run time                  simulate up to the time
+ *  quit                      disconnect, leaving the simulation as it is
+ *  shutdown                  disconnect and end the daemon
+ *  </pre>
+ *  Kicks are events like any other, merged into the event queue in time
+ *  order; a kick at a time already simulated is late, and dropped.
+ *  Events at the time simulated to have been handled too, so once any
+ *  time has been simulated a kick at that very time is late as well.
+ *  Each {@code run} ends a batch of kicks, and is answered first by
+ *  {@code ok} <i>accepted refused late</i>, then, as the simulation
+ *  goes, by {@code fired} <i>time</i> followed by the name and spike
+ *  count of each neuron that fired in the report interval ending then,
+ *  and last by {@code at} <i>time</i> once it is there.  When output
+ *  ends the simulation, {@code end} <i>time</i> is sent and the daemon
+ *  ends.  Malformed lines are answered by {@code error} and the line.
+ *  Nothing is buffered without bound.  At most a given number of kicks
+ *  may be pending; kicks past that are refused, and counted as such in
+ *  the reply, so the client knows the last ones it sent were refused
+ *  and can send them again later.  Replies wait in a buffer of fixed
+ *  size; while a client does not read them, the simulation stops and
+ *  the daemon stops reading commands, so a client that sends faster
+ *  than the daemon simulates is held back by the socket.
+ *  One thread does everything, with non-blocking channels, so no event
+ *  or neuron is ever touched by two threads, and a command is handled
+ *  as soon as it arrives, between report intervals of a run.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see NeuronNetwork
+ *  @see Simulation#advance
+ */
+class SimulationDaemon implements Simulation.SpikeRecord {
+    private static final int LINE = 1 << 16;    // longest command line
+
+    private final Simulation sim;
+    private final String address;       // port number or socket path
+    private final int pendingLimit;     // kicks pending at most
+    private final double report;        // simulated time between reports
+    private final Neuron[] neurons;     // by number, if not packed
+
+    private int pending = 0;            // kicks scheduled, not yet done
+    private float clock = 0.0f;         // time simulated to
+    private boolean simulated = false;  // up to clock, events there too
+    private float target = 0.0f;        // time the client asked for
+    private boolean running = false;    // until target is reached
+    private boolean ended = false;      // by output
+    private boolean shutdown = false;
+
+    // the batch of kicks since the last run
+    private int accepted = 0;
+    private int refused = 0;
+    private int late = 0;
+
+    // neurons that fired since the last report, and how often
+    private final int[] fired;
+    private int[] firing = new int[64];
+    private int firingCount = 0;
+
+    private SocketChannel client = null;
+    private final ByteBuffer in = ByteBuffer.allocate( LINE );
+    private ByteBuffer out = ByteBuffer.allocate( LINE );
+    private final StringBuilder line = new StringBuilder();
+
+    /** Prepare to serve a simulation
+     *  @param sim  the simulation, its network read without errors
+     *  @param address  a port number for loopback TCP, or else the
+     *  path of a Unix-domain socket; a socket already there is replaced
+     *  only if no daemon listens on it, and anything else refused
+     *  @param pendingLimit  the most kicks pending at once
+     *  @param report  the simulated time between reports of spikes
+     */
+    SimulationDaemon(
+        Simulation sim, String address, int pendingLimit, float report
+    ) {
+        this.sim = sim;
+        this.address = address;
+        this.pendingLimit = pendingLimit;
+        // as written, so that reports fall on round times
+        this.report = Double.parseDouble( Float.toString( report ) );
+        neurons = sim.network.neurons.toArray( new Neuron[0] );
+        fired = new int[neurons.length];
+        sim.raster = this;
+    }
+
+    /** A kick from the client, an event like any other
+     */
+    private class Kick extends Simulator.Event {
+        final int neuron;
+        final float strength;
+
+        Kick( float time, int neuron, float strength ) {
+            super( time );
+            this.neuron = neuron;
+            this.strength = strength;
+        }
+
+        void trigger() {
+            pending--;
+            FlightEvents.delivery( neuron, false, strength, time );
+            PackedNetwork packed = sim.network.packed;
+            MappedNetwork mapped = sim.network.mapped;
+            if (mapped != null) {
+                mapped.kick( neuron, time, strength );
+            } else if (packed != null) {
+                packed.kick( neuron, time, strength );
+            } else {
+                neurons[neuron].kick( time, strength );
+            }
+        }
+    }
+
+    /** Count a spike, for the next report
+     */
+    public void record( int n, float time ) {
+        if (fired[n]++ == 0) {
+            if (firingCount == firing.length) {
+                firing = Arrays.copyOf( firing, firingCount * 2 );
+            }
+            firing[firingCount++] = n;
+        }
+    }
+
+    /** Serve clients until told to shut down or the simulation ends
+     *  @throws IOException if the socket cannot be opened
+     */
+    void serve() throws IOException {
+        boolean unix = !address.matches( "[0-9]+" );
+        SocketAddress at = unix
+            ? UnixDomainSocketAddress.of( address )
+            : new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), Integer.parseInt( address )
+            );
+        Path path = unix ? Path.of( address ) : null;
+        if (unix) removeStale( path );
+        Object created = null;  // the socket file bound, to remove at the end
+        try (
+            ServerSocketChannel server = ServerSocketChannel.open(
+                unix ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET
+            );
+            Selector selector = Selector.open()
+        ) {
+            server.bind( at );
+            if (unix) created = fileKey( path );
+            server.configureBlocking( false );
+            server.register( selector, SelectionKey.OP_ACCEPT );
+            System.err.println( "listening on " + server.getLocalAddress() );
+            while (!shutdown) {
+                boolean advancing = running && (client != null)
+                    && (out.position() < LINE / 2);
+                if (advancing) {
+                    selector.selectNow();
+                } else {
+                    selector.select();
+                }
+                for (SelectionKey key: selector.selectedKeys()) {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept( server, selector );
+                    if (key.isValid() && key.isReadable()) read();
+                }
+                selector.selectedKeys().clear();
+                if (advancing) advance();
+                flush(); // at once, the rest when the client can take it
+                if (client != null) {
+                    // write while replies wait, read while there is room
+                    int ops = (out.position() > 0) ? SelectionKey.OP_WRITE : 0;
+                    if (out.position() < LINE / 2) ops |= SelectionKey.OP_READ;
+                    client.keyFor( selector ).interestOps( ops );
+                }
+                if (ended && ((client == null) || (out.position() == 0))) {
+                    shutdown = true;
+                }
+            }
+            if (client != null) client.close();
+        } finally {
+            // unless another has taken its place since
+            if ((created != null) && created.equals( fileKey( path ) )) {
+                Files.deleteIfExists( path );
+            }
+        }
+    }
+
+    /* really private, remove a socket file left by a daemon that is gone;
+     * anything else at the path, or a socket still listened on, is left
+     * alone, and the daemon does not start
+     */
+    private static void removeStale( Path path ) throws IOException {
+        BasicFileAttributes a;
+        try {
+            a = Files.readAttributes(
+                path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS
+            );
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        if (!a.isOther() || !isSocket( path )) {
+            throw new IOException( path + " exists and is not a socket" );
+        }
+        SocketChannel c;
+        try {
+            c = SocketChannel.open( UnixDomainSocketAddress.of( path ) );
+        } catch (ConnectException e) {
+            Files.delete( path ); // no one listening: stale
+            return;
+        }
+        c.close();
+        throw new IOException( path + " is in use by another daemon" );
+    }
+
+    /* really private, whether a file is a socket, where the file system
+     * says; elsewhere anything neither file, directory nor link is taken
+     * to be one
+     */
+    private static boolean isSocket( Path path ) throws IOException {
+        try {
+            int mode = (Integer)Files.getAttribute(
+                path, "unix:mode", LinkOption.NOFOLLOW_LINKS
+            );
+            return (mode & 0170000) == 0140000; // S_IFSOCK
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /* really private, what identifies a file, its inode, or null if none */
+    private static Object fileKey( Path path ) throws IOException {
+        try {
+            return Files.readAttributes(
+                path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS
+            ).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /* really private, take a new client, or turn it away if one is here */
+    private void accept( ServerSocketChannel server, Selector selector )
+    throws IOException {
+        SocketChannel c = server.accept();
+        if (c == null) return;
+        if (client != null) {
+            c.write( ByteBuffer.wrap(
+                "error another client is connected\n".getBytes( StandardCharsets.US_ASCII )
+            ) );
+            c.close();
+            return;
+        }
+        client = c;
+        client.configureBlocking( false );
+        if (client.getRemoteAddress() instanceof InetSocketAddress) {
+            client.setOption( StandardSocketOptions.TCP_NODELAY, true );
+        }
+        client.register( selector, SelectionKey.OP_READ );
+        in.clear();
+        out.clear();
+        running = false;
+        accepted = 0;
+        refused = 0;
+        late = 0;
+    }
+
+    /* really private, drop the client */
+    private void disconnect() throws IOException {
+        client.close();
+        client = null;
+        running = false;
+    }
+
+    /* really private, read and handle whatever commands have arrived */
+    private void read() throws IOException {
+        int n;
+        try {
+            n = client.read( in );
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            disconnect();
+            return;
+        }
+        in.flip();
+        int start = in.position();
+        for (int i = start; i < in.limit(); i++) {
+            if (in.get( i ) != '\n') continue;
+            String command = new String(
+                in.array(), start, i - start, StandardCharsets.UTF_8
+            ).trim();
+            start = i + 1;
+            if (!command.isEmpty()) handle( command );
+            if (client == null) return;
+        }
+        in.position( start );
+        in.compact();
+        if (!in.hasRemaining()) {
+            reply( "error line too long" );
+            in.clear();
+        }
+    }
+
+    /* really private, handle one command line */
+    private void handle( String command ) throws IOException {
+        String[] word = command.split( "\\s+" );
+        try {
+            if (word[0].equals( "kick" ) && (word.length == 4)) {
+                kick( word[1], Float.parseFloat( word[2] ), Float.parseFloat( word[3] ) );
+            } else if (word[0].equals( "run" ) && (word.length == 2)) {
+                float time = Float.parseFloat( word[1] );
+                reply( "ok " + accepted + " " + refused + " " + late );
+                accepted = 0;
+                refused = 0;
+                late = 0;
+                if (ended) {
+                    reply( "end " + clock );
+                } else if (time > clock) {
+                    target = time;
+                    running = true;
+                } else {
+                    reply( "at " + clock );
+                }
+            } else if (word[0].equals( "quit" ) && (word.length == 1)) {
+                flush();
+                disconnect();
+            } else if (word[0].equals( "shutdown" ) && (word.length == 1)) {
+                flush();
+                disconnect();
+                shutdown = true;
+            } else {
+                reply( "error " + command );
+            }
+        } catch (NumberFormatException e) {
+            reply( "error " + command );
+        }
+    }
+
+    /* really private, schedule a kick, if it is in time and there is room */
+    private void kick( String name, float time, float strength )
+    throws IOException {
+        Neuron n = sim.network.findNeuron( name );
+        if (n == null) {
+            reply( "error no neuron " + name );
+        } else if ((time < clock) || (simulated && (time == clock))) {
+            late++;
+        } else if (pending >= pendingLimit) {
+            refused++;
+        } else {
+            pending++;
+            accepted++;
+            sim.simulator.schedule( new Kick( time, n.number, strength ) );
+        }
+    }
+
+    /* really private, simulate to the next multiple of the report
+     * interval, or the target if sooner, and report it */
+    private void advance() throws IOException {
+        double next = (Math.floor( clock / report ) + 1.0) * report;
+        if ((float)next <= clock) next = next + report;
+        float to = Math.min( target, (float)next );
+        if (!sim.advance( to )) ended = true;
+        clock = to;
+        simulated = true;
+        line.setLength( 0 );
+        line.append( "fired " ).append( to );
+        for (int i = 0; i < firingCount; i++) {
+            int n = firing[i];
+            line.append( ' ' ).append( neurons[n].name ).append( ' ' ).append( fired[n] );
+            fired[n] = 0;
+        }
+        if (firingCount > 0) reply( line );
+        firingCount = 0;
+        if (ended) {
+            reply( "end " + clock );
+            running = false;
+        } else if (clock >= target) {
+            reply( "at " + clock );
+            running = false;
+        }
+    }
+
+    /* really private, queue a line for the client, growing the buffer
+     * only if one line does not fit in it empty */
+    private void reply( CharSequence s ) throws IOException {
+        if (client == null) return;
+        byte[] bytes = (s + "\n").getBytes( StandardCharsets.UTF_8 );
+        if (bytes.length > out.remaining()) flush();
+        if (bytes.length > out.remaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate( out.position() + bytes.length );
+            out.flip();
+            bigger.put( out );
+            out = bigger;
+        }
+        out.put( bytes );
+    }
+
+    /* really private, send what the client will take now */
+    private void flush() throws IOException {
+        if ((client == null) || (out.position() == 0)) return;
+        out.flip();
+        try {
+            client.write( out );
+        } catch (IOException e) {
+            out.clear();
+            disconnect();
+            return;
+        }
+        out.compact();
+        if ((out.capacity() > LINE) && (out.position() <= LINE)) {
+            // back to the usual size once a long report is sent
+            ByteBuffer usual = ByteBuffer.allocate( LINE );
+            out.flip();
+            usual.put( out );
+            out = usual;
+        }
+    }
+}
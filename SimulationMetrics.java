@@ -0,0 +1,289 @@
+// SimulationMetrics.java
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** Live metrics of one simulation, shown as a JMX MBean
+ *  Each thread that handles events, the simulator's or each worker of
+ *  a {@link ParallelSimulator} or the {@link ClockSimulator}, counts in
+ *  its own {@link Probe} with plain writes, so counting costs the hot
+ *  loop no atomic operations and no cache lines shared with another
+ *  writer; the MBean sums the probes when it is read.  Reads race with
+ *  the writes, so a reading may lag by a few events.
+ *  Latencies from scheduling an event to triggering it are measured in
+ *  wall-clock time for about one event in 1024, chosen by a hash of the
+ *  event's time and item, so the choice is made the same way when the
+ *  event is scheduled and when it is triggered, without keeping
+ *  anything for the events not chosen.
+ *  All of this is off unless the program is run with
+ *  {@code -Dneuron.metrics=true}.  Without it, {@code ENABLED} is a
+ *  constant false, so the JIT compiler drops every counting statement
+ *  guarded by it from the hot loops entirely.  When on, each simulation registers
+ *  itself as {@code NeuronNetwork:type=Simulation,id=}<i>n</i> with the
+ *  platform MBean server, as long as it is running, so it can be watched
+ *  with {@code jconsole} or any other JMX client.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see Simulation
+ *  @see SimulationMetricsMBean
+ */
+class SimulationMetrics implements SimulationMetricsMBean {
+    static final boolean ENABLED = Boolean.getBoolean( "neuron.metrics" );
+
+    private static final AtomicInteger ids = new AtomicInteger();
+    private static final int BUCKETS = 64;      // of the latency histogram
+    private static final int SAMPLE_SHIFT = 54; // samples one in 2^(64-54)
+    private static final int PENDING = 1024;    // sampled events in flight
+
+    /** Counts of one thread, written only by it
+     */
+    static final class Probe {
+        long events = 0;
+        long spikes = 0;
+        float now = 0.0f;
+        private int[] fires = new int[64];  // spikes of each neuron
+        private final long[] latency = new long[BUCKETS];
+        IntSupplier depth = () -> 0;        // its pending events
+
+        // sampled events scheduled, by hash: key and when scheduled
+        private final long[] pendingItem = new long[PENDING];
+        private final int[] pendingTime = new int[PENDING];
+        private final long[] pendingNanos = new long[PENDING];
+
+        /** Count an event triggered
+         */
+        void event( float time ) {
+            events++;
+            now = time;
+        }
+
+        /** Count neuron n firing
+         */
+        void spike( int n ) {
+            spikes++;
+            if (n >= fires.length) {
+                fires = Arrays.copyOf( fires, Math.max( n + 1, fires.length * 2 ) );
+            }
+            fires[n]++;
+        }
+
+        /* really private, the hash that chooses events to sample */
+        private static long hash( float time, long item ) {
+            return (item ^ ((long)Float.floatToRawIntBits( time ) << 24))
+                * 0x9e3779b97f4a7c15L;
+        }
+
+        /** Note an event scheduled, if it is one sampled
+         *  @param item  the queue item, or for event objects any number
+         *  that stays the same until the event is triggered
+         */
+        void scheduled( float time, long item ) {
+            long h = hash( time, item );
+            if ((h >>> SAMPLE_SHIFT) != 0) return;
+            int i = (int)(h >>> 20) & (PENDING - 1);
+            pendingItem[i] = item;
+            pendingTime[i] = Float.floatToRawIntBits( time );
+            pendingNanos[i] = System.nanoTime();
+        }
+
+        /** Note an event triggered, measuring it if it was sampled
+         */
+        void triggered( float time, long item ) {
+            long h = hash( time, item );
+            if ((h >>> SAMPLE_SHIFT) != 0) return;
+            int i = (int)(h >>> 20) & (PENDING - 1);
+            if ((pendingNanos[i] == 0L)
+            ||  (pendingItem[i] != item)
+            ||  (pendingTime[i] != Float.floatToRawIntBits( time ))) return;
+            long nanos = System.nanoTime() - pendingNanos[i];
+            pendingNanos[i] = 0L;
+            latency[63 - Long.numberOfLeadingZeros( Math.max( 1L, nanos ) )]++;
+        }
+    }
+
+    private final Simulation sim;
+    private final List <Probe> probes = new CopyOnWriteArrayList <Probe> ();
+    private ObjectName name = null;
+    private volatile long started = 0L;         // wall clock, when run
+    private String[] names = new String[0];     // of the neurons
+
+    // the last reading of each rate: count, then time
+    private final long[] lastEvents = { 0L, 0L };
+    private final long[] lastSpikes = { 0L, 0L };
+
+    /** Metrics of a simulation, with no probes yet
+     */
+    SimulationMetrics( Simulation sim ) {
+        this.sim = sim;
+    }
+
+    /** A new probe, for a thread that handles events
+     */
+    Probe probe() {
+        Probe p = new Probe();
+        probes.add( p );
+        return p;
+    }
+
+    /** Show the metrics through JMX, and start the wall clock
+     *  Called each time the simulation is run; only the first counts.
+     */
+    synchronized void start() {
+        if (name != null) return;
+        started = System.nanoTime();
+        lastEvents[1] = started;
+        lastSpikes[1] = started;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            name = new ObjectName(
+                "NeuronNetwork:type=Simulation,id=" + ids.incrementAndGet()
+            );
+            server.registerMBean( this, name );
+        } catch (JMException e) {
+            sim.errors.warning( "metrics not shown -- " + e.getMessage() );
+        }
+    }
+
+    /** Stop showing the metrics, when the simulation is over
+     */
+    synchronized void stop() {
+        if (name == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( name );
+        } catch (JMException e) {
+            // already gone
+        }
+    }
+
+    /* really private, the rate of a count since it was last read */
+    private static double rate( long[] last, long count ) {
+        synchronized (last) {
+            long now = System.nanoTime();
+            double r = (now > last[1])
+                ? (count - last[0]) / ((now - last[1]) / 1e9)
+                : 0.0;
+            last[0] = count;
+            last[1] = now;
+            return r;
+        }
+    }
+
+    public long getEventCount() {
+        long n = 0;
+        for (Probe p: probes) n = n + p.events;
+        return n;
+    }
+
+    public double getEventRate() {
+        return rate( lastEvents, getEventCount() );
+    }
+
+    public int getQueueDepth() {
+        int n = 0;
+        for (Probe p: probes) n = n + p.depth.getAsInt();
+        return n;
+    }
+
+    public float getSimulatedTime() {
+        float t = 0.0f;
+        for (Probe p: probes) t = Math.max( t, p.now );
+        return t;
+    }
+
+    public double getSimulatedToWallRatio() {
+        long wall = System.nanoTime() - started;
+        if ((started == 0L) || (wall <= 0L)) return 0.0;
+        return getSimulatedTime() / (wall / 1e9);
+    }
+
+    public long getSpikeCount() {
+        long n = 0;
+        for (Probe p: probes) n = n + p.spikes;
+        return n;
+    }
+
+    public double getSpikeRate() {
+        return rate( lastSpikes, getSpikeCount() );
+    }
+
+    public String[] getTopFiring() {
+        return topFiring( 10 );
+    }
+
+    public String[] topFiring( int n ) {
+        int neurons = 0;
+        for (Probe p: probes) neurons = Math.max( neurons, p.fires.length );
+        int[] total = new int[neurons];
+        for (Probe p: probes) {
+            int[] f = p.fires;
+            for (int i = 0; i < f.length; i++) total[i] = total[i] + f[i];
+        }
+
+        // the n largest, by a heap of the best so far
+        PriorityQueue <Integer> best = new PriorityQueue <Integer> (
+            (Integer a, Integer b) -> Integer.compare( total[a], total[b] )
+        );
+        for (int i = 0; i < neurons; i++) {
+            if (total[i] == 0) continue;
+            if (best.size() < n) {
+                best.add( i );
+            } else if ((n > 0) && (total[i] > total[best.peek()])) {
+                best.poll();
+                best.add( i );
+            }
+        }
+        String[] top = new String[best.size()];
+        for (int i = top.length - 1; i >= 0; i--) {
+            int neuron = best.poll();
+            top[i] = name( neuron ) + " " + total[neuron];
+        }
+        return top;
+    }
+
+    /* really private, the name of neuron n */
+    private synchronized String name( int n ) {
+        if (n >= names.length) {
+            // the network is read before the simulation runs, and not
+            // changed while it does
+            names = sim.network.neurons.stream()
+                .map( (Neuron nr) -> nr.name ).toArray( String[]::new );
+        }
+        return (n < names.length) ? names[n] : ("#" + n);
+    }
+
+    public long[] getLatencyHistogram() {
+        long[] h = new long[BUCKETS];
+        for (Probe p: probes) {
+            for (int i = 0; i < BUCKETS; i++) h[i] = h[i] + p.latency[i];
+        }
+        return h;
+    }
+
+    public String getLatencySummary() {
+        long[] h = getLatencyHistogram();
+        long total = 0;
+        for (long c: h) total = total + c;
+        if (total == 0) return "no samples";
+        StringBuilder s = new StringBuilder();
+        s.append( total ).append( " samples" );
+        double[] ranks = { 0.5, 0.9, 0.99 };
+        String[] labels = { "p50", "p90", "p99" };
+        for (int r = 0; r < ranks.length; r++) {
+            long want = (long)Math.ceil( ranks[r] * total );
+            long seen = 0;
+            int i = 0;
+            while ((seen = seen + h[i]) < want) i++;
+            s.append( ", " ).append( labels[r] ).append( " < " )
+             .append( 1L << (i + 1) ).append( " ns" );
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,52 @@
+// SimulationMetricsMBean.java
+
+/** What a running simulation shows through JMX
+ *  Public, as JMX requires of the interface of a standard MBean.
+ *  Rates are over the time since the same rate was last read, or since
+ *  the simulation started running.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see SimulationMetrics
+ */
+public interface SimulationMetricsMBean {
+
+    /** @return the events handled so far */
+    long getEventCount();
+
+    /** @return the events handled per second of wall-clock time */
+    double getEventRate();
+
+    /** @return the number of events pending */
+    int getQueueDepth();
+
+    /** @return the time of the latest event handled */
+    float getSimulatedTime();
+
+    /** @return simulated time per second of wall-clock time */
+    double getSimulatedToWallRatio();
+
+    /** @return the spikes so far */
+    long getSpikeCount();
+
+    /** @return the spikes per second of wall-clock time */
+    double getSpikeRate();
+
+    /** @return the ten neurons that fired most, with their counts */
+    String[] getTopFiring();
+
+    /** @param n  how many
+     *  @return the n neurons that fired most, with their counts
+     */
+    String[] topFiring( int n );
+
+    /** Sampled wall-clock time from scheduling an event to triggering it
+     *  @return counts of latencies by power of two: element i counts
+     *  those from 2^i up to 2^(i+1) nanoseconds
+     */
+    long[] getLatencyHistogram();
+
+    /** @return the median, 90th and 99th percentiles of the sampled
+     *  latencies, to within a power of two
+     */
+    String getLatencySummary();
+}
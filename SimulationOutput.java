@@ -1,53 +1,181 @@
 // SimulationOutput.java
 /** Simulation Output printing model
  *  This set of methods provides a service to read input using
- *  a Java {@link Scanner}, and then scheduling events using {@link Simulator}
+ *  a {@link Tokenizer}, and then scheduling events using {@link Simulator}
  *  to produce output in certain intervals given in the input file, then terminate.
+ *  Each {@link Simulation} has its own output model, printing to its own stream.
+ *  Output may be limited to some neurons, see {@link watch}, and may be
+ *  sparse, see {@link setSparse}, for networks too wide to show whole.
  *  @author: Cody J. Hoffman
  *  @version: MP6
- *  @see java.util.Scanner
+ *  @see Tokenizer
  *  @see Simulator
  */
 
-import java.util.Scanner;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.LinkedList;
 
 class SimulationOutput {
-	private static float outputInterval = 99.99f;  // interval between output displays
-	private static float terminationTime = 99.99f; // time where the simulation should terminate 
+	private final Simulation sim; // the simulation whose output this is
+	private final PrintStream out; // where the output goes
+	private float outputInterval = 99.99f;  // interval between output displays
+	private float terminationTime = 99.99f; // time where the simulation should terminate 
 	private float time = 0.0f; // beginning time of simulation
 
+	// for each output declaration, how many neurons were declared before it
+	final LinkedList <Integer> declaredAfter = new LinkedList <Integer> ();
+
+	// the neurons shown, by number, or null if all are shown
+	private int[] shown = null;
+	private boolean[] isShown = null;
+	private Neuron[] byNumber = null; // the neurons, once needed
+
+	// for sparse output, the neurons shown whose counts became nonzero
+	// since the last output line, in no order; null unless sparse
+	private int[] changed = null;
+	private int changedCount = 0;
+
 	// format textual output
 	private static final String noFire = "  |   ";
 	private static final String oneFire = "  |-  ";
 	private static final String multipleFire = "  |=  ";
 
+	/** The output model of the given simulation, printing to out
+	 */
+	SimulationOutput( Simulation sim, PrintStream out ){
+		this.sim = sim;
+		this.out = out;
+	}
+
 	/** Scans the line of the input file contain the output information, and saves
 	 *  the values for the interval and termination time, also schedules the
 	 *  first event of the output model at time zero to print the header
 	 */
-	public static void setOutput( Scanner sc ){
+	public void setOutput( Tokenizer sc ){
 		// scan output interval interval
-		outputInterval = ScanSupport.nextFloat(
+		float interval = ScanSupport.nextFloat(
 			sc, 
 			() -> "-- Invalid Input"
 		);
 		// scan termination time
-		terminationTime = ScanSupport.nextFloat(
+		float termination = ScanSupport.nextFloat(
 			sc,
 			() -> "-- Invalid Input"
 		);
-		
+		setOutput( interval, termination );
+	}
+
+	/** Saves the values for the interval and termination time and schedules
+	 *  the first event of the output model, as for an output line with these values
+	 */
+	public void setOutput( float interval, float termination ){
+		outputInterval = interval;
+		terminationTime = termination;
+		declaredAfter.add( sim.network.neurons.size() );
+		start();
+	}
+
+	/** Schedules the first event of the output model, at time zero
+	 *  Called once for each output declaration, and again for each if the
+	 *  simulation is started over, as with {@link PackedNetwork#start}.
+	 */
+	void start(){
 		/* Schedule an event at zero to launch the output process
 		 * and output header line
 		 */
-		Simulator.schedule(
-			new Simulator.Event( 0.0f ) {
-				void trigger() {
-					displayHeader( time );
-				}
-			}
-		);
+		sim.simulator.schedule( 0.0f, Simulator.HEADER, 0 );
 	}
+
+	/** Schedules the first event of the output model once for each output
+	 *  declaration, for a simulator cleared to start over
+	 */
+	void startAll(){
+		for( int i = declaredAfter.size(); i > 0; i-- ) start();
+	}
+
+	/** Show only the neurons that fired, each output time
+	 *  Each output line is the time followed by the name and count of
+	 *  each neuron shown that fired since the line before, in the order
+	 *  the neurons were declared; no line is printed when none did, and
+	 *  there is no header.  Neurons are noted as their counts become
+	 *  nonzero, see {@link fired}, so the cost of output is that of the
+	 *  neurons that fired, not of the whole network.
+	 */
+	void setSparse(){
+		changed = new int[64];
+	}
+
+	/** @return true if output is sparse, see {@link setSparse}
+	 */
+	boolean isSparse(){
+		return changed != null;
+	}
+
+	/** Show the named neuron; once any is named, only those named are shown
+	 *  They are shown in the order the network declared them.
+	 *  @return false if there is no such neuron
+	 */
+	boolean watch( String name ){
+		Neuron n = sim.network.findNeuron( name );
+		if( n == null ) return false;
+		if( isShown == null ) {
+			isShown = new boolean[sim.network.neurons.size()];
+		}
+		isShown[n.number] = true;
+		int count = 0;
+		for( boolean b: isShown ) {
+			if( b ) count++;
+		}
+		shown = new int[count];
+		count = 0;
+		for( int i = 0; i < isShown.length; i++ ) {
+			if( isShown[i] ) shown[count++] = i;
+		}
+		return true;
+	}
+
+	/** Neuron n has fired since its count was last taken, for sparse output
+	 *  Called as its count becomes one, or is restored from a checkpoint
+	 *  other than zero; nothing is done unless output is sparse.
+	 */
+	void fired( int n ){
+		if( changed == null ) return;
+		if( (isShown != null) && !isShown[n] ) return;
+		if( changedCount == changed.length ) {
+			changed = Arrays.copyOf( changed, changedCount * 2 );
+		}
+		changed[changedCount++] = n;
+	}
+
+	/* really private, the neurons by number */
+	private Neuron[] neurons(){
+		if( byNumber == null ) {
+			byNumber = sim.network.neurons.toArray( new Neuron[0] );
+		}
+		return byNumber;
+	}
+
+	/* really private, take the count of neuron n, setting it to zero */
+	private int takeCount( int n ){
+		PackedNetwork packed = sim.network.packed;
+		MappedNetwork mapped = sim.network.mapped;
+		if( mapped != null ) return mapped.getCount( n );
+		return (packed != null) ? packed.getCount( n ) : neurons()[n].getCount();
+	}
+
+	/** Get the output interval, for saving the network
+	 */
+	float getInterval(){
+		return outputInterval;
+	}
+
+	/** Get the termination time, for saving the network
+	 */
+	float getTermination(){
+		return terminationTime;
+	}
+
 	public String toString(){
 		return(
 			"output " + 
@@ -60,8 +188,13 @@ class SimulationOutput {
 	 *  this method is only called once, it then proceeds to call displayOutput to keep the output 
 	 *  printing for the duration of the simulation
 	 */
-	private static void displayHeader(float time){
-		for( Neuron n: NeuronNetwork.neurons ){
+	void displayHeader(float time){
+		if( changed != null ) { // sparse, no columns
+			displayOutput( time );
+			return;
+		}
+		for( Neuron n: sim.network.neurons ){
+			if( (isShown != null) && !isShown[n.number] ) continue;
 			String nm = n.name;
 
 			// truncate names longer than 5
@@ -70,19 +203,19 @@ class SimulationOutput {
 			}
 
 			// output edited name
-			System.out.append( nm );
+			out.append( nm );
 
 			// output padding up to next column
 			if( nm.length() < 5) {
-				System.out.append(
+				out.append(
 					"     ".substring( 0, 5 - nm.length() )
 				);
 			}
 			
 			// add a space after the name
-			System.out.append( ' ' );
+			out.append( ' ' );
 		}
-		System.out.println();
+		out.println();
 		
 		// after the header is printed, print first output of values
 		displayOutput( time );
@@ -92,45 +225,92 @@ class SimulationOutput {
 	 *  and if the current time is less than the termination time value then a new 
 	 *  displayOutput event is scheduled at time + outputInterval
 	 */
-	private static void displayOutput( float time ) {
+	void displayOutput( float time ) {
+		FlightEvents.OutputTick tick = null; // unless recorded
+		if( FlightEvents.outputTicks() ) {
+			tick = new FlightEvents.OutputTick();
+			tick.begin();
+		}
+
 		/* Print the first set of output after the first interval
 		 */
-		if( time > 0.0f) {
+		int examined = 0; // neurons whose counts are taken
+		if( (time > 0.0f) && (changed != null) ) {
+			examined = changedCount;
+			displaySparse( time );
+		} else if( (time > 0.0f) && (shown != null) ) {
+			examined = shown.length;
+			for( int n: shown ) {
+				displayCount( takeCount( n ) );
+			}
+			out.println();
+		} else if( time > 0.0f) {
+			examined = sim.network.neurons.size();
 			/* for each neuron in the list add the corresponding output to the line
 		 	 */
-			for(Neuron n: NeuronNetwork.neurons){
-				int theCount = n.getCount(); // number of times the neuron fires
-				
-				// determine which textual output to use	
-				if( theCount == 1 ) {
-					System.out.append( oneFire );
-				}else if( theCount > 1) {
-					System.out.append( multipleFire );
-				}else if( theCount == 0 ) {
-					System.out.append( noFire );
-				}else{
-					System.out.append( "xxxxx" );
-				}
+			PackedNetwork packed = sim.network.packed;
+			MappedNetwork mapped = sim.network.mapped;
+			int i = 0; // neuron number, when counts are kept packed
+			for(Neuron n: sim.network.neurons){
+				// number of times the neuron fires
+				int theCount = (mapped != null) ? mapped.getCount( i++ )
+					: (packed != null) ? packed.getCount( i++ ) : n.getCount();
+				displayCount( theCount );
 			}
-			System.out.println();
+			out.println();
+		}
+		if( (tick != null) && tick.isEnabled() ) {
+			tick.time = time;
+			tick.neurons = examined;
+			tick.commit();
 		}
 
 		/* if the time is less than the allowed run time, schedule a new event
 		 * to print the next set of outputs at time + interval
 		 */
 		if(time < terminationTime) {
-			Simulator.schedule(
-				new Simulator.Event( time + outputInterval ) {
-					void trigger() {
-						displayOutput( time );
-					}
-				}
-			);
+			sim.simulator.scheduleAfter( outputInterval, Simulator.OUTPUT, 0 );
 		}else{
-			// if time exceeds the terminationTime, terminate the program
-			System.exit( 0 );
+			// if time exceeds the terminationTime, terminate the simulation
+			sim.simulator.stop();
 		}
 	}
+
+	/* really private, output one column for a fire count */
+	private void displayCount( int theCount ){
+		// determine which textual output to use	
+		if( theCount == 1 ) {
+			out.append( oneFire );
+		}else if( theCount > 1) {
+			out.append( multipleFire );
+		}else if( theCount == 0 ) {
+			out.append( noFire );
+		}else{
+			out.append( "xxxxx" );
+		}
+	}
+
+	/* really private, output the line of sparse output at the given time,
+	 * if any neuron fired, and take the counts of those that did */
+	private void displaySparse( float time ){
+		if( changedCount == 0 ) return;
+		Arrays.sort( changed, 0, changedCount );
+		Neuron[] neurons = neurons();
+		out.print( time );
+		for( int i = 0; i < changedCount; i++ ) {
+			int n = changed[i];
+			out.append( ' ' ).append( neurons[n].name ).append( ' ' );
+			out.print( takeCount( n ) );
+		}
+		out.println();
+		changedCount = 0;
+	}
+
+	/** Push out any output still buffered, once the simulation ends
+	 */
+	void flush(){
+		out.flush();
+	}
 	
 }
 
@@ -1,15 +1,50 @@
 // Simulator.java
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.PriorityQueue;
 
 /** Framework for discrete event simulation.
  *  @author: Douglas W. Jones
  *  @author: Cody J. Hoffman
  *  @version: April 21, 2016
- * 
+ *
  *  This code is based on the April 20, 2016 lecture notes.
+ *
+ *  Events come in two forms.  Common events are scheduled by kind and
+ *  target, for example {@code schedule( t, FIRE, n )} for neuron number
+ *  {@code n} of the {@link PackedNetwork}; anything else is an
+ *  {@link Event} object with its own {@code trigger} method.
+ *  By default all events go in a {@link PriorityQueue} of event objects,
+ *  with common events wrapped in objects.  After {@link useHeap} or
+ *  {@link useWheel}, events are kept as (time, kind, target) in the
+ *  primitive arrays of an {@link EventQueue} and dispatched by a switch
+ *  on their kind, so common events allocate nothing; event objects go in
+ *  a side table, and the queue holds their index there.
+ *  After {@link useTicks}, time is kept as a whole number of ticks and
+ *  ties are broken in the order events were scheduled, so results are
+ *  reproducible and long runs lose no precision in their delays.
+ *
+ *  Each {@link Simulation} has its own simulator, so the pending events
+ *  of one simulation are never seen by another.
+ *
+ *  A simulation may be run to its end with {@link run}, or in pieces
+ *  with {@link runUntil} and {@link step}, which return once they have
+ *  gone as far as asked, so that the caller can look at the state or
+ *  schedule more events before going on.  Any of these returns early,
+ *  after the event being handled, once {@link pause} is called, from an
+ *  event or from another thread; {@link resume} goes on from there.
  */
 class Simulator {
+    private final Simulation sim; // whose events these are
+    private boolean stopped = false;
+    private volatile boolean pausing = false; // return from the run soon
+    private long handled = 0;   // events triggered so far
+    private float now = 0.0f;   // the time of the last event triggered
+    private long tick = 0;      // the same in ticks, with a tick queue
+    final SimulationMetrics.Probe probe; // counts, if metrics are enabled
 
     /** Users create new subclasses of event for each thing that happens
      */
@@ -35,27 +70,486 @@ class Simulator {
         abstract void trigger();    // what to do at that time
     }
 
-    private static PriorityQueue <Event> eventSet
+    // kinds of common events; the target of each is given with it
+    static final int FIRE = 0;      // neuron fires, see PackedNetwork.fire
+                                    // or MappedNetwork.fire
+    static final int DELIVER = 1;   // synapse delivers, see PackedNetwork.deliver
+    static final int HEADER = 2;    // output starts, see SimulationOutput
+    static final int OUTPUT = 3;    // output interval ends, see SimulationOutput
+    static final int SPIKE = 4;     // spike cursor moves, see PackedNetwork.propagate
+    static final int STIMULUS = 5;  // kicks from a file are due, see Stimulus
+    private static final int CUSTOM = 6; // event object, target is its slot
+
+    /** A common event as an object, for the queue of event objects
+     */
+    private class Common extends Event {
+        final int kind;
+        final int target;
+
+        Common( float time, int kind, int target ) {
+            super( time );
+            this.kind = kind;
+            this.target = target;
+        }
+
+        void trigger() {
+            dispatch( kind, target, time );
+        }
+    }
+
+    private final PriorityQueue <Event> eventSet
     = new PriorityQueue <Event> (
         (Event e1, Event e2) -> Float.compare( e1.time, e2.time )
     );
 
+    // the primitive queue, used instead of eventSet if not null;
+    // its items are kind << 56 | target
+    private EventQueue queue = null;
+    private TickHeap ticks = null; // the queue, if it is kept in ticks
+
+    // event objects scheduled on the primitive heap, and free slots
+    private Event[] custom = new Event[64];
+    private int[] freeSlots = new int[64];
+    private int free = 0;
+    private int slots = 0;   // slots ever used
+
+    /** An empty event set for the given simulation
+     */
+    Simulator( Simulation sim ) {
+        this.sim = sim;
+        probe = (sim.metrics != null) ? sim.metrics.probe() : null;
+        if (probe != null) {
+            probe.depth = () -> (queue != null) ? queue.size() : eventSet.size();
+        }
+    }
+
+    /** Keep events in a primitive d-ary heap from now on
+     *  Call this before anything is scheduled.
+     *  @param d, the number of children of each heap node; with 2,
+     *  events at equal times come out in the same order as from the
+     *  {@link PriorityQueue}, with more they may not.
+     */
+    void useHeap( int d ) {
+        queue = new EventHeap( d );
+    }
+
+    /** Keep events in an ordered primitive d-ary heap from now on
+     *  Call this before anything is scheduled.  Events at equal times
+     *  come out in order of kind, then target, whatever order they were
+     *  scheduled in, as {@link ParallelSimulator} requires.
+     *  @param d, the number of children of each heap node
+     */
+    void useOrderedHeap( int d ) {
+        queue = new EventHeap( d, true );
+    }
+
+    /** Keep time in whole ticks, and events in a {@link TickHeap}
+     *  Call this before anything is scheduled.  Events at the same tick
+     *  come out in the order they were scheduled, so results do not
+     *  depend on how the queue breaks ties.  Common events scheduled by
+     *  {@link scheduleAfter} are a whole number of ticks after the event
+     *  being handled, so delays stay exact however late in the run;
+     *  other times, and the times of event objects, are rounded to the
+     *  nearest tick.  A {@link PackedNetwork} not batched schedules its
+     *  deliveries and measures the decay of voltages in ticks.
+     *  @param resolution, the time of one tick
+     */
+    void useTicks( double resolution ) {
+        ticks = new TickHeap( 4, resolution );
+        queue = ticks;
+    }
+
+    /** @return the time of one tick, or 0 if time is not kept in ticks
+     */
+    double resolution() {
+        return (ticks != null) ? ticks.resolution() : 0.0;
+    }
+
+    /** @return the tick of the last event triggered, if time is kept
+     *  in ticks
+     */
+    long tick() {
+        return tick;
+    }
+
+    /** Keep events in a primitive timing wheel from now on
+     *  Call this before anything is scheduled.
+     *  @param width, the time covered by each bucket
+     *  @param buckets, the number of buckets; events further ahead
+     *  than all of them together go to an overflow heap
+     *  @see TimingWheel
+     */
+    void useWheel( float width, int buckets ) {
+        queue = new TimingWheel( width, buckets );
+    }
+
     /** Called to trigger the event at the given time
      *  @param e, the event to be triggered, with its time.
      */
-    public static void schedule( Event e ) {
-        eventSet.add( e );
+    public void schedule( Event e ) {
+        if (queue != null) {
+            int slot;
+            if (free > 0) {
+                slot = freeSlots[--free];
+            } else {
+                slot = slots++;
+                if (slot == custom.length) {
+                    custom = Arrays.copyOf( custom, slot * 2 );
+                    freeSlots = Arrays.copyOf( freeSlots, slot * 2 );
+                }
+            }
+            custom[slot] = e;
+            long item = ((long)CUSTOM << 56) | slot;
+            float t = (ticks != null) ? ticks.toTime( ticks.toTicks( e.time ) ) : e.time;
+            if (SimulationMetrics.ENABLED) probe.scheduled( t, item );
+            FlightEvents.push( CUSTOM, slot, t );
+            queue.add( e.time, item );
+        } else {
+            if (SimulationMetrics.ENABLED) {
+                probe.scheduled( e.time, System.identityHashCode( e ) );
+            }
+            FlightEvents.push( CUSTOM, -1, e.time );
+            eventSet.add( e );
+        }
+    }
+
+    /** Schedule a common event
+     *  @param time, when it happens
+     *  @param kind, one of {@code FIRE}, {@code DELIVER}, {@code SPIKE},
+     *  {@code HEADER} or {@code OUTPUT}
+     *  @param target, the neuron, synapse or whatever the kind acts on
+     */
+    void schedule( float time, int kind, int target ) {
+        if (ticks != null) {
+            scheduleTick( ticks.toTicks( time ), kind, target );
+            return;
+        }
+        FlightEvents.push( kind, target, time );
+        if (queue != null) {
+            long item = ((long)kind << 56) | target;
+            if (SimulationMetrics.ENABLED) probe.scheduled( time, item );
+            queue.add( time, item );
+        } else {
+            Common e = new Common( time, kind, target );
+            if (SimulationMetrics.ENABLED) {
+                probe.scheduled( time, System.identityHashCode( e ) );
+            }
+            eventSet.add( e );
+        }
+    }
+
+    /** Schedule a common event a delay after the event being handled
+     *  With time kept in ticks, the delay is rounded to whole ticks and
+     *  added to the tick now, exactly; otherwise this is the same as
+     *  scheduling it at {@code now() + delay}.
+     */
+    void scheduleAfter( float delay, int kind, int target ) {
+        if (ticks != null) {
+            scheduleTick( tick + ticks.toTicks( delay ), kind, target );
+        } else {
+            schedule( now + delay, kind, target );
+        }
+    }
+
+    /* really private, schedule a common event at a tick */
+    private void scheduleTick( long t, int kind, int target ) {
+        long item = ((long)kind << 56) | target;
+        float time = ticks.toTime( t );
+        FlightEvents.push( kind, target, time );
+        if (SimulationMetrics.ENABLED) probe.scheduled( time, item );
+        ticks.addTick( t, item );
+    }
+
+    /** Do what a common event does
+     */
+    private void dispatch( int kind, int target, float time ) {
+        switch (kind) {
+        case FIRE:
+            if (sim.network.mapped != null) {
+                sim.network.mapped.fire( target, time );
+            } else {
+                sim.network.packed.fire( target, time );
+            }
+            break;
+        case DELIVER:
+            sim.network.packed.deliver( target, time );
+            break;
+        case SPIKE:
+            if (sim.network.mapped != null) {
+                sim.network.mapped.propagate( target, time );
+            } else {
+                sim.network.packed.propagate( target, time );
+            }
+            break;
+        case HEADER:
+            sim.output.displayHeader( time );
+            break;
+        case OUTPUT:
+            sim.output.displayOutput( time );
+            break;
+        case STIMULUS:
+            sim.stimuli.get( target ).trigger( time );
+            break;
+        case CUSTOM:
+            Event e = custom[target];
+            custom[target] = null;
+            freeSlots[free++] = target;
+            e.trigger();
+            break;
+        }
+    }
+
+    /** Discard all pending events
+     *  Used when the simulation is started over on another representation
+     *  of the same network, see {@link PackedNetwork#start}.
+     */
+    void clear() {
+        eventSet.clear();
+        if (queue != null) queue.clear();
+        Arrays.fill( custom, null );
+        free = 0;
+        slots = 0;
+    }
+
+    /** Get the time of the next event, for another engine driving this one
+     *  Only for primitive queues.
+     *  @return the time, or infinity if no events are pending
+     */
+    float nextTime() {
+        if (queue.isEmpty()) return Float.POSITIVE_INFINITY;
+        return queue.firstTime();
+    }
+
+    /** Get the kind of the next event; only if there is one
+     */
+    int nextKind() {
+        return (int)(queue.firstItem() >>> 56);
+    }
+
+    /** Trigger the next event; only if there is one
+     */
+    void runNext() {
+        handled++;
+        if (ticks != null) tick = ticks.firstTick();
+        float t = queue.firstTime();
+        long item = queue.firstItem();
+        queue.removeFirst();
+        now = t;
+        if (SimulationMetrics.ENABLED) {
+            probe.event( t );
+            probe.triggered( t, item );
+        }
+        FlightEvents.pop( (int)(item >>> 56), (int)item, t );
+        dispatch( (int)(item >>> 56), (int)item, t );
+    }
+
+    /** End the simulation once the event now being handled is done
+     *  Pending events are left where they are.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /** Has some event ended the simulation
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /** Get the number of events triggered so far, for benchmarks
+     */
+    long eventCount() {
+        return handled;
+    }
+
+    /** Get the time of the last event triggered, zero before the first
+     */
+    float now() {
+        return now;
+    }
+
+    /** Is the simulation over, stopped or with no events left
+     */
+    boolean isDone() {
+        if (stopped) return true;
+        return (queue != null) ? queue.isEmpty() : eventSet.isEmpty();
+    }
+
+    /** Make the run in progress return after the event being handled
+     *  If no run is in progress, the next one returns at once.  May be
+     *  called from an event or from any other thread.
+     */
+    void pause() {
+        pausing = true;
+    }
+
+    /** Trigger events in time order until told to return
+     *  @param until  the latest time to handle events at
+     *  @param limit  the most events to handle
+     *  @return the number of events handled
+     */
+    private long loop( float until, long limit ) {
+        long n = 0;
+        while ((n < limit) && !stopped) {
+            if (pausing) {
+                pausing = false;
+                break;
+            }
+            if (queue != null) {
+                if (queue.isEmpty() || (queue.firstTime() > until)) break;
+                runNext();
+            } else {
+                Event e = eventSet.peek();
+                if ((e == null) || (e.time > until)) break;
+                eventSet.remove();
+                handled++;
+                now = e.time;
+                if (SimulationMetrics.ENABLED) {
+                    probe.event( e.time );
+                    probe.triggered( e.time, System.identityHashCode( e ) );
+                }
+                if (e instanceof Common) {
+                    FlightEvents.pop( ((Common)e).kind, ((Common)e).target, e.time );
+                } else {
+                    FlightEvents.pop( CUSTOM, -1, e.time );
+                }
+                e.trigger( );
+            }
+            n++;
+        }
+        return n;
     }
 
     /** Run the discrete event simulation
      *  Prior to calling {@code run}, the user should {@code schedule}
      *  some initial {@code Event}s.  The simulation will run until either
-     *  no events remain or until some event terminates the program.
+     *  no events remain or until some event calls {@link stop}, or
+     *  until {@link pause} is called.
+     */
+    void run() {
+        loop( Float.POSITIVE_INFINITY, Long.MAX_VALUE );
+    }
+
+    /** Run the simulation up to a time
+     *  All events at or before the time are handled, unless the
+     *  simulation ends or is paused first; later events stay pending.
+     *  @param time  the time to run to
+     *  @return false if the simulation is over, see {@link isDone}
+     */
+    boolean runUntil( float time ) {
+        loop( time, Long.MAX_VALUE );
+        return !isDone();
+    }
+
+    /** Handle the next events, at most n of them
+     *  @param n  the number of events to handle
+     *  @return the number handled, less than n only if the simulation
+     *  ended or was paused first
+     */
+    long step( long n ) {
+        return loop( Float.POSITIVE_INFINITY, n );
+    }
+
+    /** Save the pending events and the clock, for a checkpoint
+     *  Events are saved just as they are kept, so that once read back
+     *  ties come out in the same order as they would have.
+     *  @param ids  what event objects are, other than common events
+     *  @throws IOException if some event object is of a kind that
+     *  {@code ids} cannot save
+     */
+    void write( DataOutputStream out, Checkpoint ids ) throws IOException {
+        out.writeByte( queueKind() );
+        out.writeFloat( now );
+        out.writeLong( tick );
+        out.writeLong( handled );
+        out.writeBoolean( stopped );
+        if (queue == null) {
+            // the array order of a PriorityQueue, which adding back in
+            // the same order rebuilds
+            Object[] events = eventSet.toArray();
+            out.writeInt( events.length );
+            for (Object o: events) {
+                writeEvent( out, (Event)o, ids );
+            }
+        } else {
+            queue.write( out );
+            out.writeInt( slots );
+            for (int i = 0; i < slots; i++) {
+                out.writeBoolean( custom[i] != null );
+                if (custom[i] != null) writeEvent( out, custom[i], ids );
+            }
+            out.writeInt( free );
+            for (int i = 0; i < free; i++) out.writeInt( freeSlots[i] );
+        }
+    }
+
+    /* really private, the kind of queue for a checkpoint */
+    private int queueKind() {
+        if (queue == null) return 0;
+        if (queue == ticks) return 3;
+        return (queue instanceof EventHeap) ? 1 : 2;
+    }
+
+    private void writeEvent( DataOutputStream out, Event e, Checkpoint ids )
+    throws IOException {
+        out.writeFloat( e.time );
+        if (e instanceof Common) {
+            Common c = (Common)e;
+            out.writeByte( 0 );
+            out.writeInt( c.kind );
+            out.writeInt( c.target );
+        } else {
+            ids.writeEvent( out, e );
+        }
+    }
+
+    /** Replace the pending events and the clock with those saved
+     *  The events must have been saved by a simulator with the same kind
+     *  of queue.
+     *  @throws IOException if they were not
      */
-    static void run() {
-        while (!eventSet.isEmpty()) {
-            Event e = eventSet.remove();
-            e.trigger( );
+    void read( DataInputStream in, Checkpoint ids ) throws IOException {
+        if (in.readByte() != queueKind()) {
+            throw new IOException( "checkpoint of another kind of event queue" );
         }
+        clear();
+        now = in.readFloat();
+        tick = in.readLong();
+        handled = in.readLong();
+        stopped = in.readBoolean();
+        if (queue == null) {
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                eventSet.add( readEvent( in, ids ) );
+            }
+        } else {
+            queue.read( in );
+            slots = in.readInt();
+            if (slots > custom.length) {
+                custom = new Event[slots];
+                freeSlots = new int[slots];
+            }
+            for (int i = 0; i < slots; i++) {
+                if (in.readBoolean()) custom[i] = readEvent( in, ids );
+            }
+            free = in.readInt();
+            for (int i = 0; i < free; i++) freeSlots[i] = in.readInt();
+        }
+    }
+
+    private Event readEvent( DataInputStream in, Checkpoint ids )
+    throws IOException {
+        float time = in.readFloat();
+        int type = in.readByte();
+        if (type == 0) return new Common( time, in.readInt(), in.readInt() );
+        return ids.readEvent( in, type, time );
+    }
+
+    /** Go on with a paused simulation, to its end
+     *  Equivalent to {@link run}, and like it returns if paused again;
+     *  to go on only so far, call {@link runUntil} or {@link step}.
+     */
+    void resume() {
+        run();
     }
 }
@@ -0,0 +1,350 @@
+// SpikeRaster.java
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** A compact binary record of every spike, with its exact time
+ *  Each firing is recorded as the neuron number and the time.  Spikes
+ *  are kept in blocks of up to {@code BLOCK} spikes; within a block the
+ *  neuron is a varint, and the time is the difference of its bits from
+ *  those of the time before, zigzag encoded as a varint.  The bits of
+ *  non-negative floats order as the floats do, so spikes close in time
+ *  take one or two bytes for the time, and the times read back are
+ *  exactly those recorded.  Each block starts over from time zero, so
+ *  it can be decoded alone; the index at the end gives the place, the
+ *  earliest and latest time and the count of each block, for seeking.
+ *  Spikes are encoded into a buffer as they happen and a block is
+ *  written in one piece when it fills, so recording costs the
+ *  simulation little more than the encoding.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see Simulation#record
+ *
+ *  Layout, all big-endian:
+ *  <pre>
+ *  int magic, int version
+ *  int neurons; per neuron: short length, that many UTF-8 bytes of name
+ *  per block: int count, int length, float earliest, float latest,
+ *             then length bytes of count encoded spikes
+ *  per block: long offset, float earliest, float latest, int count
+ *  long index offset, int blocks, long spikes, int magic
+ *  </pre>
+ */
+class SpikeRaster implements Simulation.SpikeRecord, Closeable {
+    private static final int MAGIC = 0x4e4e5231; // "NNR1"
+    private static final int VERSION = 1;
+    static final int BLOCK = 65536;     // spikes per block at most
+    private static final int BLOCK_HEADER = 16;
+    private static final int INDEX_ENTRY = 20;
+    private static final int TRAILER = 24;
+
+    private final FileChannel out;
+    private final ByteBuffer block =    // header and spikes of this block
+        ByteBuffer.allocate( BLOCK_HEADER + BLOCK * 10 );
+    private int count = 0;              // spikes in this block
+    private int lastBits = 0;           // bits of the time before
+    private float earliest;
+    private float latest;
+
+    // the index, one entry per block written
+    private ByteBuffer index = ByteBuffer.allocate( INDEX_ENTRY * 64 );
+    private int blocks = 0;
+    private long spikes = 0;
+
+    /** Start a record of spikes
+     *  @param f  the file to write
+     *  @param neurons  the neurons, in order of their numbers
+     */
+    SpikeRaster( File f, List <Neuron> neurons ) throws IOException {
+        out = new FileOutputStream( f ).getChannel();
+        int size = 12;
+        byte[][] names = new byte[neurons.size()][];
+        int i = 0;
+        for (Neuron n: neurons) {
+            names[i] = n.name.getBytes( StandardCharsets.UTF_8 );
+            if (names[i].length > 0xffff) { // its length is a short
+                out.close();
+                throw new IOException(
+                    "a name of " + names[i].length + " bytes is too long"
+                );
+            }
+            size = size + 2 + names[i].length;
+            i++;
+        }
+        ByteBuffer header = ByteBuffer.allocate( size );
+        header.putInt( MAGIC ).putInt( VERSION ).putInt( names.length );
+        for (byte[] name: names) {
+            header.putShort( (short)name.length ).put( name );
+        }
+        header.flip();
+        write( header );
+        block.position( BLOCK_HEADER );
+    }
+
+    private void write( ByteBuffer b ) throws IOException {
+        while (b.hasRemaining()) out.write( b );
+    }
+
+    /** Record that neuron n fired at the given time
+     */
+    public void record( int n, float time ) {
+        if (count == 0) {
+            earliest = time;
+            latest = time;
+        } else {
+            earliest = Math.min( earliest, time );
+            latest = Math.max( latest, time );
+        }
+        int bits = Float.floatToIntBits( time );
+        int delta = bits - lastBits;
+        lastBits = bits;
+        putVarint( n );
+        putVarint( (delta << 1) ^ (delta >> 31) ); // zigzag
+        count++;
+        if (count == BLOCK) flush();
+    }
+
+    /* really private, one unsigned varint into the block */
+    private void putVarint( int v ) {
+        while ((v & ~0x7f) != 0) {
+            block.put( (byte)((v & 0x7f) | 0x80) );
+            v = v >>> 7;
+        }
+        block.put( (byte)v );
+    }
+
+    /** Write the spikes of the block so far, if any, and start another
+     */
+    private void flush() {
+        if (count == 0) return;
+        int length = block.position() - BLOCK_HEADER;
+        block.putInt( 0, count ).putInt( 4, length )
+             .putFloat( 8, earliest ).putFloat( 12, latest );
+        try {
+            long offset = out.position();
+            block.flip();
+            write( block );
+            if (index.remaining() < INDEX_ENTRY) {
+                ByteBuffer bigger = ByteBuffer.allocate( index.capacity() * 2 );
+                index.flip();
+                index = bigger.put( index );
+            }
+            index.putLong( offset ).putFloat( earliest ).putFloat( latest )
+                 .putInt( count );
+        } catch (IOException e) {
+            throw new RuntimeException( e );
+        }
+        blocks++;
+        spikes = spikes + count;
+        count = 0;
+        lastBits = 0;
+        block.clear().position( BLOCK_HEADER );
+    }
+
+    /** Write the last block and the index, and close the file
+     */
+    public void close() throws IOException {
+        flush();
+        long at = out.position();
+        index.flip();
+        write( index );
+        ByteBuffer trailer = ByteBuffer.allocate( TRAILER );
+        trailer.putLong( at ).putInt( blocks ).putLong( spikes ).putInt( MAGIC );
+        trailer.flip();
+        write( trailer );
+        out.close();
+    }
+
+    /** Reads back a record of spikes, block by block
+     *  After {@code next} returns true, {@code neuron} and {@code time}
+     *  give the spike read; spikes come in the order they were recorded.
+     */
+    static class Reader implements Closeable {
+        private final FileChannel in;
+        private final String[] names;
+        private final long[] offset;    // of each block
+        private final float[] earliest;
+        private final float[] latest;
+        private final int[] counts;
+        private final long spikes;
+
+        private int nextBlock = 0;      // the block to read after this
+        private ByteBuffer block = ByteBuffer.allocate( 0 );
+        private int left = 0;           // spikes left in this block
+        private int bits = 0;
+        private int neuron;
+        private float time;
+
+        /** Open a record of spikes
+         *  @throws IOException if it cannot be read or is not one
+         */
+        Reader( File f ) throws IOException {
+            in = new FileInputStream( f ).getChannel();
+            try {
+                ByteBuffer b = read( 0, 12 );
+                if ((b.getInt() != MAGIC) || (b.getInt() != VERSION)) {
+                    throw new IOException( f + " is not a spike raster" );
+                }
+                names = new String[b.getInt()];
+                long at = 12;
+                for (int i = 0; i < names.length; i++) {
+                    int length = read( at, 2 ).getShort() & 0xffff;
+                    byte[] name = new byte[length];
+                    read( at + 2, length ).get( name );
+                    names[i] = new String( name, StandardCharsets.UTF_8 );
+                    at = at + 2 + length;
+                }
+
+                ByteBuffer t = read( in.size() - TRAILER, TRAILER );
+                long indexAt = t.getLong();
+                int blocks = t.getInt();
+                spikes = t.getLong();
+                if (t.getInt() != MAGIC) {
+                    throw new IOException( f + " is incomplete" );
+                }
+                offset = new long[blocks];
+                earliest = new float[blocks];
+                latest = new float[blocks];
+                counts = new int[blocks];
+                ByteBuffer x = read( indexAt, blocks * INDEX_ENTRY );
+                for (int i = 0; i < blocks; i++) {
+                    offset[i] = x.getLong();
+                    earliest[i] = x.getFloat();
+                    latest[i] = x.getFloat();
+                    counts[i] = x.getInt();
+                }
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw (e instanceof IOException)
+                    ? (IOException)e
+                    : new IOException( f + " is damaged", e );
+            }
+        }
+
+        /* really private, length bytes from the given place in the file */
+        private ByteBuffer read( long at, int length ) throws IOException {
+            ByteBuffer b = ByteBuffer.allocate( length );
+            while (b.hasRemaining()) {
+                if (in.read( b, at + b.position() ) < 0) {
+                    throw new IOException( "unexpected end of file" );
+                }
+            }
+            b.flip();
+            return b;
+        }
+
+        /** @return the number of neurons */
+        int neurons() {
+            return names.length;
+        }
+
+        /** @return the name of neuron n */
+        String name( int n ) {
+            return names[n];
+        }
+
+        /** @return the number of spikes recorded */
+        long spikes() {
+            return spikes;
+        }
+
+        /** @return the number of blocks */
+        int blocks() {
+            return offset.length;
+        }
+
+        /** Move to the first block that may hold spikes at or after time t
+         *  Spikes before t may still follow, from the start of that block.
+         */
+        void seek( float t ) {
+            int b = 0;
+            while ((b < offset.length) && (latest[b] < t)) b++;
+            nextBlock = b;
+            left = 0;
+        }
+
+        /** Read the next spike
+         *  @return false if there are no more
+         */
+        boolean next() throws IOException {
+            while (left == 0) {
+                if (nextBlock == offset.length) return false;
+                int b = nextBlock++;
+                int length = read( offset[b] + 4, 4 ).getInt();
+                block = read( offset[b] + BLOCK_HEADER, length );
+                left = counts[b];
+                bits = 0;
+            }
+            neuron = getVarint();
+            int z = getVarint();
+            bits = bits + ((z >>> 1) ^ -(z & 1));
+            time = Float.intBitsToFloat( bits );
+            left--;
+            return true;
+        }
+
+        /* really private, one unsigned varint from the block */
+        private int getVarint() {
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = block.get();
+                v = v | ((b & 0x7f) << shift);
+                shift = shift + 7;
+            } while (b < 0);
+            return v;
+        }
+
+        /** @return the neuron of the spike read */
+        int neuron() {
+            return neuron;
+        }
+
+        /** @return the time of the spike read */
+        float time() {
+            return time;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /** Print a record of spikes as text, one spike per line
+     *  Usage: {@code java SpikeRaster file [from [to]]}, printing the
+     *  time and neuron name of each spike from time {@code from}
+     *  up to and including {@code to}.
+     */
+    public static void main( String[] args ) throws IOException {
+        if (args.length == 0) {
+            System.err.println( "Usage: java SpikeRaster file [from [to]]" );
+            System.exit( 1 );
+        }
+        float from = (args.length > 1) ? Float.parseFloat( args[1] ) : 0.0f;
+        float to = (args.length > 2)
+            ? Float.parseFloat( args[2] )
+            : Float.POSITIVE_INFINITY;
+        try (Reader r = new Reader( new File( args[0] ) )) {
+            System.out.println(
+                r.neurons() + " neurons, " + r.spikes() + " spikes, " +
+                r.blocks() + " blocks"
+            );
+            r.seek( from );
+            StringBuilder line = new StringBuilder();
+            while (r.next()) {
+                if ((r.time() < from) || (r.time() > to)) continue;
+                line.setLength( 0 );
+                line.append( r.time() ).append( ' ' ).append( r.name( r.neuron() ) );
+                System.out.println( line );
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+// Stimulus.java
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/** A file of kicks from outside the network, read as it is simulated
+ *  A {@code stimulus} declaration in the network description names a
+ *  file of kicks, sorted by time; a name not absolute is taken from
+ *  the directory of the description.  As text, each line is
+ *  <pre>
+ *  neuron time strength
+ *  </pre>
+ *  The binary form, which {@code java Stimulus text binary} makes from
+ *  the text, starts with the names of the neurons kicked and then holds
+ *  each kick in 12 bytes.  Either way, at most one event of each file is
+ *  ever in the event queue, that of its next kick: when it is triggered,
+ *  all kicks of the file at that time are delivered, as
+ *  {@link Neuron#kick} or its packed equivalent, and the event of the
+ *  next is scheduled.  So the queue merges the files with the events of
+ *  the network in time order, and only the next kick of each is held,
+ *  whatever the length of the file.  Text is read through the buffer of
+ *  a {@link Tokenizer}, binary through a mapped window of the file,
+ *  moved along as it is used up.
+ *  A kick out of time order, of a neuron not in the network, or on a
+ *  malformed line, is reported and skipped, wherever it is in the file;
+ *  these are not counted as errors of the network, so one found as the
+ *  file is opened, before the simulation starts, does not stop it.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see Simulation#read
+ *  @see Simulator
+ *
+ *  Binary layout, all big-endian:
+ *  <pre>
+ *  int magic, int version
+ *  int names; per name: short length, that many UTF-8 bytes
+ *  per kick: int name number, float time, float strength
+ *  </pre>
+ */
+class Stimulus implements Closeable {
+    private static final int MAGIC = 0x4e4e5331; // "NNS1"
+    private static final int VERSION = 1;
+    private static final int KICK = 12;             // bytes per kick
+    private static final long WINDOW = KICK << 20;  // bytes mapped at once
+
+    private final Simulation sim;
+    private final File file;
+    private final int number;       // the target of its events
+    private final Neuron[] neurons; // by number
+    private final Errors errors;    // reported, not counted for the network
+
+    // the next kick, not yet delivered, if there is one
+    private boolean ready = false;
+    private int neuron;
+    private float time;
+    private float strength;
+    private float last = 0.0f;      // time of the kick before
+    private long taken = 0;         // kicks taken from the file so far
+
+    // text
+    private Tokenizer text = null;
+
+    // binary: neuron number of each name, and the window on the kicks
+    private FileChannel channel = null;
+    private int[] named;
+    private long kicks;             // offset of the first kick
+    private long position;          // offset of the next kick
+    private MappedByteBuffer window = null;
+
+    /** Open a stimulus file, ready to schedule its first kick
+     *  @param sim  the simulation, with its network read
+     *  @param f  the file, text or binary
+     *  @param number  its place in {@link Simulation#stimuli}
+     *  @throws IOException if it cannot be read
+     */
+    Stimulus( Simulation sim, File f, int number ) throws IOException {
+        this.sim = sim;
+        this.file = f;
+        this.number = number;
+        this.errors = sim.errors.apart();
+        neurons = sim.network.neurons.toArray( new Neuron[0] );
+        boolean binary;
+        try (DataInputStream in = new DataInputStream( new FileInputStream( f ) )) {
+            binary = (f.length() >= 8) && (in.readInt() == MAGIC);
+        }
+        if (binary) {
+            openBinary();
+        } else {
+            text = new Tokenizer( f, errors );
+        }
+        next();
+    }
+
+    /* really private, read the header of a binary file */
+    private void openBinary() throws IOException {
+        channel = new FileInputStream( file ).getChannel();
+        DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+        try {
+            in.readInt();
+            if (in.readInt() != VERSION) {
+                throw new IOException( "unknown version" );
+            }
+            named = new int[in.readInt()];
+            long offset = 12;
+            for (int i = 0; i < named.length; i++) {
+                byte[] bytes = new byte[in.readUnsignedShort()];
+                in.readFully( bytes );
+                offset = offset + 2 + bytes.length;
+                String name = new String( bytes, StandardCharsets.UTF_8 );
+                Neuron n = sim.network.findNeuron( name );
+                if (n == null) {
+                    errors.warning(
+                        "Stimulus " + file + " -- no such neuron " + name
+                    );
+                }
+                named[i] = (n != null) ? n.number : -1;
+            }
+            kicks = offset;
+            position = offset;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Schedule the event of the next kick, if there is one
+     *  Called when the file is opened, and again if the simulation is
+     *  started over, see {@link PackedNetwork#start}.
+     */
+    void start() {
+        if (ready) sim.simulator.schedule( time, Simulator.STIMULUS, number );
+    }
+
+    /** Deliver the kicks due now, and schedule the next
+     *  @param now  the time of the event, as the simulator keeps it
+     */
+    void trigger( float now ) {
+        PackedNetwork packed = sim.network.packed;
+        MappedNetwork mapped = sim.network.mapped;
+        float due = time;
+        do {
+            FlightEvents.delivery( neuron, false, strength, now );
+            if (mapped != null) {
+                mapped.kick( neuron, now, strength );
+            } else if (packed != null) {
+                packed.kick( neuron, now, strength );
+            } else {
+                neurons[neuron].kick( now, strength );
+            }
+            next();
+        } while (ready && (time == due));
+        start();
+    }
+
+    /* really private, take the next good kick from the file, if any */
+    private void next() {
+        try {
+            for (;;) {
+                ready = (text != null) ? nextText() : nextBinary();
+                if (!ready) return;
+                if (time >= last) break;
+                errors.warning(
+                    "Stimulus " + file + " -- kick " + taken +
+                    " at " + time + " is out of time order"
+                );
+            }
+            last = time;
+        } catch (IOException e) {
+            ready = false;
+            sim.errors.fatal( "Stimulus " + file + " -- " + e.getMessage() );
+        }
+    }
+
+    /* really private, the next kick of a text file, skipping bad lines */
+    private boolean nextText() {
+        while (text.hasNext()) {
+            taken++;
+            int line = text.line();
+            int count = errors.errCount;
+            String name = ScanSupport.nextName( text, () -> "Stimulus " + file );
+            float t = ScanSupport.nextFloat( text, () -> "Stimulus " + file );
+            float s = ScanSupport.nextFloat( text, () -> "Stimulus " + file );
+            ScanSupport.lineEnd( text, () -> "Stimulus " + file );
+            if (errors.errCount != count) continue;
+            Neuron n = sim.network.findNeuron( name );
+            if (n == null) {
+                errors.warning(
+                    "Stimulus " + file + " -- no such neuron " + name +
+                    " at line " + line
+                );
+                continue;
+            }
+            neuron = n.number;
+            time = t;
+            strength = s;
+            return true;
+        }
+        return false;
+    }
+
+    /* really private, the next kick of a binary file, skipping unknown
+     * neurons, moving the window along as needed */
+    private boolean nextBinary() throws IOException {
+        for (;;) {
+            if ((window == null) || (window.remaining() < KICK)) {
+                long size = Math.min( WINDOW, channel.size() - position );
+                size = size - size % KICK;
+                if (size == 0) return false;
+                window = channel.map( FileChannel.MapMode.READ_ONLY, position, size );
+            }
+            int name = window.getInt();
+            time = window.getFloat();
+            strength = window.getFloat();
+            position = position + KICK;
+            taken++;
+            if ((name >= 0) && (name < named.length) && (named[name] >= 0)) {
+                neuron = named[name];
+                return true;
+            }
+        }
+    }
+
+    /** Save where the file is read to, for a checkpoint
+     */
+    void write( DataOutputStream out ) throws IOException {
+        out.writeLong( taken );
+        out.writeBoolean( ready );
+        out.writeFloat( last );
+    }
+
+    /** Go back to where the file was read to, as saved by {@code write}
+     *  The kick that was next is read again; what was before it, skipped.
+     */
+    void read( DataInputStream in ) throws IOException {
+        long saved = in.readLong();
+        boolean wasReady = in.readBoolean();
+        float savedLast = in.readFloat();
+        long skip = wasReady ? saved - 1 : saved;
+        if (text != null) {
+            text.close();
+            text = new Tokenizer( file, errors );
+            for (long i = 0; (i < skip) && text.hasNext(); i++) text.endLine();
+        } else {
+            position = kicks + skip * KICK;
+            window = null;
+        }
+        taken = skip;
+        last = savedLast;
+        ready = false;
+        if (wasReady) {
+            ready = (text != null) ? nextText() : nextBinary();
+            if (!ready || (taken != saved)) {
+                throw new IOException( file + " has changed" );
+            }
+        }
+    }
+
+    /** Let go of the file
+     */
+    public void close() throws IOException {
+        if (text != null) text.close();
+        if (channel != null) channel.close();
+        window = null;
+    }
+
+    /** Convert a text stimulus file to the binary form
+     *  Usage: {@code java Stimulus text binary}.  The text is read twice,
+     *  once for the names and once for the kicks, and need not be held.
+     */
+    public static void main( String[] args ) throws IOException {
+        if (args.length != 2) {
+            System.err.println( "usage: java Stimulus text binary" );
+            System.exit( 1 );
+        }
+        File source = new File( args[0] );
+        Errors errors = new Errors( System.err );
+        HashMap <String,Integer> names = new HashMap <String,Integer> ();
+        LinkedList <String> order = new LinkedList <String> ();
+        try (Tokenizer sc = new Tokenizer( source, errors )) {
+            while (sc.hasNext()) {
+                String name = ScanSupport.nextName( sc, () -> "Stimulus" );
+                ScanSupport.nextFloat( sc, () -> "Stimulus " + name );
+                ScanSupport.nextFloat( sc, () -> "Stimulus " + name );
+                ScanSupport.lineEnd( sc, () -> "Stimulus " + name );
+                if ((name != null) && (names.putIfAbsent( name, names.size() ) == null)) {
+                    order.add( name );
+                }
+            }
+        }
+        if (errors.errCount > 0) System.exit( 1 );
+
+        long count = 0;
+        try (
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( args[1] ), 1 << 16 )
+            );
+            Tokenizer sc = new Tokenizer( source, errors )
+        ) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( order.size() );
+            for (String name: order) {
+                byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+                if (bytes.length > 0xffff) { // its length is a short
+                    throw new IOException(
+                        "a name of " + bytes.length + " bytes is too long"
+                    );
+                }
+                out.writeShort( bytes.length );
+                out.write( bytes );
+            }
+            while (sc.hasNext()) {
+                out.writeInt( names.get( sc.nextName() ) );
+                out.writeFloat( ScanSupport.nextFloat( sc, () -> "Stimulus" ) );
+                out.writeFloat( ScanSupport.nextFloat( sc, () -> "Stimulus" ) );
+                sc.endLine();
+                count++;
+            }
+        }
+        System.out.println( count + " kicks of " + order.size() + " neurons" );
+    }
+}
@@ -1,7 +1,6 @@
 // Synapse.java
 
-import java.util.regex.Pattern;
-import java.util.Scanner;
+import java.util.LinkedList;
 
 /** Synapses join neurons and come in several flavors
  *  @author: Douglas W. Jones
@@ -29,121 +28,199 @@ abstract class Synapse {
 
     public static class IllegalNameEx extends Exception {}
 
-    // really private to Synapse initializer
-    private static final Pattern noName = Pattern.compile( "-" );
+    /** One scanned synapse declaration
+     *  The fields of the declaration are held here until the kind of
+     *  synapse can be decided, which requires knowing whether the
+     *  destination names a neuron or a synapse.  Declarations naming
+     *  something not yet declared wait in the network's {@code forwards}.
+     */
+    static class Declaration {
+        final Simulation sim; // the simulation it is declared in
+        String name = null;
+        String sourceName = null;
+        String dstName = null;
+        float delay = 99.99f;
+        float strength = 99.99f;
+        Synapse synapse = null; // the synapse, once it is created
 
-    // generic initializer
-    static Synapse newSynapse( Scanner sc ) throws IllegalNameEx {
-        // proxies for fields until we know the type of this synapse
-        String myName = null;
-        Neuron mySource = null;
+        Declaration( Simulation sim ) {
+            this.sim = sim;
+        }
+
+        /** Is every name this declaration uses already a neuron or synapse
+         */
+        boolean isResolved() {
+            return resolved( sourceName ) && resolved( dstName );
+        }
+
+        private boolean resolved( String s ) {
+            if (s == null) return true; // scan-support already complained
+            Object o = sim.network.lookup( s );
+            return (o instanceof Neuron) || (o instanceof Synapse);
+        }
 
-        // only one of the following proxies will be non-null
-        Neuron myPrimaryDest = null;
-        Synapse mySecondaryDest = null;
+        /** Create the synapse, primary if the destination is a neuron
+         *  Secondary synapses are connected later by {@code finish}.
+         */
+        void instantiate() {
+            Neuron dst = sim.network.findNeuron( dstName );
+            if (dst != null) {
+                synapse = new PrimarySynapse( dst );
+            } else {
+                synapse = new SecondarySynapse( sim.errors, null );
+            }
+            synapse.name = name;
+            synapse.delay = delay;
+            synapse.strength = strength;
+            if (name != null) sim.network.declare( name, synapse );
+        }
+
+        /** Connect the synapse to its source and destination and check it
+         */
+        void finish() {
+            final Synapse s = synapse;
+            s.source = sim.network.findNeuron( sourceName );
+
+            Synapse mySecondaryDest = null;
+            if (s instanceof SecondarySynapse) {
+                mySecondaryDest = sim.network.findSynapse( dstName );
+                ((SecondarySynapse)s).connect( sim.errors, mySecondaryDest );
+            }
+
+            // check correctness of fields
+            if ((sourceName != null) && (s.source == null)) {
+                sim.errors.warning(
+                    s.toString() +
+                    " -- no such source"
+                );
+            }
+            if ( (dstName != null)
+            &&   (s instanceof SecondarySynapse)
+            &&   (mySecondaryDest == null) ) {
+                sim.errors.warning(
+                    s.toString() +
+                    " -- no such destination"
+                );
+            }
+            if (s.delay < 0.0f) {
+                sim.errors.warning(
+                    s.toString() +
+                    " -- illegal negative delay"
+                );
+                s.delay = 99.99f;
+            }
+            if (s.source != null) {
+                s.source.synapses.add( s );
+            }
+        }
+
+        public String toString() {
+            return (
+                "Synapse " +
+                ( name != null ? name : "-" ) +
+                " " +
+                ( sourceName != null ? sourceName : "---" ) +
+                " " +
+                ( dstName != null ? dstName : "---" ) +
+                " " + delay + " " + strength
+            );
+        }
+    }
+
+    /** Generic initializer
+     *  @return the new synapse, or null if it refers forward to a name
+     *  not yet declared; such synapses are created by
+     *  {@link resolveForwardReferences}.
+     */
+    static Synapse newSynapse( Simulation sim, Tokenizer sc )
+    throws IllegalNameEx {
+        final Declaration d = new Declaration( sim );
 
-        // the Synapse we're allocating
-        Synapse mySynapse = null;
-        
         // scan and process one synapse
-        if (sc.hasNext( noName )) { // unnamed synapse
-            sc.next( noName );
-        } else { // named synapse, process the name
-            myName = ScanSupport.nextName(
+        // an unnamed synapse is marked by a dash
+        if (!sc.nextIs( "-" )) { // named synapse, process the name
+            d.name = ScanSupport.nextName(
                 sc,
                 () -> "Synapse ???"
             );
-            if (myName == null) {
+            if (d.name == null) {
                 // nextName() already reported syntax error
-                sc.nextLine();
+                sc.endLine();
                 throw new IllegalNameEx ();
             }
-            if ((NeuronNetwork.findNeuron( myName ) != null)
-            ||  (NeuronNetwork.findSynapse( myName ) != null)) {
-                Errors.warning(
-                    "Synapse " + myName +
+            if (sim.network.isDeclared( d.name )) {
+                sim.errors.warning(
+                    "Synapse " + d.name +
                     " -- duplicate declaration"
                 );
-                sc.nextLine();
+                sc.endLine();
                 throw new IllegalNameEx();
             }
+            // reserve the name until the synapse itself exists
+            sim.network.declare( d.name, d );
         }
 
-        // the following is needed because of limits of java lambda
-        final String finalName = myName;
-
-        String sourceName = ScanSupport.nextName(
+        d.sourceName = ScanSupport.nextName(
             sc,
             () -> (
                 "Synapse " +
-                (finalName != null ? finalName : "-") +
+                (d.name != null ? d.name : "-") +
                 " ???"
             )
         );
-        String dstName = ScanSupport.nextName(
+        d.dstName = ScanSupport.nextName(
             sc,
             () -> (
                 "Synapse " +
-                (finalName != null ? finalName : "-") +
+                (d.name != null ? d.name : "-") +
                 " " +
-                (sourceName != null ? sourceName : "---") +
+                (d.sourceName != null ? d.sourceName : "---") +
                 " ???"
             )
         );
-        mySource = NeuronNetwork.findNeuron( sourceName );
-        myPrimaryDest = NeuronNetwork.findNeuron( dstName );
-        if (myPrimaryDest == null) {
-            mySecondaryDest = NeuronNetwork.findSynapse( dstName );
-            mySynapse = new SecondarySynapse( mySecondaryDest );
-        } else {
-            mySynapse = new PrimarySynapse( myPrimaryDest );
-        }
-
-        // the following is needed because of limits of java lambda
-        final Synapse finalSynapse = mySynapse;
-
-        finalSynapse.name = finalName;
-        finalSynapse.source = mySource;
-    
-        finalSynapse.delay = ScanSupport.nextFloat(
+        d.delay = ScanSupport.nextFloat(
             sc,
-            () -> finalSynapse.toString()
+            () -> d.toString()
         );
-        finalSynapse.strength = ScanSupport.nextFloat(
+        d.strength = ScanSupport.nextFloat(
             sc,
-            () -> finalSynapse.toString()
+            () -> d.toString()
         );
         ScanSupport.lineEnd(
             sc,
-            () -> finalSynapse.toString()
+            () -> d.toString()
         );
 
-        // check correctness of fields
-        if ((sourceName != null) && (mySource == null)) {
-            Errors.warning(
-                finalSynapse.toString() +
-                " -- no such source"
-            );
+        if (!d.isResolved()) {
+            sim.network.forwards.add( d );
+            return null;
         }
-        if ( (dstName != null)
-        &&   (myPrimaryDest == null)
-        &&   (mySecondaryDest == null) ) {
-            Errors.warning(
-                finalSynapse.toString() +
-                " -- no such destination"
-            );
-        }
-        if (finalSynapse.delay < 0.0f) {
-            Errors.warning(
-                finalSynapse.toString() +
-                " -- illegal negative delay"
-            );
-            finalSynapse.delay = 99.99f;
+        d.instantiate();
+        d.finish();
+        return d.synapse;
+    }
+
+    /** Create the synapses whose declarations referred forward
+     *  Called once the whole network description has been read.
+     *  All of these are created before any is connected, since one
+     *  forward synapse may be the destination of another.
+     *  @param network  the network whose forward declarations to create
+     *  @return the new synapses, in the order they were declared
+     */
+    static LinkedList <Synapse> resolveForwardReferences(
+        NeuronNetwork network
+    ) {
+        LinkedList <Declaration> forwards = network.forwards;
+        LinkedList <Synapse> made = new LinkedList <Synapse> ();
+        for (Declaration d: forwards) {
+            d.instantiate();
         }
-        if (finalSynapse != null && finalSynapse.source != null) {
-            finalSynapse.source.synapses.add(finalSynapse);
+        for (Declaration d: forwards) {
+            d.finish();
+            made.add( d.synapse );
         }
-        return finalSynapse;
+        forwards.clear();
+        return made;
     }
 
     // simulation methods
@@ -0,0 +1,174 @@
+// TickHeap.java
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Pending events keyed by whole ticks of time, first in first out
+ *  A time is kept as a {@code long} count of ticks of a fixed
+ *  resolution, so adding a delay to a late time is exact, where with a
+ *  {@code float} a small delay added to a large time is rounded, even
+ *  to nothing.  Each event added gets the next sequence number, and
+ *  events at the same tick come out in the order they were added.  The
+ *  order of events is so fixed by the ticks and the order of
+ *  scheduling alone; any queue keyed the same way, such as a bucket or
+ *  radix queue over the integer ticks, gives the same results.
+ *  This one is a d-ary heap over primitive arrays.
+ *  Times given as floats are rounded to the nearest tick;
+ *  {@link Simulator#scheduleAfter} adds delays in ticks instead.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see Simulator#useTicks
+ *  @see EventQueue
+ */
+class TickHeap extends EventQueue {
+    private final int arity;            // children per heap node
+    private final double resolution;    // time per tick
+    private final double perTime;       // ticks per unit of time
+    private long[] ticks = new long[1024];
+    private long[] seqs = new long[1024];
+    private long[] items = new long[1024];
+    private int size = 0;
+    private long seq = 0;               // of the next event added
+
+    /** @param d, the number of children of each heap node
+     *  @param resolution, the time of one tick
+     */
+    TickHeap( int d, double resolution ) {
+        arity = d;
+        this.resolution = resolution;
+        perTime = 1.0 / resolution;
+    }
+
+    /** @return a time rounded to the nearest tick */
+    long toTicks( float time ) {
+        return Math.round( time * perTime );
+    }
+
+    /** @return the time of a tick, as near as a float can be */
+    float toTime( long tick ) {
+        return (float)(tick * resolution);
+    }
+
+    /** @return the time of one tick */
+    double resolution() {
+        return resolution;
+    }
+
+    /* really private, does (t1, s1) come before (t2, s2) */
+    private static boolean before( long t1, long s1, long t2, long s2 ) {
+        return (t1 < t2) || ((t1 == t2) && (s1 < s2));
+    }
+
+    void add( float t, long item ) {
+        addTick( toTicks( t ), item );
+    }
+
+    /** Add an event at a tick
+     */
+    void addTick( long t, long item ) {
+        if (size == ticks.length) {
+            ticks = Arrays.copyOf( ticks, size * 2 );
+            seqs = Arrays.copyOf( seqs, size * 2 );
+            items = Arrays.copyOf( items, size * 2 );
+        }
+        long s = seq++;
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) / arity;
+            if (!before( t, s, ticks[parent], seqs[parent] )) break;
+            ticks[i] = ticks[parent];
+            seqs[i] = seqs[parent];
+            items[i] = items[parent];
+            i = parent;
+        }
+        ticks[i] = t;
+        seqs[i] = s;
+        items[i] = item;
+    }
+
+    int size() {
+        return size;
+    }
+
+    float firstTime() {
+        return toTime( ticks[0] );
+    }
+
+    /** @return the tick of the earliest event; only if not empty
+     */
+    long firstTick() {
+        return ticks[0];
+    }
+
+    long firstItem() {
+        return items[0];
+    }
+
+    void removeFirst() {
+        int n = --size;
+        long t = ticks[n];
+        long s = seqs[n];
+        long item = items[n];
+        int i = 0;
+        for (;;) {
+            int child = i * arity + 1;
+            if (child >= n) break;
+            int end = Math.min( child + arity, n );
+            int least = child;
+            long lt = ticks[child];
+            long ls = seqs[child];
+            for (int c = child + 1; c < end; c++) {
+                if (before( ticks[c], seqs[c], lt, ls )) {
+                    least = c;
+                    lt = ticks[c];
+                    ls = seqs[c];
+                }
+            }
+            if (!before( lt, ls, t, s )) break;
+            ticks[i] = lt;
+            seqs[i] = ls;
+            items[i] = items[least];
+            i = least;
+        }
+        ticks[i] = t;
+        seqs[i] = s;
+        items[i] = item;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void write( DataOutputStream out ) throws IOException {
+        out.writeInt( arity );
+        out.writeDouble( resolution );
+        out.writeLong( seq );
+        out.writeInt( size );
+        for (int i = 0; i < size; i++) {
+            out.writeLong( ticks[i] );
+            out.writeLong( seqs[i] );
+            out.writeLong( items[i] );
+        }
+    }
+
+    void read( DataInputStream in ) throws IOException {
+        if ((in.readInt() != arity) || (in.readDouble() != resolution)) {
+            throw new IOException( "saved from another kind of tick heap" );
+        }
+        seq = in.readLong();
+        int n = in.readInt();
+        if (n > ticks.length) {
+            ticks = new long[n];
+            seqs = new long[n];
+            items = new long[n];
+        }
+        for (int i = 0; i < n; i++) { // already in heap order
+            ticks[i] = in.readLong();
+            seqs[i] = in.readLong();
+            items[i] = in.readLong();
+        }
+        size = n;
+    }
+}
@@ -0,0 +1,168 @@
+// TimingWheel.java
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Pending events in a timing wheel with an overflow level
+ *  Time is cut into slots of a fixed width.  The wheel has a bucket for
+ *  each of the next so many slots, starting from the current one; an
+ *  event in that window goes, unsorted, into the bucket for its slot,
+ *  and anything later goes into the overflow level, a heap.  Events of
+ *  the current slot are moved into a small heap of their own to be taken
+ *  in time order.  When that is empty the wheel turns to the next slot
+ *  with events, and overflow events that have come into the window are
+ *  moved into their buckets.
+ *  So long as the window covers the synaptic delays and the slot width
+ *  keeps each slot's events few, adding and removing an event costs
+ *  O(1) amortized, and only rare far-future events, such as output
+ *  ticks in a window shorter than the output interval, see the overflow.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see EventQueue
+ *  @see EventHeap
+ */
+class TimingWheel extends EventQueue {
+    private final float width;  // time covered by each slot
+    private final int buckets;  // slots in the window
+
+    // unsorted events of each slot in the window, by slot modulo buckets
+    private final float[][] times;
+    private final long[][] items;
+    private final int[] count;
+    private int inWheel = 0;    // events in all the buckets
+
+    private long now = 0;       // the current slot
+    private final EventHeap current = new EventHeap( 2 ); // its events
+    private final EventHeap overflow = new EventHeap( 4 ); // beyond window
+
+    /** @param width, the time covered by each slot
+     *  @param buckets, the number of slots in the window
+     */
+    TimingWheel( float width, int buckets ) {
+        this.width = width;
+        this.buckets = buckets;
+        times = new float[buckets][4];
+        items = new long[buckets][4];
+        count = new int[buckets];
+    }
+
+    /* really private, the slot a time falls in */
+    private long slot( float t ) {
+        return (long)Math.floor( t / width );
+    }
+
+    void add( float t, long item ) {
+        long s = slot( t );
+        if (s <= now) { // the current slot, or earlier in error
+            current.add( t, item );
+        } else if (s < now + buckets) {
+            toBucket( (int)(s % buckets), t, item );
+        } else {
+            overflow.add( t, item );
+        }
+    }
+
+    private void toBucket( int b, float t, long item ) {
+        int n = count[b];
+        if (n == times[b].length) {
+            times[b] = Arrays.copyOf( times[b], n * 2 );
+            items[b] = Arrays.copyOf( items[b], n * 2 );
+        }
+        times[b][n] = t;
+        items[b][n] = item;
+        count[b] = n + 1;
+        inWheel++;
+    }
+
+    /** Turn the wheel until the current slot has events, if any remain
+     */
+    private void advance() {
+        while (current.isEmpty()) {
+            if (inWheel == 0) {
+                if (overflow.isEmpty()) return;
+                now = slot( overflow.firstTime() ); // skip the empty slots
+            } else {
+                now++;
+            }
+
+            // overflow events now in the window go into their buckets
+            while (!overflow.isEmpty()
+            &&     (slot( overflow.firstTime() ) < now + buckets)) {
+                long s = slot( overflow.firstTime() );
+                toBucket(
+                    (int)(s % buckets),
+                    overflow.firstTime(), overflow.firstItem()
+                );
+                overflow.removeFirst();
+            }
+
+            // the bucket of the new current slot is sorted by a heap
+            int b = (int)(now % buckets);
+            for (int i = 0; i < count[b]; i++) {
+                current.add( times[b][i], items[b][i] );
+            }
+            inWheel = inWheel - count[b];
+            count[b] = 0;
+        }
+    }
+
+    int size() {
+        return current.size() + inWheel + overflow.size();
+    }
+
+    float firstTime() {
+        advance();
+        return current.firstTime();
+    }
+
+    long firstItem() {
+        advance();
+        return current.firstItem();
+    }
+
+    void removeFirst() {
+        advance();
+        current.removeFirst();
+    }
+
+    void clear() {
+        current.clear();
+        overflow.clear();
+        Arrays.fill( count, 0 );
+        inWheel = 0;
+        now = 0;
+    }
+
+    void write( DataOutputStream out ) throws IOException {
+        out.writeFloat( width );
+        out.writeInt( buckets );
+        out.writeLong( now );
+        current.write( out );
+        overflow.write( out );
+        for (int b = 0; b < buckets; b++) {
+            out.writeInt( count[b] );
+            for (int i = 0; i < count[b]; i++) {
+                out.writeFloat( times[b][i] );
+                out.writeLong( items[b][i] );
+            }
+        }
+    }
+
+    void read( DataInputStream in ) throws IOException {
+        if ((in.readFloat() != width) || (in.readInt() != buckets)) {
+            throw new IOException( "saved from another kind of wheel" );
+        }
+        clear();
+        now = in.readLong();
+        current.read( in );
+        overflow.read( in );
+        for (int b = 0; b < buckets; b++) {
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                toBucket( b, in.readFloat(), in.readLong() );
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+// Tokenizer.java
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Hand-written tokenizer for network descriptions
+ *  This replaces {@link java.util.Scanner} for reading the input.
+ *  Text is read through a large buffer from a {@link ReadableByteChannel}
+ *  and names and numbers are recognized directly in that buffer, so no
+ *  regular expressions are matched and no strings are made for tokens
+ *  that are only compared or converted.  Tokens are separated by white
+ *  space, as with {@code Scanner}; only {@link hasNext} looks past the
+ *  end of a line, so a field missing at the end of one line is missing,
+ *  not taken from the next.  The input is taken to be ASCII (or UTF-8
+ *  outside of names).
+ *  The line and column of the next token are kept for error messages.
+ *  @author: Cody J. Hoffman
+ *  @version: MP6
+ *  @see ScanSupport
+ *  @see Errors
+ */
+class Tokenizer implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final ReadableByteChannel in;
+    private final boolean owned;    // opened here, so closed here
+    final Errors errors;        // where problems with the text are reported
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private ByteBuffer window = ByteBuffer.wrap( buf );
+    private int pos = 0;        // index in buf of the next unread byte
+    private int limit = 0;      // index in buf past the last byte read
+    private boolean eof = false;
+
+    private int line = 1;       // line number of buf[pos]
+    private long base = 0;      // offset in the input of buf[0]
+    private long lineStart = 0; // offset in the input where that line starts
+
+    // exact powers of ten for the float fast path, see nextFloat
+    private static final float[] FLOAT_POW10 = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    /** Tokenize the text from the given channel
+     *  @param in  the channel; it is read to its end but not closed.
+     *  @param errors  where read errors, and those found by
+     *  {@link ScanSupport} in the text, are reported
+     */
+    public Tokenizer( ReadableByteChannel in, Errors errors ) {
+        this( in, errors, false );
+    }
+
+    /** Tokenize the text of a file
+     *  @param f  the file to read; it stays open until {@code close}
+     *  @param errors  where errors are reported
+     *  @throws FileNotFoundException if the file cannot be opened.
+     */
+    public Tokenizer( File f, Errors errors ) throws FileNotFoundException {
+        this( new FileInputStream( f ).getChannel(), errors, true );
+    }
+
+    /* really private, tokenize a channel, owned or not */
+    private Tokenizer( ReadableByteChannel in, Errors errors, boolean owned ) {
+        this.in = in;
+        this.errors = errors;
+        this.owned = owned;
+    }
+
+    /** Close the file, if this opened it; a channel given is left open
+     */
+    public void close() {
+        if (!owned) return;
+        try {
+            in.close();
+        } catch (IOException e) {
+            // only read
+        }
+    }
+
+    /** @return the line number of the next token, counting from 1
+     */
+    int line() {
+        return line;
+    }
+
+    /** @return the column of the next token, counting from 1
+     */
+    int column() {
+        return (int)(base + pos - lineStart) + 1;
+    }
+
+    /** Make at least n bytes available from pos, unless the input ends
+     *  @return the number of bytes available
+     */
+    private int ensure( int n ) {
+        while ((limit - pos < n) && !eof) {
+            if (pos > 0) { // slide the unread text to the front
+                System.arraycopy( buf, pos, buf, 0, limit - pos );
+                base = base + pos;
+                limit = limit - pos;
+                pos = 0;
+            }
+            if (limit == buf.length) { // one token fills the buffer
+                buf = Arrays.copyOf( buf, buf.length * 2 );
+                window = ByteBuffer.wrap( buf );
+            }
+            window.limit( buf.length ).position( limit );
+            try {
+                int got = in.read( window );
+                if (got < 0) {
+                    eof = true;
+                } else {
+                    limit = limit + got;
+                }
+            } catch (IOException e) {
+                errors.warning( "read error -- " + e.getMessage() );
+                eof = true;
+            }
+        }
+        return limit - pos;
+    }
+
+    /* really private, what counts as a token delimiter */
+    private static boolean isBlank( int c ) {
+        return (c >= 0) && (c <= ' ');
+    }
+
+    /** Skip spaces and tabs, and line ends too if asked
+     */
+    private void skipBlanks( boolean lineEnds ) {
+        for (;;) {
+            if ((pos == limit) && (ensure( 1 ) == 0)) return;
+            byte c = buf[pos];
+            if (c == '\n') {
+                if (!lineEnds) return;
+                pos++;
+                line++;
+                lineStart = base + pos;
+            } else if (isBlank( c )) {
+                pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /** Find the next token on this line without consuming it
+     *  @return the length of the token, which starts at buf[pos],
+     *  or zero at the end of the line or the input.
+     */
+    private int token() {
+        skipBlanks( false );
+        int i = 0;
+        for (;;) {
+            if ((pos + i == limit) && (ensure( i + 1 ) <= i)) return i;
+            if (isBlank( buf[pos + i] )) return i;
+            i++;
+        }
+    }
+
+    /** Go to the next token, on this line or a later one
+     *  @return true if there is another token in the input
+     */
+    boolean hasNext() {
+        skipBlanks( true );
+        return token() > 0;
+    }
+
+    /** @return the next token, or null if there is none on this line
+     */
+    String next() {
+        int len = token();
+        if (len == 0) return null;
+        String s = new String( buf, pos, len, StandardCharsets.UTF_8 );
+        pos = pos + len;
+        return s;
+    }
+
+    /** Consume the next token if it is the given word
+     *  @return true if it was, false (consuming nothing) if not.
+     */
+    boolean nextIs( String word ) {
+        int len = token();
+        if (len != word.length()) return false;
+        for (int i = 0; i < len; i++) {
+            if (buf[pos + i] != word.charAt( i )) return false;
+        }
+        pos = pos + len;
+        return true;
+    }
+
+    /** Consume the next token if it is a name
+     *  Names are a letter followed by any number of letters, digits
+     *  or underscores.
+     *  @return the name, or null (consuming nothing) if not a name.
+     */
+    String nextName() {
+        int len = token();
+        if (len == 0) return null;
+        byte c = buf[pos];
+        if (!(((c >= 'A') && (c <= 'Z')) || ((c >= 'a') && (c <= 'z')))) {
+            return null;
+        }
+        for (int i = 1; i < len; i++) {
+            c = buf[pos + i];
+            if (!( ((c >= 'A') && (c <= 'Z'))
+            ||     ((c >= 'a') && (c <= 'z'))
+            ||     ((c >= '0') && (c <= '9'))
+            ||     (c == '_') )) {
+                return null;
+            }
+        }
+        String s = new String( buf, pos, len, StandardCharsets.ISO_8859_1 );
+        pos = pos + len;
+        return s;
+    }
+
+    // value and extent of the last number recognized, see hasNextFloat
+    private float number;
+    private int integer;
+    private int numberLength;
+
+    /** Check if the next token is a number, without consuming it
+     *  Numbers are as {@code Scanner} reads them: decimals with an
+     *  optional exponent, or {@code NaN} or {@code Infinity}, each with
+     *  an optional sign; not hexadecimal, nor with a suffix such as
+     *  {@code 1f}.  Plain decimals such as {@code -12.5} are converted in
+     *  the buffer; the rest go to {@link Float#parseFloat}.
+     *  @return true if it is; the value is kept for {@link nextFloat}.
+     */
+    boolean hasNextFloat() {
+        int len = token();
+        if (len == 0) return false;
+        int i = 0;
+        boolean negative = false;
+        if ((buf[pos] == '-') || (buf[pos] == '+')) {
+            negative = buf[pos] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1; // digits after the point, -1 if no point
+        for (; i < len; i++) {
+            byte c = buf[pos + i];
+            if ((c >= '0') && (c <= '9')) {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (fraction >= 0) fraction++;
+                if (digits > 18) break; // too long for the fast path
+            } else if ((c == '.') && (fraction < 0)) {
+                fraction = 0;
+            } else {
+                break;
+            }
+        }
+        int scale = (fraction < 0) ? 0 : fraction;
+        if ((i == len) && (digits > 0)
+        &&  (mantissa <= (1 << 24)) && (scale < FLOAT_POW10.length)) {
+            // both operands are exact floats, so one rounding: exact
+            number = (float)mantissa / FLOAT_POW10[scale];
+            if (negative) number = -number;
+            numberLength = len;
+            return true;
+        }
+        if (!isDecimal( len )) return false;
+        number = Float.parseFloat(
+            new String( buf, pos, len, StandardCharsets.ISO_8859_1 )
+        );
+        numberLength = len;
+        return true;
+    }
+
+    /* really private, whether the token of length len at pos is a number
+     * in the syntax hasNextFloat accepts */
+    private boolean isDecimal( int len ) {
+        int i = 0;
+        if ((buf[pos] == '-') || (buf[pos] == '+')) i++;
+        if (isWord( i, len, "NaN" ) || isWord( i, len, "Infinity" )) return true;
+        int digits = 0;
+        boolean point = false;
+        for (; i < len; i++) {
+            byte c = buf[pos + i];
+            if ((c >= '0') && (c <= '9')) {
+                digits++;
+            } else if ((c == '.') && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) return false;
+        if (i == len) return true;
+        if ((buf[pos + i] != 'e') && (buf[pos + i] != 'E')) return false;
+        i++;
+        if ((i < len) && ((buf[pos + i] == '-') || (buf[pos + i] == '+'))) i++;
+        if (i == len) return false; // no exponent digits
+        for (; i < len; i++) {
+            if ((buf[pos + i] < '0') || (buf[pos + i] > '9')) return false;
+        }
+        return true;
+    }
+
+    /* really private, whether the token from pos + i to pos + len is word */
+    private boolean isWord( int i, int len, String word ) {
+        if (len - i != word.length()) return false;
+        for (int j = 0; j < word.length(); j++) {
+            if (buf[pos + i + j] != word.charAt( j )) return false;
+        }
+        return true;
+    }
+
+    /** Consume the number found by {@link hasNextFloat}
+     *  @return its value
+     */
+    float nextFloat() {
+        if (!hasNextFloat()) return Float.NaN; // caller did not check
+        pos = pos + numberLength;
+        return number;
+    }
+
+    /** Check if the next token is an integer, without consuming it
+     *  That is digits with an optional sign, in the range of an int.
+     *  @return true if it is; the value is kept for {@link nextInt}.
+     */
+    boolean hasNextInt() {
+        int len = token();
+        if (len == 0) return false;
+        boolean negative = buf[pos] == '-';
+        int i = (negative || (buf[pos] == '+')) ? 1 : 0;
+        if (i == len) return false;
+        long v = 0;
+        for (; i < len; i++) {
+            byte c = buf[pos + i];
+            if ((c < '0') || (c > '9')) return false;
+            v = v * 10 + (c - '0');
+            if (v > (long)Integer.MAX_VALUE + 1) return false;
+        }
+        if (negative) v = -v;
+        if (v > Integer.MAX_VALUE) return false;
+        integer = (int)v;
+        numberLength = len;
+        return true;
+    }
+
+    /** Consume the integer found by {@link hasNextInt}
+     *  @return its value
+     */
+    int nextInt() {
+        if (!hasNextInt()) return 0; // caller did not check
+        pos = pos + numberLength;
+        return integer;
+    }
+
+    /** Skip the rest of the current line, including its line end
+     *  Nothing past that line end is skipped.
+     *  @return true if only spaces or tabs were skipped
+     */
+    boolean endLine() {
+        skipBlanks( false );
+        boolean empty = true;
+        for (;;) {
+            if ((pos == limit) && (ensure( 1 ) == 0)) return empty;
+            byte c = buf[pos++];
+            if (c == '\n') {
+                line++;
+                lineStart = base + pos;
+                return empty;
+            }
+            empty = false;
+        }
+    }
+}